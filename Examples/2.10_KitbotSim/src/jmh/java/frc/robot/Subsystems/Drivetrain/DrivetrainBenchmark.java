@@ -0,0 +1,97 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.littletonrobotics.junction.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import edu.wpi.first.wpilibj2.command.Command;
+
+/**
+ * Measures the pieces of the drivetrain that run every loop.
+ *
+ * <p>Run with {@code ./gradlew jmh}, then {@code ./gradlew jmhCompare} to check against the
+ * baseline. The gc profiler adds a {@code gc.alloc.rate.norm} line to each result, which is the
+ * number of bytes allocated per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrivetrainBenchmark {
+    DrivetrainSubsystem drivetrain;
+    DrivetrainIOSim io;
+    DrivetrainIOInputsAutoLogged inputs;
+    Command arcadeCommand;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Same setup the robot does before constructing anything
+        HAL.initialize(500, 0);
+        // The sim steps physics up to the current time, so we move the clock one loop per call
+        // instead of letting it run in real time
+        SimHooks.pauseTiming();
+        // processInputs does nothing unless the logger is running
+        Logger.start();
+
+        drivetrain = new DrivetrainSubsystem();
+        // On desktop the subsystem always makes a sim IO
+        io = (DrivetrainIOSim) drivetrain.io;
+        inputs = drivetrain.inputs;
+        arcadeCommand = drivetrain.setVoltagesArcadeCommand(() -> 0.5, () -> 0.25);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Logger.end();
+    }
+
+    @Benchmark
+    public void periodic() {
+        SimHooks.stepTiming(0.020);
+        drivetrain.periodic();
+    }
+
+    @Benchmark
+    public DrivetrainIOInputsAutoLogged updateInputs() {
+        SimHooks.stepTiming(0.020);
+        io.updateInputs(inputs);
+        return inputs;
+    }
+
+    /** The body of setVoltagesArcadeCommand, arcadeDriveIK plus setVolts. */
+    @Benchmark
+    public void arcadeDrive() {
+        arcadeCommand.execute();
+    }
+
+    /** The low latency teleop path, which should allocate nothing. */
+    @Benchmark
+    public void arcadeDriveImmediate() {
+        drivetrain.arcadeDriveImmediate(0.5, 0.25);
+    }
+
+    @Benchmark
+    public void processInputs() {
+        Logger.processInputs("Drivetrain", inputs);
+    }
+}
@@ -0,0 +1,56 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.DifferentialDriveOdometry;
+
+/**
+ * Compares our odometry integrator against WPILib's. The integrator should show 0 bytes per op in
+ * {@code gc.alloc.rate.norm}, and jmhCompare fails if that ever changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OdometryBenchmark {
+    DifferentialOdometryIntegrator integrator =
+        new DifferentialOdometryIntegrator(DrivetrainSubsystem.TRACK_WIDTH_METERS);
+    DifferentialDriveOdometry wpilibOdometry = new DifferentialDriveOdometry(new Rotation2d(), 0, 0);
+
+    // Drive a gentle arc so the heading actually changes
+    double left = 0.0;
+    double right = 0.0;
+
+    @Benchmark
+    public double integratorUpdate() {
+        left += 0.010;
+        right += 0.011;
+        integrator.update(left, right);
+        return integrator.getXMeters();
+    }
+
+    @Benchmark
+    public Object wpilibOdometryUpdate() {
+        left += 0.010;
+        right += 0.011;
+        return wpilibOdometry.update(
+            Rotation2d.fromRadians((right - left) / DrivetrainSubsystem.TRACK_WIDTH_METERS), left, right);
+    }
+}
@@ -0,0 +1,56 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+
+/**
+ * How much CPU one 20ms loop of {@link DrivetrainIOSim} costs at different physics step sizes.
+ * 0.020 is one step per loop like the original sim, 0.001 is the default.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimSubstepBenchmark {
+    @Param({"0.020", "0.004", "0.001"})
+    double physicsPeriodSeconds;
+
+    DrivetrainIOSim io;
+    DrivetrainIOInputsAutoLogged inputs = new DrivetrainIOInputsAutoLogged();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        HAL.initialize(500, 0);
+        SimHooks.pauseTiming();
+        io = new DrivetrainIOSim(physicsPeriodSeconds);
+    }
+
+    @Benchmark
+    public DrivetrainIOInputsAutoLogged updateInputs() {
+        io.setVolts(6.0, 4.0);
+        SimHooks.stepTiming(0.020);
+        io.updateInputs(inputs);
+        return inputs;
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveDriveOdometry;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+
+/**
+ * Compares our swerve math against WPILib's, one loop's worth each. Ours should all show 0 bytes per
+ * op in {@code gc.alloc.rate.norm}, and jmhCompare fails if that ever changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwerveBenchmark {
+    SwerveKinematics kinematics = new SwerveKinematics(SwerveSubsystem.MODULE_X_METERS, SwerveSubsystem.MODULE_Y_METERS);
+    SwerveOdometryIntegrator odometry = new SwerveOdometryIntegrator(kinematics);
+    SwerveSetpointGenerator setpointGenerator = new SwerveSetpointGenerator(kinematics,
+        SwerveSubsystem.MAX_SPEED_METERS_PER_SECOND, SwerveSubsystem.MAX_MODULE_ACCELERATION, SwerveSubsystem.MAX_STEER_RATE);
+
+    SwerveDriveKinematics wpilibKinematics = new SwerveDriveKinematics(
+        new Translation2d(SwerveSubsystem.MODULE_X_METERS[0], SwerveSubsystem.MODULE_Y_METERS[0]),
+        new Translation2d(SwerveSubsystem.MODULE_X_METERS[1], SwerveSubsystem.MODULE_Y_METERS[1]),
+        new Translation2d(SwerveSubsystem.MODULE_X_METERS[2], SwerveSubsystem.MODULE_Y_METERS[2]),
+        new Translation2d(SwerveSubsystem.MODULE_X_METERS[3], SwerveSubsystem.MODULE_Y_METERS[3]));
+    SwerveModulePosition[] wpilibPositions = {
+        new SwerveModulePosition(), new SwerveModulePosition(), new SwerveModulePosition(), new SwerveModulePosition()};
+    SwerveDriveOdometry wpilibOdometry = new SwerveDriveOdometry(wpilibKinematics, new Rotation2d(), wpilibPositions);
+
+    double[] speeds = new double[4];
+    double[] angles = new double[4];
+    double[] positions = new double[4];
+
+    // Drive a gentle arc so the heading and the module angles actually change
+    double distance = 0.0;
+    // Flips between two sticks that need a lot of steering, so the generator's limits kick in
+    boolean flip = false;
+
+    @Benchmark
+    public double inverseKinematics() {
+        return kinematics.inverse(2.0, 1.0, 1.5, speeds, angles);
+    }
+
+    @Benchmark
+    public Object wpilibInverseKinematics() {
+        return wpilibKinematics.toSwerveModuleStates(new ChassisSpeeds(2.0, 1.0, 1.5));
+    }
+
+    @Benchmark
+    public double setpointGenerator() {
+        flip = !flip;
+        setpointGenerator.update(flip ? 3.0 : -1.0, flip ? 0.5 : 2.0, flip ? 1.0 : -2.0, SwerveSubsystem.LOOP_PERIOD_SECONDS);
+        return setpointGenerator.getModuleSpeed(0);
+    }
+
+    @Benchmark
+    public double odometryUpdate() {
+        distance += 0.02;
+        for (int i = 0; i < 4; i++) {
+            positions[i] = distance * (1.0 + 0.01 * i);
+            angles[i] = 0.1 * i;
+        }
+        odometry.update(positions, angles, false, 0.0);
+        return odometry.getXMeters();
+    }
+
+    @Benchmark
+    public Object wpilibOdometryUpdate() {
+        distance += 0.02;
+        for (int i = 0; i < 4; i++) {
+            wpilibPositions[i].distanceMeters = distance * (1.0 + 0.01 * i);
+            wpilibPositions[i].angle = Rotation2d.fromRadians(0.1 * i);
+        }
+        return wpilibOdometry.update(Rotation2d.fromRadians(distance * 0.1), wpilibPositions);
+    }
+}
@@ -0,0 +1,58 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * What the pose trail costs each loop, next to making the Pose2d we log every loop anyway. Adding to
+ * the trail should show 0 bytes per op in {@code gc.alloc.rate.norm}, and jmhCompare fails if that
+ * ever changes. See PoseTrailReport for the bandwidth side.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseTrailBenchmark {
+    // Small enough that it fills up and compacts during the benchmark
+    PoseTrail trail = new PoseTrail("Benchmark/PoseTrail", 64, 0.05, Math.toRadians(15.0), 0.02, 1.0);
+    float[] packed = new float[65 * PoseTrail.FLOATS_PER_POINT];
+
+    // Drive in a big slow circle, so there's always a new corner coming up
+    double angle = 0.0;
+
+    @Benchmark
+    public int trailAdd() {
+        angle += 0.002;
+        trail.add(8.0 + 3.0 * Math.cos(angle), 4.0 + 3.0 * Math.sin(angle), angle + Math.PI / 2.0);
+        return trail.size();
+    }
+
+    @Benchmark
+    public int trailPack() {
+        return trail.pack(packed);
+    }
+
+    @Benchmark
+    public Object rawPose() {
+        angle += 0.002;
+        return new Pose2d(8.0 + 3.0 * Math.cos(angle), 4.0 + 3.0 * Math.sin(angle), new Rotation2d(angle + Math.PI / 2.0));
+    }
+}
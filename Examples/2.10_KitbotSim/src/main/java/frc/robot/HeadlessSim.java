@@ -0,0 +1,81 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+
+/**
+ * Runs the robot code in simulation as fast as the computer can, without the sim GUI.
+ *
+ * <p>Normally the sim waits in real time between loops, so a full match takes two and a half
+ * minutes. Here we pause the sim clock and step it forward one loop at a time ourselves. Each step
+ * waits for the robot loop to finish before moving on, so the code sees exactly the same timing it
+ * would in a normal sim, it just doesn't sit around waiting for the wall clock.
+ *
+ * <p>Run with {@code ./gradlew simulateHeadless}, or pass the auto and teleop lengths in seconds
+ * with {@code ./gradlew simulateHeadless --args="15 135"}.
+ */
+public final class HeadlessSim {
+  private static final double LOOP_PERIOD_SECONDS = 0.020;
+
+  private HeadlessSim() {}
+
+  public static void main(String... args) {
+    double autoSeconds = args.length > 0 ? Double.parseDouble(args[0]) : 15.0;
+    double teleopSeconds = args.length > 1 ? Double.parseDouble(args[1]) : 135.0;
+
+    HAL.initialize(500, 0);
+    // Stop the sim clock so it only moves when we step it
+    SimHooks.pauseTiming();
+    DriverStationSim.setDsAttached(true);
+
+    // Boot runs the same device setup as the real robot, against the sim Talons
+    long bootStartNanos = System.nanoTime();
+    Robot robot = new Robot();
+    System.out.printf("Robot constructed in %.1f ms%n", (System.nanoTime() - bootStartNanos) / 1e6);
+    Thread robotThread = new Thread(robot::startCompetition, "Robot");
+    robotThread.setDaemon(true);
+    robotThread.start();
+    // Wait for robotInit to finish before we start moving the clock
+    SimHooks.waitForProgramStart();
+
+    long startNanos = System.nanoTime();
+    runPhase(true, autoSeconds);
+    runPhase(false, teleopSeconds);
+    double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+    DriverStationSim.setEnabled(false);
+    DriverStationSim.notifyNewData();
+    SimHooks.stepTiming(LOOP_PERIOD_SECONDS);
+    robot.endCompetition();
+    // Make sure any log file gets closed before we exit
+    Logger.end();
+
+    double simSeconds = autoSeconds + teleopSeconds;
+    System.out.printf(
+        "Simulated %.1f s in %.3f s (%.0fx real time)%n", simSeconds, wallSeconds, simSeconds / wallSeconds);
+    System.out.println("Final pose: " + robot.drivetrainSubsystem.getPose());
+
+    // HAL and NetworkTables leave threads running, so exit explicitly
+    System.exit(0);
+  }
+
+  /** Enables the robot in auto or teleop and steps the clock for the given time. */
+  private static void runPhase(boolean autonomous, double seconds) {
+    DriverStationSim.setAutonomous(autonomous);
+    DriverStationSim.setEnabled(true);
+    DriverStationSim.notifyNewData();
+
+    int loops = (int) Math.round(seconds / LOOP_PERIOD_SECONDS);
+    for (int i = 0; i < loops; i++) {
+      // Moves the sim clock forward and waits for the robot loop that wakes up to finish
+      SimHooks.stepTiming(LOOP_PERIOD_SECONDS);
+    }
+  }
+}
@@ -4,41 +4,124 @@
 
 package frc.robot;
 
+import org.littletonrobotics.junction.LogFileUtil;
 import org.littletonrobotics.junction.LoggedRobot;
 import org.littletonrobotics.junction.Logger;
 import org.littletonrobotics.junction.networktables.NT4Publisher;
 import org.littletonrobotics.junction.wpilog.WPILOGWriter;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.PowerDistribution;
 import edu.wpi.first.wpilibj.PowerDistribution.ModuleType;
+import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.Commands;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
 import frc.robot.Subsystems.Drivetrain.DrivetrainSubsystem;
+import frc.robot.Subsystems.Vision.VisionSubsystem;
+import frc.robot.Utils.BufferedWPILOGWriter;
+import frc.robot.Utils.ControlRequestCache;
+import frc.robot.Utils.DeviceInitializer;
+import frc.robot.Utils.InputLatencyTracker;
+import frc.robot.Utils.LoopTimer;
+import frc.robot.Utils.MappedTrajectory;
+import frc.robot.Utils.MappedWPILOGReader;
+import frc.robot.Utils.SimPowerModel;
+import frc.robot.Utils.ThrottledNT4Publisher;
 
 public class Robot extends LoggedRobot {
+  // Set AKIT_LOG_PATH to a .wpilog file to replay it instead of running the sim
+  public static final boolean REPLAY = !isReal() && System.getenv("AKIT_LOG_PATH") != null;
+  // Drive from teleopPeriodic instead of a command, which sends to the motors as early in the loop as we can
+  // Compare LoopTiming/InputLatency with this on and off
+  static final boolean LOW_LATENCY_TELEOP = false;
 
   CommandXboxController controller = new CommandXboxController(0);
 
   DrivetrainSubsystem drivetrainSubsystem = new DrivetrainSubsystem();
+  VisionSubsystem visionSubsystem = new VisionSubsystem(drivetrainSubsystem);
+  Superstructure superstructure;
+  // Loaded once at startup, the file is memory mapped so this is quick and uses almost no memory
+  Command autoCommand = Commands.none();
+
+  // Times everything the scheduler does, which is all of our subsystems and commands
+  LoopTimer robotPeriodicTimer = new LoopTimer("RobotPeriodic");
 
+  // Only set on the real robot, where we log to a USB stick and publish over the radio
+  BufferedWPILOGWriter logWriter = null;
+  ThrottledNT4Publisher ntPublisher = null;
 
   public Robot() {
     Logger.recordMetadata("ProjectName", "KitbotExample"); // Set a metadata value
 
     if (isReal()) {
-      Logger.addDataReceiver(new WPILOGWriter("/media/sda1/")); // Log to a USB stick
-      Logger.addDataReceiver(new NT4Publisher()); // Publish data to NetworkTables
+      // Log to a USB stick, without letting a slow stick stall the robot
+      // Timing data is the first thing skipped if the stick falls behind
+      logWriter = new BufferedWPILOGWriter("/media/sda1/", "RealOutputs/LoopTiming/");
+      Logger.addDataReceiver(logWriter);
+      // Publish data to NetworkTables, but only as fast as the dashboards need it
+      // The USB stick log still gets everything every loop
+      ntPublisher = new ThrottledNT4Publisher()
+          .addPackedRule("Drivetrain/", 0.1)
+          .addRule("RealOutputs/Drivetrain Pose", 0.04, 0.0)
+          .addRule("RealOutputs/LoopTiming/", 1.0, 0.0)
+          .addRule("PowerDistribution/", 0.2, 0.5);
+      Logger.addDataReceiver(ntPublisher);
       new PowerDistribution(1, ModuleType.kRev); // Enables power distribution logging
+    } else if (REPLAY) {
+      setUseTiming(false); // Run as fast as possible instead of waiting 20ms between loops
+      String logPath = LogFileUtil.findReplayLog(); // Reads AKIT_LOG_PATH
+      Logger.setReplaySource(new MappedWPILOGReader(logPath)); // Read the log without loading all of it
+      Logger.addDataReceiver(new WPILOGWriter(LogFileUtil.addPathSuffix(logPath, "_replay"))); // Save the replayed outputs next to it
     } else {
       Logger.addDataReceiver(new NT4Publisher()); // Publish data to NetworkTables
+      // Set KITBOT_SIM_LOG_PATH to also save the sim to a .wpilog, like ./gradlew characterizeSim does
+      String simLogPath = System.getenv("KITBOT_SIM_LOG_PATH");
+      if (simLogPath != null) {
+        Logger.addDataReceiver(new WPILOGWriter(simLogPath));
+      }
     }
 
     Logger.start(); // Start logging! No more data receivers, replay sources, or metadata values may be added.
 
-    drivetrainSubsystem.setDefaultCommand(
-      drivetrainSubsystem.setVoltagesArcadeCommand(
+    if (!REPLAY) {
+      InputLatencyTracker.start(); // Time how long joystick movements take to reach the motors
+    }
+
+    // Plain voltages until the velocity gains are fitted on the real robot, see DrivetrainFeedforwardFitter
+    // With the low latency path, teleopPeriodic drives instead and the default command just holds the drivetrain
+    drivetrainSubsystem.setDefaultCommand(LOW_LATENCY_TELEOP
+      ? Commands.idle(drivetrainSubsystem).withName("LowLatencyTeleop")
+      : drivetrainSubsystem.setVoltagesArcadeCommand(
         () -> modifyJoystick(controller.getLeftY()),
         () -> modifyJoystick(controller.getRightX())));
+    // The superstructure handles everything else: hold the right bumper for slow mode,
+    // or the left bumper to drive with velocity control and compare how well each tracks
+    superstructure = new Superstructure(drivetrainSubsystem, controller, this::modifyJoystick);
+
+    // Drive the trajectory from src/main/deploy/choreo/DriveForward.traj, which the build turns into a cache file
+    try {
+      MappedTrajectory trajectory = MappedTrajectory.loadFromDeploy("DriveForward");
+      autoCommand = drivetrainSubsystem.resetPoseCommand(trajectory)
+          .andThen(drivetrainSubsystem.followTrajectoryCommand(trajectory))
+          .withName("DriveForwardAuto");
+    } catch (IOException | IllegalArgumentException e) {
+      DriverStation.reportError("Couldn't load the auto trajectory, run ./gradlew buildTrajectoryCache: " + e.getMessage(), false);
+    }
+
+    // Set KITBOT_AUTO=DrivetrainCharacterization to run the characterization tests as the auto instead
+    if ("DrivetrainCharacterization".equals(System.getenv("KITBOT_AUTO"))) {
+      autoCommand = drivetrainSubsystem.characterizationCommand();
+    }
+    // On the real robot, hold A in test mode to run them, and let go to stop before hitting anything
+    controller.a().and(DriverStation::isTest).whileTrue(drivetrainSubsystem.characterizationCommand());
+
+    // How long it's been since Java started, this is most of what a reboot costs us after a brownout
+    // Each subsystem's device setup is logged under Boot/ too
+    DeviceInitializer.recordBootTime("RobotReadyMS", ManagementFactory.getRuntimeMXBean().getUptime());
   }
 
   private double modifyJoystick(double in) {
@@ -54,7 +137,19 @@ public class Robot extends LoggedRobot {
 
   @Override
   public void robotPeriodic() {
+    long start = robotPeriodicTimer.start();
     CommandScheduler.getInstance().run();
+    robotPeriodicTimer.stop(start);
+
+    LoopTimer.publishAll();
+    DeviceInitializer.publishResults();
+    ControlRequestCache.publishAll();
+    if (logWriter != null) {
+      logWriter.recordMetrics();
+    }
+    if (ntPublisher != null) {
+      ntPublisher.recordMetrics();
+    }
   }
 
   @Override
@@ -68,20 +163,30 @@ public class Robot extends LoggedRobot {
 
   @Override
   public void autonomousInit() {
+    autoCommand.schedule();
   }
 
   @Override
   public void autonomousPeriodic() {}
 
   @Override
-  public void autonomousExit() {}
+  public void autonomousExit() {
+    autoCommand.cancel();
+  }
 
   @Override
   public void teleopInit() {
   }
 
   @Override
-  public void teleopPeriodic() {}
+  public void teleopPeriodic() {
+    // This runs before robotPeriodic and the scheduler, so it's the earliest we can send after reading the joysticks
+    // Other commands that take over the drivetrain, like holding the left bumper, still win
+    if (LOW_LATENCY_TELEOP && drivetrainSubsystem.getCurrentCommand() == drivetrainSubsystem.getDefaultCommand()) {
+      drivetrainSubsystem.arcadeDriveImmediate(
+          modifyJoystick(controller.getLeftY()), modifyJoystick(controller.getRightX()));
+    }
+  }
 
   @Override
   public void teleopExit() {}
@@ -96,4 +201,10 @@ public class Robot extends LoggedRobot {
 
   @Override
   public void testExit() {}
+
+  @Override
+  public void simulationPeriodic() {
+    // Runs after the subsystems, so the battery sees this loop's current draw
+    SimPowerModel.update();
+  }
 }
@@ -0,0 +1,104 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Does the same math as {@link edu.wpi.first.math.kinematics.DifferentialDriveOdometry}, but keeps
+ * the pose in plain doubles that are changed in place.
+ *
+ * <p>WPILib's geometry classes are immutable, so every odometry update makes several new objects.
+ * That's usually fine, but we now update odometry hundreds of times a second and every object we
+ * make is more work for the garbage collector on the roboRIO. This class makes no objects while
+ * updating, and only makes a {@link Pose2d} when {@link #getPoseMeters()} is called.
+ */
+public class DifferentialOdometryIntegrator {
+    private final double trackWidthMeters;
+
+    private double xMeters = 0.0;
+    private double yMeters = 0.0;
+    private double headingRadians = 0.0;
+
+    // Our heading comes from the wheel positions, this lets us reset it to any angle
+    private double headingOffsetRadians = 0.0;
+
+    private double previousLeftMeters = 0.0;
+    private double previousRightMeters = 0.0;
+
+    public DifferentialOdometryIntegrator(double trackWidthMeters) {
+        this.trackWidthMeters = trackWidthMeters;
+    }
+
+    /** Moves the pose to a known position, like at the start of auto. */
+    public void resetPosition(
+            double xMeters, double yMeters, double headingRadians, double leftMeters, double rightMeters) {
+        this.xMeters = xMeters;
+        this.yMeters = yMeters;
+        this.headingRadians = headingRadians;
+        headingOffsetRadians = headingRadians - (rightMeters - leftMeters) / trackWidthMeters;
+        previousLeftMeters = leftMeters;
+        previousRightMeters = rightMeters;
+    }
+
+    /**
+     * Updates the pose with new wheel positions.
+     *
+     * @param leftMeters total distance the left wheels have driven
+     * @param rightMeters total distance the right wheels have driven
+     */
+    public void update(double leftMeters, double rightMeters) {
+        double deltaLeft = leftMeters - previousLeftMeters;
+        double deltaRight = rightMeters - previousRightMeters;
+        previousLeftMeters = leftMeters;
+        previousRightMeters = rightMeters;
+
+        // We don't have a gyro, so the heading is how much further one side has driven than the other
+        double newHeading = (rightMeters - leftMeters) / trackWidthMeters + headingOffsetRadians;
+        double deltaHeading = newHeading - headingRadians;
+        double deltaForward = (deltaLeft + deltaRight) / 2.0;
+
+        // This is Pose2d.exp() written out by hand
+        // It assumes the robot drove along an arc instead of a straight line since the last update
+        double s;
+        double c;
+        if (Math.abs(deltaHeading) < 1e-9) {
+            // Small angle approximation, avoids dividing by zero when driving straight
+            s = 1.0 - deltaHeading * deltaHeading / 6.0;
+            c = 0.5 * deltaHeading;
+        } else {
+            s = Math.sin(deltaHeading) / deltaHeading;
+            c = (1.0 - Math.cos(deltaHeading)) / deltaHeading;
+        }
+        // Movement relative to the robot
+        double localX = deltaForward * s;
+        double localY = deltaForward * c;
+
+        // Rotate the movement onto the field
+        double cos = Math.cos(headingRadians);
+        double sin = Math.sin(headingRadians);
+        xMeters += localX * cos - localY * sin;
+        yMeters += localX * sin + localY * cos;
+        headingRadians = newHeading;
+    }
+
+    public double getXMeters() {
+        return xMeters;
+    }
+
+    public double getYMeters() {
+        return yMeters;
+    }
+
+    public double getHeadingRadians() {
+        return headingRadians;
+    }
+
+    /** Builds a new {@link Pose2d} of the current estimate. */
+    public Pose2d getPoseMeters() {
+        return new Pose2d(xMeters, yMeters, new Rotation2d(headingRadians));
+    }
+}
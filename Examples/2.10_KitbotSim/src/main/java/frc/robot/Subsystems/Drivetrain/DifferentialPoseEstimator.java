@@ -0,0 +1,183 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Odometry that can be corrected by vision, like WPILib's {@code DifferentialDrivePoseEstimator},
+ * but without making any objects while it runs.
+ *
+ * <p>Vision measurements are always late, a camera frame might be 50-100ms old by the time we get
+ * it. Comparing it against where we are now would pull us backwards. Instead we look up where we
+ * were when the frame was taken, correct that pose, then redo the odometry from that point to now
+ * using the wheel positions saved in the history. If several measurements arrive in one loop we
+ * rewind once to the oldest of them and apply each one as the replay passes its timestamp.
+ *
+ * <p>Measurements are queued by {@link #addVisionMeasurement} and fused by {@link
+ * #applyVisionMeasurements()}, which should be called once per loop after adding odometry samples.
+ */
+public class DifferentialPoseEstimator {
+    private static final int MAX_PENDING_MEASUREMENTS = 32;
+
+    private final DifferentialOdometryIntegrator odometry;
+    private final PoseHistoryBuffer history;
+
+    // How much we trust odometry, squared, used to weigh it against each vision measurement
+    private final double odometryVarianceXY;
+    private final double odometryVarianceTheta;
+
+    // Vision measurements waiting for applyVisionMeasurements, sorted by timestamp
+    private final double[] pendingTimestamps = new double[MAX_PENDING_MEASUREMENTS];
+    private final double[] pendingX = new double[MAX_PENDING_MEASUREMENTS];
+    private final double[] pendingY = new double[MAX_PENDING_MEASUREMENTS];
+    private final double[] pendingHeading = new double[MAX_PENDING_MEASUREMENTS];
+    private final double[] pendingStdDevXY = new double[MAX_PENDING_MEASUREMENTS];
+    private final double[] pendingStdDevTheta = new double[MAX_PENDING_MEASUREMENTS];
+    private int pendingCount = 0;
+
+    /**
+     * @param trackWidthMeters distance between the left and right wheels
+     * @param historySeconds how far back vision measurements can be, older ones are ignored
+     * @param odometryStdDevXY how much we trust odometry's x and y, in meters
+     * @param odometryStdDevTheta how much we trust odometry's heading, in radians
+     */
+    public DifferentialPoseEstimator(
+            double trackWidthMeters, double historySeconds, double odometryStdDevXY, double odometryStdDevTheta) {
+        odometry = new DifferentialOdometryIntegrator(trackWidthMeters);
+        history = new PoseHistoryBuffer((int) Math.ceil(historySeconds * OdometryThread.FREQUENCY_HZ));
+        odometryVarianceXY = odometryStdDevXY * odometryStdDevXY;
+        odometryVarianceTheta = odometryStdDevTheta * odometryStdDevTheta;
+    }
+
+    /** Adds one timestamped wheel position sample, in time order. */
+    public void addOdometrySample(double timestamp, double leftMeters, double rightMeters) {
+        odometry.update(leftMeters, rightMeters);
+        history.add(timestamp, odometry.getXMeters(), odometry.getYMeters(), odometry.getHeadingRadians(),
+            leftMeters, rightMeters);
+    }
+
+    /**
+     * Queues a vision measurement. It's applied the next time {@link #applyVisionMeasurements()} is
+     * called. If more than {@value #MAX_PENDING_MEASUREMENTS} are queued, the newest is dropped.
+     *
+     * @param timestamp when the camera took the frame, in FPGA seconds
+     * @param stdDevXY how much to trust this measurement's x and y, in meters
+     * @param stdDevTheta how much to trust this measurement's heading, in radians
+     */
+    public void addVisionMeasurement(
+            double timestamp, double xMeters, double yMeters, double headingRadians, double stdDevXY, double stdDevTheta) {
+        if (pendingCount == MAX_PENDING_MEASUREMENTS) {
+            return;
+        }
+        // Insertion sort, there are only ever a few of these
+        int i = pendingCount++;
+        while (i > 0 && pendingTimestamps[i - 1] > timestamp) {
+            pendingTimestamps[i] = pendingTimestamps[i - 1];
+            pendingX[i] = pendingX[i - 1];
+            pendingY[i] = pendingY[i - 1];
+            pendingHeading[i] = pendingHeading[i - 1];
+            pendingStdDevXY[i] = pendingStdDevXY[i - 1];
+            pendingStdDevTheta[i] = pendingStdDevTheta[i - 1];
+            i--;
+        }
+        pendingTimestamps[i] = timestamp;
+        pendingX[i] = xMeters;
+        pendingY[i] = yMeters;
+        pendingHeading[i] = headingRadians;
+        pendingStdDevXY[i] = stdDevXY;
+        pendingStdDevTheta[i] = stdDevTheta;
+    }
+
+    /** Fuses every queued vision measurement by rewinding to the oldest one and replaying odometry. */
+    public void applyVisionMeasurements() {
+        int measurement = 0;
+        int size = history.size();
+        // Anything older than our history can't be placed, so skip it
+        while (measurement < pendingCount && (size == 0 || pendingTimestamps[measurement] < history.getTimestamp(0))) {
+            measurement++;
+        }
+        if (measurement == pendingCount) {
+            pendingCount = 0;
+            return;
+        }
+
+        // Rewind to the last sample before the oldest measurement
+        int start = history.floorIndex(pendingTimestamps[measurement]);
+        odometry.resetPosition(history.getX(start), history.getY(start), history.getHeading(start),
+            history.getLeft(start), history.getRight(start));
+
+        for (int index = start; index < size; index++) {
+            if (index > start) {
+                // Replay the saved wheel positions on top of the corrected pose
+                odometry.update(history.getLeft(index), history.getRight(index));
+            }
+            // Apply every measurement taken before the next sample
+            double nextTimestamp = index + 1 < size ? history.getTimestamp(index + 1) : Double.POSITIVE_INFINITY;
+            while (measurement < pendingCount && pendingTimestamps[measurement] < nextTimestamp) {
+                correct(measurement, history.getLeft(index), history.getRight(index));
+                measurement++;
+            }
+            history.setPose(index, odometry.getXMeters(), odometry.getYMeters(), odometry.getHeadingRadians());
+        }
+        pendingCount = 0;
+    }
+
+    /** Moves the current pose part of the way towards one measurement, based on how much we trust each. */
+    private void correct(int measurement, double leftMeters, double rightMeters) {
+        double visionVarianceXY = pendingStdDevXY[measurement] * pendingStdDevXY[measurement];
+        double visionVarianceTheta = pendingStdDevTheta[measurement] * pendingStdDevTheta[measurement];
+        // Same gains WPILib's pose estimators use for a steady state Kalman filter
+        double gainXY = gain(odometryVarianceXY, visionVarianceXY);
+        double gainTheta = gain(odometryVarianceTheta, visionVarianceTheta);
+
+        double x = odometry.getXMeters();
+        double y = odometry.getYMeters();
+        double heading = odometry.getHeadingRadians();
+        odometry.resetPosition(
+            x + gainXY * (pendingX[measurement] - x),
+            y + gainXY * (pendingY[measurement] - y),
+            heading + gainTheta * MathUtil.angleModulus(pendingHeading[measurement] - heading),
+            leftMeters, rightMeters);
+    }
+
+    private static double gain(double odometryVariance, double visionVariance) {
+        if (odometryVariance == 0.0) {
+            return 0.0;
+        }
+        return odometryVariance / (odometryVariance + Math.sqrt(odometryVariance * visionVariance));
+    }
+
+    /** Jumps to a known pose, like at the start of auto, and forgets the history. */
+    public void resetPosition(double xMeters, double yMeters, double headingRadians, double leftMeters, double rightMeters) {
+        odometry.resetPosition(xMeters, yMeters, headingRadians, leftMeters, rightMeters);
+        history.clear();
+        pendingCount = 0;
+    }
+
+    public double getXMeters() {
+        return odometry.getXMeters();
+    }
+
+    public double getYMeters() {
+        return odometry.getYMeters();
+    }
+
+    public double getHeadingRadians() {
+        return odometry.getHeadingRadians();
+    }
+
+    /** Builds a new {@link Pose2d} of the current estimate. */
+    public Pose2d getEstimatedPose() {
+        return new Pose2d(odometry.getXMeters(), odometry.getYMeters(), new Rotation2d(odometry.getHeadingRadians()));
+    }
+
+    /** The history, for looking up where we were at some time, like when a camera frame was taken. */
+    public PoseHistoryBuffer getHistory() {
+        return history;
+    }
+}
@@ -0,0 +1,270 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.ejml.simple.SimpleMatrix;
+
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotGearing;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotWheelSize;
+
+/**
+ * Fits a drivetrain feedforward from a log of {@link DrivetrainSubsystem#characterizationCommand()}.
+ *
+ * <p>The feedforward says how many volts it takes to drive at a speed and acceleration:
+ *
+ * <pre>
+ * volts = kS * sign(velocity) + kV * velocity + kA * acceleration
+ * </pre>
+ *
+ * <p>We go through the log once, start to finish, and only keep running sums, so even a huge log
+ * doesn't need much memory. Velocity and acceleration come from the 250hz odometry positions, using
+ * the samples {@value #STENCIL_SAMPLES} on either side of each one. The sums are the normal
+ * equations for least squares, which we solve at the end.
+ *
+ * <p>Run with {@code ./gradlew characterizeSim}, which runs the characterization in sim first, or
+ * on a log from the real robot with {@code DrivetrainFeedforwardFitter <log.wpilog>}. Add
+ * {@code --sim} to compare the fit against the constants the sim was built with.
+ */
+public final class DrivetrainFeedforwardFitter {
+    // Samples on each side of the one we're finding velocity and acceleration for, 5 is 20ms at 250hz
+    static final int STENCIL_SAMPLES = 5;
+    // Below this we don't know which way kS pushes, so the sample is skipped
+    static final double MIN_VELOCITY_METERS_PER_SECOND = 0.05;
+
+    private static final String STATE_KEY = "/RealOutputs/Drivetrain/SysIdState";
+    private static final String LEFT_VOLTS_KEY = "/Drivetrain/LeftOutputVolts";
+    private static final String RIGHT_VOLTS_KEY = "/Drivetrain/RightOutputVolts";
+    private static final String TIMESTAMPS_KEY = "/Drivetrain/OdometryTimestamps";
+    private static final String LEFT_POSITIONS_KEY = "/Drivetrain/OdometryLeftPositionsMeters";
+    private static final String RIGHT_POSITIONS_KEY = "/Drivetrain/OdometryRightPositionsMeters";
+
+    // createKitbotSim builds a 60 pound robot, see DrivetrainIOSim
+    static final double KITBOT_SIM_MASS_KG = Units.lbsToKilograms(60);
+
+    /** The running sums for least squares, the data is never stored. */
+    static final class Fit {
+        // Each sample is a row [sign(v), v, a] with the volts as the answer
+        final double[][] xtx = new double[3][3];
+        final double[] xty = new double[3];
+        double sumY = 0.0;
+        double sumYY = 0.0;
+        long count = 0;
+
+        void add(double volts, double velocity, double acceleration) {
+            double[] row = {Math.signum(velocity), velocity, acceleration};
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    xtx[i][j] += row[i] * row[j];
+                }
+                xty[i] += row[i] * volts;
+            }
+            sumY += volts;
+            sumYY += volts * volts;
+            count++;
+        }
+
+        /** Solves for kS, kV, and kA. */
+        double[] solve() {
+            SimpleMatrix gains = new SimpleMatrix(xtx).solve(new SimpleMatrix(3, 1, true, xty));
+            return new double[] {gains.get(0), gains.get(1), gains.get(2)};
+        }
+
+        /** How much of the voltage the fit explains, 1 is perfect. */
+        double rSquared(double[] gains) {
+            // The residual sum of squares, expanded so it only needs the sums we kept
+            double residual = sumYY;
+            for (int i = 0; i < 3; i++) {
+                residual -= 2.0 * gains[i] * xty[i];
+                for (int j = 0; j < 3; j++) {
+                    residual += gains[i] * xtx[i][j] * gains[j];
+                }
+            }
+            double total = sumYY - sumY * sumY / count;
+            return 1.0 - residual / total;
+        }
+    }
+
+    /** Turns one side's position samples into velocity and acceleration, a few samples behind. */
+    static final class SideStream {
+        private final int size = 2 * STENCIL_SAMPLES + 1;
+        private final double[] times = new double[size];
+        private final double[] positions = new double[size];
+        private final double[] volts = new double[size];
+        private int count = 0;
+        private int next = 0;
+
+        void reset() {
+            count = 0;
+            next = 0;
+        }
+
+        void add(double time, double position, double voltage, Fit fit) {
+            times[next] = time;
+            positions[next] = position;
+            volts[next] = voltage;
+            next = (next + 1) % size;
+            count = Math.min(count + 1, size);
+            if (count < size) {
+                return;
+            }
+            // The oldest sample is where next points now, the center is halfway to the newest
+            int back = next;
+            int center = (next + STENCIL_SAMPLES) % size;
+            int front = (next + size - 1) % size;
+            double backDt = times[center] - times[back];
+            double frontDt = times[front] - times[center];
+            // Skip across gaps, like a loop that ran long and dropped samples
+            double expectedDt = STENCIL_SAMPLES / OdometryThread.FREQUENCY_HZ;
+            if (backDt <= 0.0 || frontDt <= 0.0 || backDt > 2.0 * expectedDt || frontDt > 2.0 * expectedDt) {
+                return;
+            }
+            double velocity = (positions[front] - positions[back]) / (backDt + frontDt);
+            double acceleration = 2.0
+                * ((positions[front] - positions[center]) / frontDt - (positions[center] - positions[back]) / backDt)
+                / (backDt + frontDt);
+            // Zero volts is the pause between tests, where the motors are braking instead of driving
+            if (Math.abs(velocity) < MIN_VELOCITY_METERS_PER_SECOND || volts[center] == 0.0) {
+                return;
+            }
+            fit.add(volts[center], velocity, acceleration);
+        }
+    }
+
+    private DrivetrainFeedforwardFitter() {}
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: DrivetrainFeedforwardFitter <log.wpilog> [--sim]");
+            return;
+        }
+        Fit fit = fitLog(args[0]);
+        if (fit.count < 3) {
+            System.out.println("No characterization data in " + args[0] + ", was DrivetrainCharacterization run?");
+            return;
+        }
+        double[] gains = fit.solve();
+        System.out.printf("Fit from %d samples, r^2 = %.5f%n", fit.count, fit.rSquared(gains));
+        System.out.printf("kS = %.4f V%nkV = %.4f V/(m/s)%nkA = %.4f V/(m/s^2)%n", gains[0], gains[1], gains[2]);
+        // The Talons work in meters, so these go straight into VELOCITY_VOLTAGE_GAINS
+        System.out.println("Put kS and kV in DrivetrainSubsystem.VELOCITY_VOLTAGE_GAINS as they are");
+
+        if (args.length > 1 && args[1].equals("--sim")) {
+            double[] expected = simConstants();
+            System.out.println("Compared to the sim's constants:");
+            String[] names = {"kS", "kV", "kA"};
+            for (int i = 0; i < 3; i++) {
+                System.out.printf("  %s: expected %.4f, fit %.4f%s%n", names[i], expected[i], gains[i],
+                    expected[i] == 0.0 ? "" : String.format(" (%+.1f%%)", 100.0 * (gains[i] - expected[i]) / expected[i]));
+            }
+        }
+    }
+
+    /** Streams through a log and adds every sample from a characterization test to a fit. */
+    static Fit fitLog(String path) throws IOException {
+        DataLogReader reader = new DataLogReader(path);
+        if (!reader.isValid()) {
+            throw new IOException(path + " isn't a wpilog file");
+        }
+
+        // Entry ids for the keys we care about, everything else is skipped
+        HashMap<Integer, String> entries = new HashMap<>();
+        String state = "";
+        String previousState = "";
+        double leftVolts = 0.0;
+        double rightVolts = 0.0;
+        double[] timestamps = new double[0];
+        double[] leftPositions = new double[0];
+        double[] rightPositions = new double[0];
+        long cycleTimestamp = -1;
+        boolean cycleHasSamples = false;
+
+        Fit fit = new Fit();
+        SideStream left = new SideStream();
+        SideStream right = new SideStream();
+
+        // One extra pass through the loop at the end uses the last loop's samples, like LogArchiveQuery.scanLog
+        var records = reader.iterator();
+        while (true) {
+            DataLogRecord record = records.hasNext() ? records.next() : null;
+            String key = null;
+            if (record != null) {
+                if (record.isStart()) {
+                    var start = record.getStartData();
+                    entries.put(start.entry, start.name);
+                    continue;
+                }
+                if (record.isControl()) {
+                    continue;
+                }
+                key = entries.get(record.getEntry());
+                if (key == null) {
+                    continue;
+                }
+            }
+
+            // AdvantageKit writes a whole loop with one timestamp, and only what changed, so we keep
+            // the latest of everything and use it once the next loop starts, or the log ends
+            if (record == null || record.getTimestamp() != cycleTimestamp) {
+                if (cycleHasSamples) {
+                    boolean testing = !state.isEmpty() && !state.equals("none");
+                    if (!testing || !state.equals(previousState)) {
+                        left.reset();
+                        right.reset();
+                    }
+                    if (testing) {
+                        int samples = Math.min(timestamps.length, Math.min(leftPositions.length, rightPositions.length));
+                        for (int i = 0; i < samples; i++) {
+                            left.add(timestamps[i], leftPositions[i], leftVolts, fit);
+                            right.add(timestamps[i], rightPositions[i], rightVolts, fit);
+                        }
+                    }
+                    previousState = state;
+                }
+                if (record == null) {
+                    break;
+                }
+                cycleTimestamp = record.getTimestamp();
+                cycleHasSamples = false;
+            }
+
+            switch (key) {
+                case STATE_KEY -> state = record.getString();
+                case LEFT_VOLTS_KEY -> leftVolts = record.getDouble();
+                case RIGHT_VOLTS_KEY -> rightVolts = record.getDouble();
+                case TIMESTAMPS_KEY -> {
+                    timestamps = record.getDoubleArray();
+                    cycleHasSamples = true;
+                }
+                case LEFT_POSITIONS_KEY -> leftPositions = record.getDoubleArray();
+                case RIGHT_POSITIONS_KEY -> rightPositions = record.getDoubleArray();
+                default -> { }
+            }
+        }
+        return fit;
+    }
+
+    /**
+     * The kS, kV, and kA that {@link DrivetrainIOSim}'s physics model drives straight with, worked
+     * out from its motors, gearing, wheels, and mass. The sim has no friction, so kS is 0.
+     */
+    static double[] simConstants() {
+        DCMotor motors = DCMotor.getFalcon500(2);
+        double gearing = KitbotGearing.k8p45.value;
+        double wheelRadius = KitbotWheelSize.kSixInch.value / 2.0;
+        // At a steady speed all the voltage goes to back EMF
+        double kV = gearing / (motors.KvRadPerSecPerVolt * wheelRadius);
+        // Each side pushes half the robot, and the voltage to make that force goes across the
+        // motor's resistance
+        double kA = KITBOT_SIM_MASS_KG / 2.0 * wheelRadius * motors.rOhms / (gearing * motors.KtNMPerAmp);
+        return new double[] {0.0, kV, kA};
+    }
+}
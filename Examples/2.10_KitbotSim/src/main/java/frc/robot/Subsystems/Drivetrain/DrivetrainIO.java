@@ -6,6 +6,8 @@ package frc.robot.Subsystems.Drivetrain;
 
 import org.littletonrobotics.junction.AutoLog;
 
+import edu.wpi.first.math.geometry.Pose2d;
+
 public interface DrivetrainIO {
     @AutoLog
     public static class DrivetrainIOInputs {
@@ -22,9 +24,31 @@ public interface DrivetrainIO {
         public double leftTempCelsius = 0.0;
         public double rightCurrentAmps = 0.0;
         public double rightTempCelsius = 0.0;
+
+        // Whether each side's Talon answered, and whether its data is recent, see CanSignalMonitor
+        // Don't trust the values above for a side that's disconnected or stale
+        public boolean leftConnected = true;
+        public boolean rightConnected = true;
+        public boolean leftStale = false;
+        public boolean rightStale = false;
+
+        // Encoder samples taken faster than the main loop, oldest first
+        // These are all the same length, one entry per sample since the last updateInputs
+        public double[] odometryTimestamps = new double[] {};
+        public double[] odometryLeftPositionsMeters = new double[] {};
+        public double[] odometryRightPositionsMeters = new double[] {};
     }
 
     public void updateInputs(DrivetrainIOInputs inputs);
 
     public void setVolts(double left, double right);
+
+    /** Asks the motor controllers to hold a speed, using the velocity loop that runs on them. */
+    public void setVelocity(double leftMetersPerSecond, double rightMetersPerSecond);
+
+    /**
+     * Picks the simulated robot up and puts it somewhere else on the field, like at the start of an
+     * auto. Code can't move a real robot, so by default this does nothing.
+     */
+    public default void setSimPose(Pose2d pose) {}
 }
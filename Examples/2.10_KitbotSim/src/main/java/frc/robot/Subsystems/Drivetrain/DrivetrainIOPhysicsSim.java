@@ -0,0 +1,151 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import java.util.Random;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim;
+
+/**
+ * A drivetrain sim that keeps all of its state to itself.
+ *
+ * <p>{@link DrivetrainIOSim} goes through simulated TalonFXs and {@link
+ * edu.wpi.first.wpilibj.simulation.RoboRioSim}, which are shared by the whole program, so there can
+ * only be one of them at a time. This version feeds voltages straight into the physics model, so we
+ * can run lots of them at once on different threads. It also models the ways real encoders lie to
+ * us: noise, wheels slipping when they're pushed too hard, and wheels that aren't quite the size we
+ * think they are.
+ */
+public class DrivetrainIOPhysicsSim implements DrivetrainIO {
+    private final DifferentialDrivetrainSim physicsSim;
+    private final double batteryVolts;
+    // How far the encoders think we drove for each meter we actually drove
+    // This is how gearing and wheel size errors show up, since odometry assumes the nominal values
+    private final double encoderScale;
+    private final double encoderNoiseStdDevMeters;
+    // Current above which the wheels start to slip, and how much extra they spin when they do
+    private final double tractionLimitAmps;
+    private final double slipPerAmp;
+    private final Random random;
+
+    // This sim keeps its own clock instead of using the shared FPGA timer
+    private double timeSeconds = 0.0;
+
+    private double leftVolts = 0.0;
+    private double rightVolts = 0.0;
+
+    // Set when we're asked for a speed instead of a voltage
+    private boolean velocityControl = false;
+    private double leftSetpointMetersPerSecond = 0.0;
+    private double rightSetpointMetersPerSecond = 0.0;
+    private final TalonVelocityLoopSim leftVelocityLoop = DrivetrainIOSim.createVelocityLoop();
+    private final TalonVelocityLoopSim rightVelocityLoop = DrivetrainIOSim.createVelocityLoop();
+
+    private double previousTrueLeftMeters = 0.0;
+    private double previousTrueRightMeters = 0.0;
+    private double measuredLeftMeters = 0.0;
+    private double measuredRightMeters = 0.0;
+
+    /**
+     * @param physicsSim the physics model, which should have no measurement noise so it stays
+     *     ground truth
+     * @param batteryVolts the voltage the motors can use
+     * @param encoderScale measured distance divided by true distance
+     * @param encoderNoiseStdDevMeters noise added to each encoder sample
+     * @param tractionLimitAmps current draw where the wheels start to slip
+     * @param slipPerAmp extra wheel travel, as a fraction of the step, for each amp over the limit
+     * @param seed seeds the noise so a run can be repeated
+     */
+    public DrivetrainIOPhysicsSim(
+            DifferentialDrivetrainSim physicsSim,
+            double batteryVolts,
+            double encoderScale,
+            double encoderNoiseStdDevMeters,
+            double tractionLimitAmps,
+            double slipPerAmp,
+            long seed) {
+        this.physicsSim = physicsSim;
+        this.batteryVolts = batteryVolts;
+        this.encoderScale = encoderScale;
+        this.encoderNoiseStdDevMeters = encoderNoiseStdDevMeters;
+        this.tractionLimitAmps = tractionLimitAmps;
+        this.slipPerAmp = slipPerAmp;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public void updateInputs(DrivetrainIOInputs inputs) {
+        int samples = DrivetrainIOSim.ODOMETRY_SAMPLES_PER_LOOP;
+        double stepSeconds = 0.020 / samples;
+        inputs.odometryTimestamps = new double[samples];
+        inputs.odometryLeftPositionsMeters = new double[samples];
+        inputs.odometryRightPositionsMeters = new double[samples];
+        for (int i = 0; i < samples; i++) {
+            if (velocityControl) {
+                // The Talon's loop sees the encoders, so gearing and wheel size errors show up in its speed too
+                // We only run it once per step, not every millisecond like the real one
+                leftVolts = leftVelocityLoop.calculate(
+                    leftSetpointMetersPerSecond, physicsSim.getLeftVelocityMetersPerSecond() * encoderScale, batteryVolts);
+                rightVolts = rightVelocityLoop.calculate(
+                    rightSetpointMetersPerSecond, physicsSim.getRightVelocityMetersPerSecond() * encoderScale, batteryVolts);
+            }
+            physicsSim.setInputs(leftVolts, rightVolts);
+            physicsSim.update(stepSeconds);
+
+            double trueLeft = physicsSim.getLeftPositionMeters();
+            double trueRight = physicsSim.getRightPositionMeters();
+            measuredLeftMeters += measureStep(trueLeft - previousTrueLeftMeters, physicsSim.getLeftCurrentDrawAmps());
+            measuredRightMeters += measureStep(trueRight - previousTrueRightMeters, physicsSim.getRightCurrentDrawAmps());
+            previousTrueLeftMeters = trueLeft;
+            previousTrueRightMeters = trueRight;
+
+            timeSeconds += stepSeconds;
+            inputs.odometryTimestamps[i] = timeSeconds;
+            inputs.odometryLeftPositionsMeters[i] = measuredLeftMeters + random.nextGaussian() * encoderNoiseStdDevMeters;
+            inputs.odometryRightPositionsMeters[i] = measuredRightMeters + random.nextGaussian() * encoderNoiseStdDevMeters;
+        }
+
+        inputs.leftOutputVolts = leftVolts;
+        inputs.rightOutputVolts = rightVolts;
+
+        inputs.leftVelocityMetersPerSecond = physicsSim.getLeftVelocityMetersPerSecond() * encoderScale;
+        inputs.rightVelocityMetersPerSecond = physicsSim.getRightVelocityMetersPerSecond() * encoderScale;
+
+        inputs.leftPositionMeters = inputs.odometryLeftPositionsMeters[samples - 1];
+        inputs.rightPositionMeters = inputs.odometryRightPositionsMeters[samples - 1];
+
+        inputs.leftCurrentAmps = physicsSim.getLeftCurrentDrawAmps();
+        inputs.leftTempCelsius = 0.0;
+        inputs.rightCurrentAmps = physicsSim.getRightCurrentDrawAmps();
+        inputs.rightTempCelsius = 0.0;
+    }
+
+    /** Turns how far a wheel really moved into how far its encoder says it moved. */
+    private double measureStep(double trueDeltaMeters, double currentAmps) {
+        double slip = Math.max(0.0, Math.abs(currentAmps) - tractionLimitAmps) * slipPerAmp * random.nextDouble();
+        return trueDeltaMeters * encoderScale * (1.0 + slip);
+    }
+
+    @Override
+    public void setVolts(double left, double right) {
+        velocityControl = false;
+        leftVolts = MathUtil.clamp(left, -batteryVolts, batteryVolts);
+        rightVolts = MathUtil.clamp(right, -batteryVolts, batteryVolts);
+    }
+
+    @Override
+    public void setVelocity(double leftMetersPerSecond, double rightMetersPerSecond) {
+        velocityControl = true;
+        leftSetpointMetersPerSecond = leftMetersPerSecond;
+        rightSetpointMetersPerSecond = rightMetersPerSecond;
+    }
+
+    /** Where the robot actually is, with no sensor error. */
+    public Pose2d getTruePose() {
+        return physicsSim.getPose();
+    }
+}
@@ -6,6 +6,8 @@ package frc.robot.Subsystems.Drivetrain;
 
 import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.StatusSignal;
+import com.ctre.phoenix6.controls.VelocityTorqueCurrentFOC;
+import com.ctre.phoenix6.controls.VelocityVoltage;
 import com.ctre.phoenix6.controls.VoltageOut;
 import com.ctre.phoenix6.hardware.TalonFX;
 
@@ -14,6 +16,10 @@ import edu.wpi.first.units.measure.AngularVelocity;
 import edu.wpi.first.units.measure.Current;
 import edu.wpi.first.units.measure.Temperature;
 import edu.wpi.first.units.measure.Voltage;
+import frc.robot.Utils.CanSignalMonitor;
+import frc.robot.Utils.ControlRequestCache;
+import frc.robot.Utils.DeviceInitializer;
+import frc.robot.Utils.InputArrayPool;
 
 /** Add your docs here. */
 public class DrivetrainIOReal implements DrivetrainIO {
@@ -21,39 +27,82 @@ public class DrivetrainIOReal implements DrivetrainIO {
     TalonFX leftTalon = new TalonFX(DrivetrainSubsystem.LEFT_TALON_ID);
     TalonFX rightTalon = new TalonFX(DrivetrainSubsystem.RIGHT_TALON_ID);
 
-    VoltageOut leftVoltage = new VoltageOut(0);
-    VoltageOut rightVoltage = new VoltageOut(0);
+    // Update frequency 0 means Phoenix only sends these when we call setControl, instead of
+    // resending them at 100hz, so the caches below decide how often frames go out
+    VoltageOut leftVoltage = new VoltageOut(0).withUpdateFreqHz(0);
+    VoltageOut rightVoltage = new VoltageOut(0).withUpdateFreqHz(0);
+
+    // Velocity requests use the gains in slot 0 for volts and slot 1 for amps
+    VelocityVoltage leftVelocityVoltage = new VelocityVoltage(0).withSlot(0).withUpdateFreqHz(0);
+    VelocityVoltage rightVelocityVoltage = new VelocityVoltage(0).withSlot(0).withUpdateFreqHz(0);
+    VelocityTorqueCurrentFOC leftVelocityTorqueCurrent = new VelocityTorqueCurrentFOC(0).withSlot(1).withUpdateFreqHz(0);
+    VelocityTorqueCurrentFOC rightVelocityTorqueCurrent = new VelocityTorqueCurrentFOC(0).withSlot(1).withUpdateFreqHz(0);
+
+    // Skip sending the same request every loop, like 0 volts while we're sitting still
+    static final int VOLTAGE_MODE = 0;
+    static final int VELOCITY_MODE = 1;
+    private final ControlRequestCache leftControlCache = new ControlRequestCache("Drivetrain/LeftTalon", 0.01);
+    private final ControlRequestCache rightControlCache = new ControlRequestCache("Drivetrain/RightTalon", 0.01);
 
     private final StatusSignal<Voltage> leftAppliedVoltage = leftTalon.getMotorVoltage();
     private final StatusSignal<Voltage> rightAppliedVoltage = rightTalon.getMotorVoltage();
-    private final StatusSignal<AngularVelocity> leftAngularVelocityRPS = leftTalon.getVelocity();
-    private final StatusSignal<AngularVelocity> rightAngularVelocityRPS = rightTalon.getVelocity();
 
-    // A little hacky - the units don't match, but that would typically be handled in the 
-    // SensorToMechanismRatio config. For the purposes of this lesson, YOU DO NOT NEED TO
-    // WORRY ABOUT THIS, but ask a lead if you have questions!
-    private final StatusSignal<Angle> leftPositionMeters = leftTalon.getPosition(); 
-    private final StatusSignal<Angle> rightPositionMeters = rightTalon.getPosition(); 
+    // Phoenix still calls these rotations, but the SensorToMechanismRatio in TALON_CONFIG makes one
+    // "rotation" of the mechanism a meter of travel, so they're meters and meters per second
+    private final StatusSignal<AngularVelocity> leftVelocityMetersPerSecond = leftTalon.getVelocity();
+    private final StatusSignal<AngularVelocity> rightVelocityMetersPerSecond = rightTalon.getVelocity();
+    private final StatusSignal<Angle> leftPositionMeters = leftTalon.getPosition();
+    private final StatusSignal<Angle> rightPositionMeters = rightTalon.getPosition();
 
     private final StatusSignal<Current> leftSupplyCurrent = leftTalon.getSupplyCurrent();
     private final StatusSignal<Current> rightSupplyCurrent = rightTalon.getSupplyCurrent();
     private final StatusSignal<Temperature> leftTempCelsius = leftTalon.getDeviceTemp();
     private final StatusSignal<Temperature> rightTempCelsius = rightTalon.getDeviceTemp();
 
+    // Holds samples from the odometry thread until the next updateInputs
+    // 20 samples is plenty of room for one 20ms loop at 250hz, even if a loop runs long
+    static final int ODOMETRY_QUEUE_SIZE = 20;
+    private final OdometrySampleQueue odometryQueue = new OdometrySampleQueue(ODOMETRY_QUEUE_SIZE);
+    private final OdometryThread odometryThread;
+    // The arrays the samples are copied into, reused instead of made new every loop, see InputArrayPool
+    private final InputArrayPool timestampPool = new InputArrayPool(ODOMETRY_QUEUE_SIZE);
+    private final InputArrayPool leftPositionPool = new InputArrayPool(ODOMETRY_QUEUE_SIZE);
+    private final InputArrayPool rightPositionPool = new InputArrayPool(ODOMETRY_QUEUE_SIZE);
+
+    // Checks that each Talon's signals are still coming in, see CanSignalMonitor
+    private final CanSignalMonitor canMonitor = new CanSignalMonitor();
+    private final CanSignalMonitor.Device leftHealth = canMonitor.addDevice("Drivetrain/LeftTalon");
+    private final CanSignalMonitor.Device rightHealth = canMonitor.addDevice("Drivetrain/RightTalon");
+
     public DrivetrainIOReal() {
-        // Sets the following status signals to be updated at a frequency of 50hz
-        BaseStatusSignal.setUpdateFrequencyForAll(
-            50.0, // update every 20ms
-            leftAppliedVoltage, 
-            rightAppliedVoltage, 
-            leftAngularVelocityRPS, 
-            rightAngularVelocityRPS, 
-            leftPositionMeters, 
-            rightPositionMeters, 
-            leftSupplyCurrent, 
-            rightSupplyCurrent, 
-            leftTempCelsius, 
-            rightTempCelsius);
+        // Set up both Talons at the same time, retrying if they don't answer, see DeviceInitializer
+        // The velocity gains go in the config, the velocity loop runs on the Talons at 1khz
+        DeviceInitializer initializer = new DeviceInitializer("Drivetrain");
+        initializer.addTalonFX("LeftTalon", leftTalon, DrivetrainSubsystem.TALON_CONFIG)
+            // The signals odometry uses are sent faster so the odometry thread has fresh data to read
+            .signalFrequency(OdometryThread.FREQUENCY_HZ, leftVelocityMetersPerSecond, leftPositionMeters)
+            // The rest are updated every 20ms, once per loop
+            .signalFrequency(50.0, leftAppliedVoltage, leftSupplyCurrent, leftTempCelsius)
+            // And anything we don't read gets turned off
+            .optimizeBusUtilization();
+        initializer.addTalonFX("RightTalon", rightTalon, DrivetrainSubsystem.TALON_CONFIG)
+            .signalFrequency(OdometryThread.FREQUENCY_HZ, rightVelocityMetersPerSecond, rightPositionMeters)
+            .signalFrequency(50.0, rightAppliedVoltage, rightSupplyCurrent, rightTempCelsius)
+            .optimizeBusUtilization();
+        initializer.run();
+
+        // Watch the same signals at the same rates we just set
+        leftHealth.add(OdometryThread.FREQUENCY_HZ, leftVelocityMetersPerSecond, leftPositionMeters)
+            .add(50.0, leftAppliedVoltage, leftSupplyCurrent, leftTempCelsius);
+        rightHealth.add(OdometryThread.FREQUENCY_HZ, rightVelocityMetersPerSecond, rightPositionMeters)
+            .add(50.0, rightAppliedVoltage, rightSupplyCurrent, rightTempCelsius);
+
+        // The odometry thread gets its own copies of its signals, so it never refreshes one while
+        // updateInputs or the CAN monitor is reading it. getPosition() hands back the same cached
+        // object every time we call it, so clone() is what gives us a separate one
+        odometryThread = new OdometryThread(odometryQueue, leftPositionMeters.clone(), rightPositionMeters.clone(),
+            leftVelocityMetersPerSecond.clone(), rightVelocityMetersPerSecond.clone());
+        odometryThread.start();
     }
 
     @Override
@@ -61,34 +110,74 @@ public class DrivetrainIOReal implements DrivetrainIO {
 
         BaseStatusSignal.refreshAll(leftAppliedVoltage, 
             rightAppliedVoltage, 
-            leftAngularVelocityRPS, 
-            rightAngularVelocityRPS, 
+            leftVelocityMetersPerSecond, 
+            rightVelocityMetersPerSecond, 
             leftPositionMeters, 
             rightPositionMeters, 
             leftSupplyCurrent, 
             rightSupplyCurrent, 
             leftTempCelsius, 
             rightTempCelsius);
+        canMonitor.update();
+
+            inputs.leftConnected = leftHealth.isConnected();
+            inputs.rightConnected = rightHealth.isConnected();
+            inputs.leftStale = leftHealth.isStale();
+            inputs.rightStale = rightHealth.isStale();
 
             inputs.leftOutputVolts = leftAppliedVoltage.getValueAsDouble();
             inputs.rightOutputVolts = rightAppliedVoltage.getValueAsDouble();
         
-            inputs.leftVelocityMetersPerSecond = leftAngularVelocityRPS.getValueAsDouble();
-            inputs.rightVelocityMetersPerSecond = rightAngularVelocityRPS.getValueAsDouble();
+            inputs.leftVelocityMetersPerSecond = leftVelocityMetersPerSecond.getValueAsDouble();
+            inputs.rightVelocityMetersPerSecond = rightVelocityMetersPerSecond.getValueAsDouble();
         
             inputs.leftPositionMeters = leftPositionMeters.getValueAsDouble();
             inputs.rightPositionMeters = rightPositionMeters.getValueAsDouble();
         
             inputs.leftCurrentAmps = leftSupplyCurrent.getValueAsDouble();
-            inputs.leftTempCelsius = rightSupplyCurrent.getValueAsDouble();
+            inputs.leftTempCelsius = leftTempCelsius.getValueAsDouble();
             inputs.rightCurrentAmps = rightSupplyCurrent.getValueAsDouble();
             inputs.rightTempCelsius = rightTempCelsius.getValueAsDouble();
+
+            // Grab everything the odometry thread has read since last loop
+            int sampleCount = odometryQueue.size();
+            inputs.odometryTimestamps = timestampPool.next(sampleCount);
+            inputs.odometryLeftPositionsMeters = leftPositionPool.next(sampleCount);
+            inputs.odometryRightPositionsMeters = rightPositionPool.next(sampleCount);
+            odometryQueue.drain(
+                inputs.odometryTimestamps, inputs.odometryLeftPositionsMeters, inputs.odometryRightPositionsMeters);
     }
 
     @Override
     public void setVolts(double left, double right) {
-        leftTalon.setControl(leftVoltage.withOutput(left));
-        rightTalon.setControl(rightVoltage.withOutput(left));
+        if (leftControlCache.shouldSend(VOLTAGE_MODE, left)) {
+            leftTalon.setControl(leftVoltage.withOutput(left));
+        }
+        if (rightControlCache.shouldSend(VOLTAGE_MODE, right)) {
+            rightTalon.setControl(rightVoltage.withOutput(right));
+        }
+    }
+
+    @Override
+    public void setVelocity(double leftMetersPerSecond, double rightMetersPerSecond) {
+        // The SensorToMechanismRatio in TALON_CONFIG means the Talons take meters per second directly
+        boolean sendLeft = leftControlCache.shouldSend(VELOCITY_MODE, leftMetersPerSecond);
+        boolean sendRight = rightControlCache.shouldSend(VELOCITY_MODE, rightMetersPerSecond);
+        if (DrivetrainSubsystem.USE_TORQUE_CURRENT_FOC) {
+            if (sendLeft) {
+                leftTalon.setControl(leftVelocityTorqueCurrent.withVelocity(leftMetersPerSecond));
+            }
+            if (sendRight) {
+                rightTalon.setControl(rightVelocityTorqueCurrent.withVelocity(rightMetersPerSecond));
+            }
+        } else {
+            if (sendLeft) {
+                leftTalon.setControl(leftVelocityVoltage.withVelocity(leftMetersPerSecond));
+            }
+            if (sendRight) {
+                rightTalon.setControl(rightVelocityVoltage.withVelocity(rightMetersPerSecond));
+            }
+        }
     }
     
 }
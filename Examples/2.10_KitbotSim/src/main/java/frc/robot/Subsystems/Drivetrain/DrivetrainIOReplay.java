@@ -0,0 +1,23 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+/**
+ * The IO we use when replaying a log.
+ *
+ * <p>During replay, {@code Logger.processInputs} overwrites the inputs with the values from the log,
+ * so there's nothing for this class to read. There's also no hardware to send voltages to, the
+ * voltages our code asks for are still logged as outputs so we can compare them against the log.
+ */
+public class DrivetrainIOReplay implements DrivetrainIO {
+    @Override
+    public void updateInputs(DrivetrainIOInputs inputs) {}
+
+    @Override
+    public void setVolts(double left, double right) {}
+
+    @Override
+    public void setVelocity(double leftMetersPerSecond, double rightMetersPerSecond) {}
+}
@@ -7,11 +7,20 @@ package frc.robot.Subsystems.Drivetrain;
 import com.ctre.phoenix6.controls.VoltageOut;
 import com.ctre.phoenix6.hardware.TalonFX;
 
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim;
 import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotGearing;
 import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotMotor;
 import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotWheelSize;
 import edu.wpi.first.wpilibj.simulation.RoboRioSim;
+import frc.robot.Utils.ControlRequestCache;
+import frc.robot.Utils.DeviceInitializer;
+import frc.robot.Utils.InputArrayPool;
+import frc.robot.Utils.SimPowerModel;
 
 public class DrivetrainIOSim implements DrivetrainIO {
     // Here we have 2 motors, one for each side
@@ -23,8 +32,13 @@ public class DrivetrainIOSim implements DrivetrainIO {
     // ControlRequest objects represent what we want our motor to do
     // There might be a cleaner way to have both voltage and velocity control than making two sets of objects
     // This is part of the Phoenix v6/pro api, old code uses the v5 api which looks different
-    VoltageOut leftVoltage = new VoltageOut(0);
-    VoltageOut rightVoltage = new VoltageOut(0);
+    VoltageOut leftVoltage = new VoltageOut(0).withUpdateFreqHz(0);
+    VoltageOut rightVoltage = new VoltageOut(0).withUpdateFreqHz(0);
+
+    // Same frame skipping as the real robot, so we can see how much it saves in sim
+    // The velocity loops are modeled in updateInputs, but we still count the frames the real Talons would get
+    private final ControlRequestCache leftControlCache = new ControlRequestCache("Drivetrain/LeftTalon", 0.01);
+    private final ControlRequestCache rightControlCache = new ControlRequestCache("Drivetrain/RightTalon", 0.01);
 
     // This is a physics sim object
     // This will calculate the movement of the drivetrain based off of a mathmatical model
@@ -41,40 +55,311 @@ public class DrivetrainIOSim implements DrivetrainIO {
         // We can leave it null to pretend our simulation is perfect for this exercise
         null);
 
+    // To match the odometry thread on the real robot, we record the wheel positions
+    // several times per 20ms loop
+    static final int ODOMETRY_SAMPLES_PER_LOOP = (int) Math.round(OdometryThread.FREQUENCY_HZ * 0.020);
+    private static final double ODOMETRY_PERIOD_SECONDS = 1.0 / OdometryThread.FREQUENCY_HZ;
+
+    // How often we step the physics model by default
+    // Smaller steps are more accurate but take more CPU, see SimSubstepBenchmark
+    public static final double DEFAULT_PHYSICS_PERIOD_SECONDS = 0.001;
+    // If the sim stalls (like at a breakpoint) don't try to catch up on more time than this
+    private static final double MAX_CATCH_UP_SECONDS = 0.100;
+
+    private final double physicsPeriodSeconds;
+    // How far the physics model has been stepped, in FPGA time
+    private double simTimeSeconds = Timer.getFPGATimestamp();
+    private double nextOdometrySampleSeconds = simTimeSeconds + ODOMETRY_PERIOD_SECONDS;
+
+    // Voltage and velocity commands wait here with the time they were sent, so we can apply them
+    // at the right physics step instead of at the start of the next loop
+    // Values are volts, or meters per second if the command was a velocity command
+    private static final int MAX_PENDING_COMMANDS = 8;
+    private final double[] pendingTimestamps = new double[MAX_PENDING_COMMANDS];
+    private final boolean[] pendingIsVelocity = new boolean[MAX_PENDING_COMMANDS];
+    private final double[] pendingLeft = new double[MAX_PENDING_COMMANDS];
+    private final double[] pendingRight = new double[MAX_PENDING_COMMANDS];
+    private int pendingCount = 0;
+    private boolean appliedIsVelocity = false;
+    private double appliedLeft = 0.0;
+    private double appliedRight = 0.0;
+
+    // Stand ins for the velocity loops running on the Talons, using the same gains
+    private final TalonVelocityLoopSim leftVelocityLoop = createVelocityLoop();
+    private final TalonVelocityLoopSim rightVelocityLoop = createVelocityLoop();
+    private double nextVelocityLoopSeconds = simTimeSeconds;
+    private double leftVolts = 0.0;
+    private double rightVolts = 0.0;
+
+    // The motors on each side, matching kDoubleFalcon500PerSide above, for working out current draw
+    private static final int MOTORS_PER_SIDE = 2;
+    private static final DCMotor SIDE_MOTORS = DCMotor.getFalcon500(MOTORS_PER_SIDE);
+
+    // Reports our current draw to the shared battery, so driving hard makes the voltage sag
+    private final SimPowerModel.Source powerSource = SimPowerModel.addSource("Drivetrain");
+    private double leftSupplyAmps = 0.0;
+    private double rightSupplyAmps = 0.0;
+
+    // Moving the physics model with setSimPose zeroes its wheel positions, but real encoders
+    // don't reset when we move the robot, so we add these back on to keep the positions smooth
+    private double leftPositionOffsetMeters = 0.0;
+    private double rightPositionOffsetMeters = 0.0;
+
+    // Odometry samples are collected here before being copied into the inputs
+    private final double[] sampleTimestamps = new double[(int) (MAX_CATCH_UP_SECONDS * OdometryThread.FREQUENCY_HZ) + 1];
+    private final double[] sampleLeftPositions = new double[sampleTimestamps.length];
+    private final double[] sampleRightPositions = new double[sampleTimestamps.length];
+    // The arrays the inputs get, reused instead of made new every loop, see InputArrayPool
+    private final InputArrayPool timestampPool = new InputArrayPool(sampleTimestamps.length);
+    private final InputArrayPool leftPositionPool = new InputArrayPool(sampleTimestamps.length);
+    private final InputArrayPool rightPositionPool = new InputArrayPool(sampleTimestamps.length);
+
+    /** Where the physics model says the robot really is, and the FPGA time it was there. */
+    public record TruePose(double timestamp, Pose2d pose) {}
+
+    // Read by other threads like the simulated camera, so it's swapped out as one immutable object
+    private volatile TruePose truePose = new TruePose(simTimeSeconds, new Pose2d());
+
+    public DrivetrainIOSim() {
+        this(DEFAULT_PHYSICS_PERIOD_SECONDS);
+    }
+
+    /**
+     * @param physicsPeriodSeconds how long each physics step is, 0.020 steps once per loop like the
+     *     original sim
+     */
+    public DrivetrainIOSim(double physicsPeriodSeconds) {
+        this.physicsPeriodSeconds = physicsPeriodSeconds;
+
+        // Same setup as the real robot, so we can check how long boot takes in sim too
+        // The sim Talons don't send anything over a real bus, so there are no signals to set
+        DeviceInitializer initializer = new DeviceInitializer("Drivetrain");
+        initializer.addTalonFX("LeftTalon", leftTalon, DrivetrainSubsystem.TALON_CONFIG).optimizeBusUtilization();
+        initializer.addTalonFX("RightTalon", rightTalon, DrivetrainSubsystem.TALON_CONFIG).optimizeBusUtilization();
+        initializer.run();
+    }
+
     @Override
     public void updateInputs(DrivetrainIOInputs inputs) {
-        // Start by updating our physics model with the default loop time of 20 ms
-        physicsSim.update(0.020);
-
         // Update the voltage available to each motor based off of a simulated robot battery
         // This accounts for "voltage sag" when motors are running
+        double supplyVolts = RoboRioSim.getVInVoltage();
         var leftSimState = leftTalon.getSimState();
-        leftSimState.setSupplyVoltage(RoboRioSim.getVInVoltage());
+        leftSimState.setSupplyVoltage(supplyVolts);
 
         var rightSimState = rightTalon.getSimState();
-        rightSimState.setSupplyVoltage(RoboRioSim.getVInVoltage());
+        rightSimState.setSupplyVoltage(supplyVolts);
+
+        // Motors don't move while the robot is disabled
+        boolean enabled = DriverStation.isEnabled();
+
+        // Instead of assuming the loop took exactly 20 ms, step the physics model up to the current time
+        // That keeps the sim right when loops run long or the loop period changes
+        double nowSeconds = Timer.getFPGATimestamp();
+        simTimeSeconds = Math.max(simTimeSeconds, nowSeconds - MAX_CATCH_UP_SECONDS);
+        int sampleCount = 0;
+        int appliedCommands = 0;
+        int steps = 0;
+        double leftSupplyAmpSum = 0.0;
+        double rightSupplyAmpSum = 0.0;
+        while (simTimeSeconds + physicsPeriodSeconds <= nowSeconds + 1e-9) {
+            // Apply any commands that were sent before this step starts
+            while (appliedCommands < pendingCount && pendingTimestamps[appliedCommands] <= simTimeSeconds + 1e-9) {
+                appliedIsVelocity = pendingIsVelocity[appliedCommands];
+                appliedLeft = pendingLeft[appliedCommands];
+                appliedRight = pendingRight[appliedCommands];
+                appliedCommands++;
+            }
+            if (!appliedIsVelocity) {
+                leftVolts = MathUtil.clamp(appliedLeft, -supplyVolts, supplyVolts);
+                rightVolts = MathUtil.clamp(appliedRight, -supplyVolts, supplyVolts);
+            } else if (simTimeSeconds >= nextVelocityLoopSeconds - 1e-9) {
+                // The Talon's loop runs every millisecond, and holds its output in between
+                // If the physics steps are longer than that, it runs once per step
+                // The Talons work in meters per second, see TALON_CONFIG
+                leftVolts = leftVelocityLoop.calculate(appliedLeft, physicsSim.getLeftVelocityMetersPerSecond(), supplyVolts);
+                rightVolts = rightVelocityLoop.calculate(appliedRight, physicsSim.getRightVelocityMetersPerSecond(), supplyVolts);
+                nextVelocityLoopSeconds = Math.max(nextVelocityLoopSeconds + TalonVelocityLoopSim.PERIOD_SECONDS, simTimeSeconds);
+            }
+            // The roboRIO cuts motor outputs in a brownout, just like when we're disabled
+            if (!enabled || SimPowerModel.isBrownedOut()) {
+                leftVolts = 0.0;
+                rightVolts = 0.0;
+            }
+            // The Talons hold their current under the limits in the config, which keeps them from
+            // pulling the battery down into a brownout
+            leftVolts = applyCurrentLimits(leftVolts, physicsSim.getLeftVelocityMetersPerSecond(), supplyVolts);
+            rightVolts = applyCurrentLimits(rightVolts, physicsSim.getRightVelocityMetersPerSecond(), supplyVolts);
+            leftSupplyAmpSum += supplyCurrent(leftVolts, physicsSim.getLeftVelocityMetersPerSecond(), supplyVolts);
+            rightSupplyAmpSum += supplyCurrent(rightVolts, physicsSim.getRightVelocityMetersPerSecond(), supplyVolts);
+            steps++;
+
+            physicsSim.setInputs(leftVolts, rightVolts);
+            physicsSim.update(physicsPeriodSeconds);
+            simTimeSeconds += physicsPeriodSeconds;
+
+            // Record the wheel positions at the same rate the real odometry thread would
+            if (simTimeSeconds >= nextOdometrySampleSeconds - 1e-9) {
+                if (sampleCount < sampleTimestamps.length) {
+                    sampleTimestamps[sampleCount] = simTimeSeconds;
+                    sampleLeftPositions[sampleCount] = physicsSim.getLeftPositionMeters() + leftPositionOffsetMeters;
+                    sampleRightPositions[sampleCount] = physicsSim.getRightPositionMeters() + rightPositionOffsetMeters;
+                    sampleCount++;
+                }
+                nextOdometrySampleSeconds = Math.max(nextOdometrySampleSeconds + ODOMETRY_PERIOD_SECONDS, simTimeSeconds);
+            }
+        }
 
-        // Use the motor output voltage to update the sim
-        physicsSim.setInputs(leftSimState.getMotorVoltage(), rightSimState.getMotorVoltage());
+        // Keep any commands newer than the last step for next time
+        System.arraycopy(pendingTimestamps, appliedCommands, pendingTimestamps, 0, pendingCount - appliedCommands);
+        System.arraycopy(pendingIsVelocity, appliedCommands, pendingIsVelocity, 0, pendingCount - appliedCommands);
+        System.arraycopy(pendingLeft, appliedCommands, pendingLeft, 0, pendingCount - appliedCommands);
+        System.arraycopy(pendingRight, appliedCommands, pendingRight, 0, pendingCount - appliedCommands);
+        pendingCount -= appliedCommands;
 
-        inputs.leftOutputVolts = leftSimState.getMotorVoltage();
-        inputs.rightOutputVolts = rightSimState.getMotorVoltage();
+        truePose = new TruePose(simTimeSeconds, physicsSim.getPose());
+
+        // Average current since last loop, the battery model uses this to work out next loop's voltage
+        if (steps > 0) {
+            leftSupplyAmps = leftSupplyAmpSum / steps;
+            rightSupplyAmps = rightSupplyAmpSum / steps;
+        }
+        powerSource.setCurrentAmps(leftSupplyAmps + rightSupplyAmps);
+
+        inputs.odometryTimestamps = timestampPool.next(sampleCount);
+        inputs.odometryLeftPositionsMeters = leftPositionPool.next(sampleCount);
+        inputs.odometryRightPositionsMeters = rightPositionPool.next(sampleCount);
+        System.arraycopy(sampleTimestamps, 0, inputs.odometryTimestamps, 0, sampleCount);
+        System.arraycopy(sampleLeftPositions, 0, inputs.odometryLeftPositionsMeters, 0, sampleCount);
+        System.arraycopy(sampleRightPositions, 0, inputs.odometryRightPositionsMeters, 0, sampleCount);
+
+        // Our model knows what the velocity loop asked for, the Talon sim states don't
+        inputs.leftOutputVolts = leftVolts;
+        inputs.rightOutputVolts = rightVolts;
 
         inputs.leftVelocityMetersPerSecond = physicsSim.getLeftVelocityMetersPerSecond();
         inputs.rightVelocityMetersPerSecond = physicsSim.getRightVelocityMetersPerSecond();
 
-        inputs.leftPositionMeters = physicsSim.getLeftPositionMeters();
-        inputs.rightPositionMeters = physicsSim.getRightPositionMeters();
+        inputs.leftPositionMeters = physicsSim.getLeftPositionMeters() + leftPositionOffsetMeters;
+        inputs.rightPositionMeters = physicsSim.getRightPositionMeters() + rightPositionOffsetMeters;
 
-        inputs.leftCurrentAmps = leftSimState.getTorqueCurrent();
+        // Supply current, like the real IO reports
+        inputs.leftCurrentAmps = leftSupplyAmps;
         inputs.leftTempCelsius = 0.0;
-        inputs.rightCurrentAmps = rightSimState.getTorqueCurrent();
+        inputs.rightCurrentAmps = rightSupplyAmps;
         inputs.rightTempCelsius = 0.0;
     }
 
+    /** How much current a side's motors pull through the stator, from Ohm's law and their back EMF. */
+    private static double statorCurrent(double volts, double velocityMetersPerSecond) {
+        double motorRadiansPerSecond = velocityMetersPerSecond * DrivetrainSubsystem.MOTOR_ROTATIONS_PER_METER * 2.0 * Math.PI;
+        return SIDE_MOTORS.getCurrent(motorRadiansPerSecond, volts);
+    }
+
+    /**
+     * How much a side pulls from the battery. The Talon only has the battery connected for part of
+     * each PWM cycle, so the supply current is the stator current scaled by how much of the battery
+     * voltage we're using.
+     */
+    private static double supplyCurrent(double volts, double velocityMetersPerSecond, double supplyVolts) {
+        if (supplyVolts <= 0.0) {
+            return 0.0;
+        }
+        return Math.abs(statorCurrent(volts, velocityMetersPerSecond) * volts / supplyVolts);
+    }
+
+    /** Lowers the voltage until both current limits in TALON_CONFIG are met, for one side. */
+    private static double applyCurrentLimits(double volts, double velocityMetersPerSecond, double supplyVolts) {
+        // Zero volts is neutral, which the limits don't apply to
+        if (volts == 0.0) {
+            return volts;
+        }
+        var limits = DrivetrainSubsystem.TALON_CONFIG.CurrentLimits;
+        // The limits are for each Talon, and there's one per motor
+        double maxStatorAmps = limits.StatorCurrentLimitEnable
+            ? limits.StatorCurrentLimit * MOTORS_PER_SIDE
+            : Double.POSITIVE_INFINITY;
+        if (limits.SupplyCurrentLimitEnable) {
+            // Supply current is stator current times volts over supply volts, so this is the stator
+            // current that puts us right at the supply limit
+            maxStatorAmps = Math.min(maxStatorAmps,
+                limits.SupplyCurrentLimit * MOTORS_PER_SIDE * supplyVolts / Math.abs(volts));
+        }
+        double statorAmps = statorCurrent(volts, velocityMetersPerSecond);
+        if (Math.abs(statorAmps) <= maxStatorAmps) {
+            return volts;
+        }
+        // Back off to just the voltage that gives the max current
+        double backEmfVolts = volts - statorAmps * SIDE_MOTORS.rOhms;
+        return backEmfVolts + Math.signum(statorAmps) * maxStatorAmps * SIDE_MOTORS.rOhms;
+    }
+
+    /**
+     * The latest ground truth from the physics model. Safe to call from any thread, it's only
+     * updated once per {@link #updateInputs}.
+     */
+    public TruePose getTruePose() {
+        return truePose;
+    }
+
+    /** Picks the robot up and puts it somewhere else on the field, like at the start of an auto. */
+    @Override
+    public void setSimPose(Pose2d pose) {
+        leftPositionOffsetMeters += physicsSim.getLeftPositionMeters();
+        rightPositionOffsetMeters += physicsSim.getRightPositionMeters();
+        physicsSim.setPose(pose);
+        truePose = new TruePose(simTimeSeconds, pose);
+    }
+
     @Override
     public void setVolts(double left, double right) {
-        leftTalon.setControl(leftVoltage.withOutput(left));
-        rightTalon.setControl(rightVoltage.withOutput(right));
+        if (leftControlCache.shouldSend(DrivetrainIOReal.VOLTAGE_MODE, left)) {
+            leftTalon.setControl(leftVoltage.withOutput(left));
+        }
+        if (rightControlCache.shouldSend(DrivetrainIOReal.VOLTAGE_MODE, right)) {
+            rightTalon.setControl(rightVoltage.withOutput(right));
+        }
+
+        queueCommand(false, left, right);
+    }
+
+    @Override
+    public void setVelocity(double leftMetersPerSecond, double rightMetersPerSecond) {
+        // The Talon sims don't model their own velocity loops, so updateInputs does that
+        leftControlCache.shouldSend(DrivetrainIOReal.VELOCITY_MODE, leftMetersPerSecond);
+        rightControlCache.shouldSend(DrivetrainIOReal.VELOCITY_MODE, rightMetersPerSecond);
+        queueCommand(true, leftMetersPerSecond, rightMetersPerSecond);
+    }
+
+    private void queueCommand(boolean isVelocity, double left, double right) {
+        // Remember when this was sent so updateInputs applies it at the right physics step
+        // If a loop somehow sends more commands than we have room for, the newest one replaces the last
+        int index = Math.min(pendingCount, MAX_PENDING_COMMANDS - 1);
+        pendingTimestamps[index] = Timer.getFPGATimestamp();
+        pendingIsVelocity[index] = isVelocity;
+        pendingLeft[index] = left;
+        pendingRight[index] = right;
+        pendingCount = index + 1;
+    }
+
+    /** Makes a velocity loop model with whichever gains the real Talons would use. */
+    static TalonVelocityLoopSim createVelocityLoop() {
+        // The kitbot sim has two Falcons per side
+        DCMotor motors = DrivetrainSubsystem.USE_TORQUE_CURRENT_FOC ? DCMotor.getFalcon500Foc(2) : DCMotor.getFalcon500(2);
+        return DrivetrainSubsystem.USE_TORQUE_CURRENT_FOC
+            ? new TalonVelocityLoopSim(
+                DrivetrainSubsystem.VELOCITY_TORQUE_CURRENT_GAINS.kS,
+                DrivetrainSubsystem.VELOCITY_TORQUE_CURRENT_GAINS.kV,
+                DrivetrainSubsystem.VELOCITY_TORQUE_CURRENT_GAINS.kP,
+                true,
+                motors,
+                DrivetrainSubsystem.MOTOR_ROTATIONS_PER_METER)
+            : new TalonVelocityLoopSim(
+                DrivetrainSubsystem.VELOCITY_VOLTAGE_GAINS.kS,
+                DrivetrainSubsystem.VELOCITY_VOLTAGE_GAINS.kV,
+                DrivetrainSubsystem.VELOCITY_VOLTAGE_GAINS.kP,
+                false,
+                motors,
+                DrivetrainSubsystem.MOTOR_ROTATIONS_PER_METER);
     }
 }
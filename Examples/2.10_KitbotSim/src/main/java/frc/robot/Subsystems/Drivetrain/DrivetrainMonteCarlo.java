@@ -0,0 +1,186 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotGearing;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotMotor;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotWheelSize;
+
+/**
+ * Measures how far our odometry drifts from where the robot really is.
+ *
+ * <p>Each trial builds a slightly different robot (gearing, wheel size and track width are a little
+ * off from what the code assumes), drives it through the same routine, and compares our odometry
+ * against the physics model's true pose. Running thousands of these shows us how much we can trust
+ * odometry on its own. Each trial also runs a {@link DifferentialPoseEstimator} fed by a {@link
+ * SyntheticVisionSource} on the same wheel data, to show how much a vision fix helps.
+ *
+ * <p>Run with {@code ./gradlew monteCarlo}, or pass the number of trials and seconds per trial with
+ * {@code ./gradlew monteCarlo --args="2000 15"}.
+ */
+public final class DrivetrainMonteCarlo {
+    // Standard deviations of the randomized robot, as a fraction of the nominal value
+    private static final double GEARING_TOLERANCE = 0.01;
+    private static final double WHEEL_DIAMETER_TOLERANCE = 0.02;
+    // Wheels scrub when turning, which makes the robot act like its wheels are further apart
+    private static final double TRACK_WIDTH_TOLERANCE = 0.05;
+
+    private static final double ENCODER_NOISE_STD_DEV_METERS = 0.001;
+    private static final double TRACTION_LIMIT_AMPS = 80.0;
+    private static final double SLIP_PER_AMP = 0.002;
+
+    // A so-so camera, 10 frames a second that are 30-120ms old when they arrive
+    private static final double VISION_PERIOD_SECONDS = 0.1;
+    private static final double VISION_MIN_LATENCY_SECONDS = 0.03;
+    private static final double VISION_MAX_LATENCY_SECONDS = 0.12;
+    private static final double VISION_STD_DEV_XY = 0.1;
+    private static final double VISION_STD_DEV_THETA = Math.toRadians(3);
+
+    // Rough moment of inertia of a kitbot, see DifferentialDrivetrainSim.createKitbotSim
+    private static final double KITBOT_MOI_KG_METERS_SQUARED = 7.5;
+    private static final double KITBOT_MASS_KG = Units.lbsToKilograms(60);
+
+    private DrivetrainMonteCarlo() {}
+
+    /** How far off odometry, and odometry fused with vision, were at the end of one trial. */
+    record TrialResult(double translationErrorMeters, double headingErrorRadians,
+        double fusedTranslationErrorMeters, double fusedHeadingErrorRadians) {}
+
+    public static void main(String... args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 15.0;
+        // The percentiles need at least one result to pick from
+        if (trials < 1) {
+            System.out.println("Usage: DrivetrainMonteCarlo [trials, at least 1] [seconds]");
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        // Every trial has its own sim and its own random numbers, so they can all run at once
+        TrialResult[] results = IntStream.range(0, trials)
+            .parallel()
+            .mapToObj(i -> runTrial(i, seconds))
+            .toArray(TrialResult[]::new);
+        double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        System.out.printf("%d trials of %.1f s in %.2f s%n", trials, seconds, wallSeconds);
+        printDistribution("Translation error (m)",
+            Arrays.stream(results).mapToDouble(TrialResult::translationErrorMeters).toArray());
+        printDistribution("Heading error (deg)",
+            Arrays.stream(results).mapToDouble(r -> Math.toDegrees(Math.abs(r.headingErrorRadians()))).toArray());
+        printDistribution("With vision translation error (m)",
+            Arrays.stream(results).mapToDouble(TrialResult::fusedTranslationErrorMeters).toArray());
+        printDistribution("With vision heading error (deg)",
+            Arrays.stream(results).mapToDouble(r -> Math.toDegrees(Math.abs(r.fusedHeadingErrorRadians()))).toArray());
+    }
+
+    /** Builds a randomized robot, drives it, and measures the odometry error. */
+    static TrialResult runTrial(long seed, double seconds) {
+        Random random = new Random(seed);
+
+        double gearing = KitbotGearing.k8p45.value * (1.0 + random.nextGaussian() * GEARING_TOLERANCE);
+        double wheelRadius = KitbotWheelSize.kSixInch.value / 2.0 * (1.0 + random.nextGaussian() * WHEEL_DIAMETER_TOLERANCE);
+        double trackWidth = DrivetrainSubsystem.TRACK_WIDTH_METERS * (1.0 + Math.abs(random.nextGaussian()) * TRACK_WIDTH_TOLERANCE);
+
+        // No measurement noise here, the physics sim is our ground truth
+        DifferentialDrivetrainSim physicsSim = new DifferentialDrivetrainSim(
+            KitbotMotor.kDoubleFalcon500PerSide.value,
+            gearing,
+            KITBOT_MOI_KG_METERS_SQUARED,
+            KITBOT_MASS_KG,
+            wheelRadius,
+            trackWidth,
+            null);
+
+        // The encoders are on the motors, so odometry sees wheel rotations through the real gearing
+        // but converts them to meters with the gearing and wheel size it thinks we have
+        double encoderScale = (gearing / KitbotGearing.k8p45.value) * (KitbotWheelSize.kSixInch.value / 2.0 / wheelRadius);
+
+        DrivetrainIOPhysicsSim io = new DrivetrainIOPhysicsSim(
+            physicsSim, 12.0, encoderScale, ENCODER_NOISE_STD_DEV_METERS, TRACTION_LIMIT_AMPS, SLIP_PER_AMP, random.nextLong());
+        DrivetrainIOInputsAutoLogged inputs = new DrivetrainIOInputsAutoLogged();
+        DifferentialOdometryIntegrator odometry = new DifferentialOdometryIntegrator(DrivetrainSubsystem.TRACK_WIDTH_METERS);
+        DifferentialPoseEstimator poseEstimator = new DifferentialPoseEstimator(
+            DrivetrainSubsystem.TRACK_WIDTH_METERS, 1.5, 0.02, 0.01);
+        SyntheticVisionSource vision = new SyntheticVisionSource(VISION_PERIOD_SECONDS,
+            VISION_MIN_LATENCY_SECONDS, VISION_MAX_LATENCY_SECONDS, VISION_STD_DEV_XY, VISION_STD_DEV_THETA, random.nextLong());
+
+        // Every trial gets a slightly different driver so we don't only test one path
+        double aggression = 0.7 + 0.3 * random.nextDouble();
+
+        int loops = (int) Math.round(seconds / 0.020);
+        for (int i = 0; i < loops; i++) {
+            double t = i * 0.020;
+            io.setVolts(12.0 * aggression * drive(t) + 6.0 * aggression * turn(t),
+                12.0 * aggression * drive(t) - 6.0 * aggression * turn(t));
+            io.updateInputs(inputs);
+            for (int j = 0; j < inputs.odometryTimestamps.length; j++) {
+                odometry.update(inputs.odometryLeftPositionsMeters[j], inputs.odometryRightPositionsMeters[j]);
+                poseEstimator.addOdometrySample(inputs.odometryTimestamps[j],
+                    inputs.odometryLeftPositionsMeters[j], inputs.odometryRightPositionsMeters[j]);
+            }
+            vision.update(inputs.odometryTimestamps[inputs.odometryTimestamps.length - 1], io.getTruePose(), poseEstimator);
+            poseEstimator.applyVisionMeasurements();
+        }
+
+        Pose2d truth = io.getTruePose();
+        return new TrialResult(
+            Math.hypot(odometry.getXMeters() - truth.getX(), odometry.getYMeters() - truth.getY()),
+            MathUtil.angleModulus(odometry.getHeadingRadians() - truth.getRotation().getRadians()),
+            Math.hypot(poseEstimator.getXMeters() - truth.getX(), poseEstimator.getYMeters() - truth.getY()),
+            MathUtil.angleModulus(poseEstimator.getHeadingRadians() - truth.getRotation().getRadians()));
+    }
+
+    // A scripted routine with hard accelerations, spins and arcs, repeating every 8 seconds
+    private static double drive(double t) {
+        double phase = t % 8.0;
+        if (phase < 2.0) {
+            return 1.0;
+        } else if (phase < 3.0) {
+            return 0.0;
+        } else if (phase < 6.0) {
+            return 0.6;
+        } else {
+            return -1.0;
+        }
+    }
+
+    private static double turn(double t) {
+        double phase = t % 8.0;
+        if (phase < 2.0) {
+            return 0.0;
+        } else if (phase < 3.0) {
+            return -1.0;
+        } else if (phase < 6.0) {
+            return 0.4 * Math.sin(phase * 2.0);
+        } else {
+            return 0.0;
+        }
+    }
+
+    private static void printDistribution(String name, double[] values) {
+        Arrays.sort(values);
+        System.out.printf("%s: mean %.4f, p50 %.4f, p90 %.4f, p99 %.4f, max %.4f%n",
+            name,
+            Arrays.stream(values).average().orElse(0.0),
+            percentile(values, 0.50),
+            percentile(values, 0.90),
+            percentile(values, 0.99),
+            values[values.length - 1]);
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[MathUtil.clamp(index, 0, sorted.length - 1)];
+    }
+}
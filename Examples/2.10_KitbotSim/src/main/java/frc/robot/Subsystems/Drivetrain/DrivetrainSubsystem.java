@@ -4,61 +4,542 @@
 
 package frc.robot.Subsystems.Drivetrain;
 
+import static edu.wpi.first.units.Units.Second;
+import static edu.wpi.first.units.Units.Seconds;
+import static edu.wpi.first.units.Units.Volts;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
 
+import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
 
+import com.ctre.phoenix6.configs.FeedbackConfigs;
+import com.ctre.phoenix6.configs.Slot0Configs;
+import com.ctre.phoenix6.configs.Slot1Configs;
+import com.ctre.phoenix6.configs.TalonFXConfiguration;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.kinematics.DifferentialDriveOdometry;
+import edu.wpi.first.math.kinematics.DifferentialDriveKinematics;
+import edu.wpi.first.math.trajectory.TrajectoryConfig;
 import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.drive.DifferentialDrive;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotGearing;
+import edu.wpi.first.wpilibj.simulation.DifferentialDrivetrainSim.KitbotWheelSize;
 import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.Commands;
+import edu.wpi.first.wpilibj2.command.FunctionalCommand;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
 import frc.robot.Robot;
+import frc.robot.Utils.AsyncTrajectoryGenerator;
+import frc.robot.Utils.InputLatencyTracker;
+import frc.robot.Utils.LoopTimer;
+import frc.robot.Utils.MappedTrajectory;
+import frc.robot.Utils.PoseTrail;
 
 public class DrivetrainSubsystem extends SubsystemBase {
   public static final int LEFT_TALON_ID = 0;
   public static final int RIGHT_TALON_ID = 1;
+  // Distance between the left and right wheels
+  public static final double TRACK_WIDTH_METERS = Units.inchesToMeters(26);
+  // How many times the motor spins for each meter the robot drives, from the gearbox and wheel size
+  public static final double MOTOR_ROTATIONS_PER_METER =
+      KitbotGearing.k8p45.value / (Math.PI * KitbotWheelSize.kSixInch.value);
+  // About how fast we can drive with a full battery, a Falcon spins at about 106 rotations per second
+  // with no load
+  public static final double MAX_SPEED_METERS_PER_SECOND = 106.0 / MOTOR_ROTATIONS_PER_METER;
+
+  // Velocity control runs on the Talons at 1khz, so it doesn't care how late our 50hz loop is
+  // The Talons' SensorToMechanismRatio turns motor rotations into meters, so these gains are in meters
+  // per second, the same units DrivetrainFeedforwardFitter gives kS and kV in. Sim uses the same ones
+  // VelocityVoltage gains are in volts
+  public static final Slot0Configs VELOCITY_VOLTAGE_GAINS = new Slot0Configs()
+      .withKS(0.1) // Volts to get moving
+      .withKV(12.0 / MAX_SPEED_METERS_PER_SECOND) // Volts per meter per second, from the Falcon's free speed
+      .withKP(0.2 * MOTOR_ROTATIONS_PER_METER); // Volts per meter per second of error
+  // VelocityTorqueCurrentFOC gains are in amps, and controlling current directly
+  // makes the robot respond the same no matter what the battery is at
+  public static final Slot1Configs VELOCITY_TORQUE_CURRENT_GAINS = new Slot1Configs()
+      .withKS(2.0) // Amps to get moving
+      .withKV(0.0) // Current control doesn't need any to hold a speed, only to overcome friction
+      .withKP(8.0 * MOTOR_ROTATIONS_PER_METER); // Amps per meter per second of error
+  // Torque current control needs a Phoenix Pro license, so it's off by default
+  public static final boolean USE_TORQUE_CURRENT_FOC = false;
+  // Everything we set on the drive Talons, applied all at once when the robot boots
+  // With the ratio set, the Talons report position in meters and velocity in meters per second, and
+  // velocity requests are in meters per second too
+  public static final TalonFXConfiguration TALON_CONFIG = new TalonFXConfiguration()
+      .withFeedback(new FeedbackConfigs().withSensorToMechanismRatio(MOTOR_ROTATIONS_PER_METER))
+      .withSlot0(VELOCITY_VOLTAGE_GAINS)
+      .withSlot1(VELOCITY_TORQUE_CURRENT_GAINS);
+
+  // How hard the trajectory follower corrects for being off the path
+  // Meters per second per meter behind or ahead
+  public static final double TRAJECTORY_KX = 2.0;
+  // Radians per second per meter off to the side, per meter per second we're driving
+  public static final double TRAJECTORY_KY = 4.0;
+  // Radians per second per radian of heading error
+  public static final double TRAJECTORY_KTHETA = 3.0;
+
+  // Limits for paths we make on the fly, kept under what the robot can really do so the follower has
+  // room to correct
+  public static final double GENERATED_MAX_SPEED_METERS_PER_SECOND = 0.75 * MAX_SPEED_METERS_PER_SECOND;
+  public static final double GENERATED_MAX_ACCELERATION_METERS_PER_SECOND_SQUARED = 2.0;
+  // One worker thread is plenty, the roboRIO only has two cores and the main loop needs the other one
+  static final int GENERATOR_THREADS = 1;
+  // Requests past this many waiting are turned away instead of piling up
+  static final int GENERATOR_QUEUE_SIZE = 4;
+  // The same spacing TrajectoryCacheBuilder uses for the cached trajectories
+  static final double GENERATED_PERIOD_SECONDS = 0.010;
 
-  DrivetrainIO io = Robot.isReal() ? new DrivetrainIOReal() : new DrivetrainIOSim();
+  // The path we've driven, for dashboards to draw, see PoseTrail
+  // 256 corners is 3 KB at most, and a match usually needs far fewer
+  static final int TRAIL_CAPACITY = 256;
+  static final double TRAIL_TOLERANCE_METERS = 0.05;
+  static final double TRAIL_HEADING_TOLERANCE_RADIANS = Math.toRadians(15.0);
+  static final double TRAIL_MIN_DISTANCE_METERS = 0.02;
+  // Nobody needs the path drawn faster than this, the robot itself is still published every loop
+  static final double TRAIL_PUBLISH_PERIOD_SECONDS = 1.0;
+
+  // Logged with every setpoint we send, so DrivetrainReplayRegressionTest knows which ones it can
+  // rerun from the logged arcade inputs
+  static final String COMMAND_SOURCE_KEY = "Drivetrain/Command/Source";
+  static final String ARCADE_VOLTAGE_SOURCE = "ArcadeVoltage";
+  static final String ARCADE_VELOCITY_SOURCE = "ArcadeVelocity";
+  static final String OTHER_SOURCE = "Other";
+
+  final DrivetrainIO io;
   DrivetrainIOInputsAutoLogged inputs = new DrivetrainIOInputsAutoLogged();
 
-  // Odometry keeps track of our position on the field
-  // We can upgrade this to a pose estimator, which fuses vision readings to
-  // correct our estimate
-  DifferentialDriveOdometry odometry = new DifferentialDriveOdometry(new Rotation2d(), 0, 0);
+  // The pose estimator keeps track of our position on the field
+  // It runs odometry from the wheels, then fuses in vision readings to correct any drift
+  // This works like DifferentialDrivePoseEstimator, but doesn't make any new objects as it updates
+  DifferentialPoseEstimator poseEstimator = createPoseEstimator();
+
+  LoopTimer periodicTimer = new LoopTimer("Drivetrain/Periodic");
+  LoopTimer updateInputsTimer = new LoopTimer("Drivetrain/UpdateInputs");
+  LoopTimer trajectorySampleTimer = new LoopTimer("Drivetrain/TrajectorySample");
+  LoopTimer poseTrailTimer = new LoopTimer("Drivetrain/PoseTrail");
+
+  PoseTrail poseTrail = createPoseTrail();
+
+  // Makes paths for driveToPoseCommand on a background thread, so a slow one never overruns the loop
+  AsyncTrajectoryGenerator trajectoryGenerator = new AsyncTrajectoryGenerator("Drivetrain/TrajectoryGenerator",
+      new TrajectoryConfig(GENERATED_MAX_SPEED_METERS_PER_SECOND, GENERATED_MAX_ACCELERATION_METERS_PER_SECOND_SQUARED)
+          .setKinematics(new DifferentialDriveKinematics(TRACK_WIDTH_METERS)),
+      GENERATOR_THREADS, GENERATOR_QUEUE_SIZE, GENERATED_PERIOD_SECONDS, TRACK_WIDTH_METERS);
 
-  /** Creates a new Drivetrain. */
+  // The speed we want each side going, so we can log how well we're tracking it
+  // For voltage control, this is the speed the voltage would give us with no load
+  double leftSetpointMetersPerSecond = 0.0;
+  double rightSetpointMetersPerSecond = 0.0;
+
+  // Runs the drivetrain through the tests SysId uses to measure kS, kV, and kA
+  // The state is logged so DrivetrainFeedforwardFitter can pick the test data out of the log, and the
+  // wheel positions are already logged at 250hz from the odometry samples
+  private final SysIdRoutine sysIdRoutine = new SysIdRoutine(
+      new SysIdRoutine.Config(
+          Volts.of(1.0).per(Second), // Quasistatic tests ramp up this fast
+          Volts.of(6.0), // Dynamic tests jump straight to this
+          Seconds.of(4.0), // Each test stops after this long, even on a real field stop it before the wall
+          state -> Logger.recordOutput("Drivetrain/SysIdState", state.toString())),
+      new SysIdRoutine.Mechanism(
+          volts -> setVoltages(volts.in(Volts), volts.in(Volts)),
+          null, // AdvantageKit already logs everything the fitter needs
+          this));
+
+  // Counts resets, so two resets to the same spot still show up as a change in the log
+  private long poseResetCount = 0;
+
+  // Filled in by arcadeVolts and arcadeVelocities, left then right, so arcade driving doesn't make a
+  // WheelSpeeds every loop
+  private final double[] arcadeSetpoints = new double[2];
+
+  /** Creates a new Drivetrain, with the IO for wherever we're running. */
   public DrivetrainSubsystem() {
+    this(Robot.isReal() ? new DrivetrainIOReal()
+        : Robot.REPLAY ? new DrivetrainIOReplay()
+        : new DrivetrainIOSim());
+  }
+
+  /** Creates a Drivetrain that talks to a given IO, so tests can drive it without any hardware or sim. */
+  DrivetrainSubsystem(DrivetrainIO io) {
+    this.io = io;
+  }
+
+  /**
+   * Builds the pose estimator. We keep 1.5 seconds of history, which is plenty for even a slow
+   * camera.
+   */
+  private static DifferentialPoseEstimator createPoseEstimator() {
+    return new DifferentialPoseEstimator(TRACK_WIDTH_METERS, 1.5, 0.02, 0.01);
+  }
+
+  /** Builds the pose trail, here so {@link PoseTrailReport} measures the exact same one. */
+  static PoseTrail createPoseTrail() {
+    return new PoseTrail("Drivetrain/PoseTrail", TRAIL_CAPACITY, TRAIL_TOLERANCE_METERS,
+        TRAIL_HEADING_TOLERANCE_RADIANS, TRAIL_MIN_DISTANCE_METERS, TRAIL_PUBLISH_PERIOD_SECONDS);
+  }
+
+  /**
+   * One loop of pose estimation from the drivetrain inputs. DrivetrainReplayRegressionTest runs
+   * {@link #periodic} on old logs and checks the pose that comes out.
+   */
+  private static void updatePoseEstimate(DifferentialPoseEstimator estimator, DrivetrainIO.DrivetrainIOInputs inputs) {
+    // Integrate every high frequency sample since last loop, oldest first
+    // A Talon that isn't answering can read as zero, which would look like we teleported, so we hold
+    // the last pose until both sides are back and let vision keep correcting it
+    if (inputs.leftConnected && inputs.rightConnected) {
+      for (int i = 0; i < inputs.odometryTimestamps.length; i++) {
+        estimator.addOdometrySample(inputs.odometryTimestamps[i],
+            inputs.odometryLeftPositionsMeters[i], inputs.odometryRightPositionsMeters[i]);
+      }
+    }
+    // Then fuse any vision measurements that came in, rewinding to when each frame was taken
+    estimator.applyVisionMeasurements();
   }
 
   private void setVoltages(double left, double right) {
+    setVoltages(left, right, OTHER_SOURCE);
+  }
+
+  /**
+   * Sends the voltages to the Talons last, so a joystick path can call
+   * {@link InputLatencyTracker#markSend} right after this and time just up to the send.
+   */
+  private void setVoltages(double left, double right, String source) {
+    leftSetpointMetersPerSecond = left / 12.0 * MAX_SPEED_METERS_PER_SECOND;
+    rightSetpointMetersPerSecond = right / 12.0 * MAX_SPEED_METERS_PER_SECOND;
+    Logger.recordOutput(COMMAND_SOURCE_KEY, source);
+    Logger.recordOutput("Drivetrain/Command/LeftVolts", left);
+    Logger.recordOutput("Drivetrain/Command/RightVolts", right);
     io.setVolts(left, right);
   }
 
+  private void setVelocities(double leftMetersPerSecond, double rightMetersPerSecond) {
+    setVelocities(leftMetersPerSecond, rightMetersPerSecond, OTHER_SOURCE);
+  }
+
+  /** Like {@link #setVoltages(double, double, String)}, the speeds go to the Talons last. */
+  private void setVelocities(double leftMetersPerSecond, double rightMetersPerSecond, String source) {
+    leftSetpointMetersPerSecond = leftMetersPerSecond;
+    rightSetpointMetersPerSecond = rightMetersPerSecond;
+    Logger.recordOutput(COMMAND_SOURCE_KEY, source);
+    Logger.recordOutput("Drivetrain/Command/LeftMetersPerSecond", leftMetersPerSecond);
+    Logger.recordOutput("Drivetrain/Command/RightMetersPerSecond", rightMetersPerSecond);
+    io.setVelocity(leftMetersPerSecond, rightMetersPerSecond);
+  }
+
+  /** Logs the joystick values the arcade math started from, so the replay test can redo it. */
+  private static void recordArcadeInputs(double drive, double steer) {
+    Logger.recordOutput("Drivetrain/Command/ArcadeDrive", drive);
+    Logger.recordOutput("Drivetrain/Command/ArcadeSteer", steer);
+  }
+
   public Command setVoltagesCommand(DoubleSupplier left, DoubleSupplier right) {
-    return this.run(() -> this.setVoltages(left.getAsDouble(), right.getAsDouble()));
+    return LoopTimer.timeCommand(
+        this.run(() -> this.setVoltages(left.getAsDouble(), right.getAsDouble())).withName("SetVoltages"));
   }
 
   public Command setVoltagesArcadeCommand(DoubleSupplier drive, DoubleSupplier steer) {
-    return this.run(() -> {
-      var speeds = DifferentialDrive.arcadeDriveIK(drive.getAsDouble(), steer.getAsDouble(), false);
-      this.setVoltages(speeds.left * 12, speeds.right * 12);
-    });
+    return LoopTimer.timeCommand(this.run(() -> {
+      InputLatencyTracker.markExecute();
+      double driveValue = drive.getAsDouble();
+      double steerValue = steer.getAsDouble();
+      recordArcadeInputs(driveValue, steerValue);
+      arcadeVolts(driveValue, steerValue, arcadeSetpoints);
+      this.setVoltages(arcadeSetpoints[0], arcadeSetpoints[1], ARCADE_VOLTAGE_SOURCE);
+      InputLatencyTracker.markSend();
+    }).withName("SetVoltagesArcade"));
+  }
+
+  /**
+   * Like {@link #setVoltagesArcadeCommand}, but asks the Talons for a speed instead of a voltage. The
+   * Talons then hold that speed themselves, even as the battery sags or the robot gets pushed.
+   */
+  public Command setVelocityArcadeCommand(DoubleSupplier drive, DoubleSupplier steer) {
+    return LoopTimer.timeCommand(this.run(() -> {
+      InputLatencyTracker.markExecute();
+      double driveValue = drive.getAsDouble();
+      double steerValue = steer.getAsDouble();
+      recordArcadeInputs(driveValue, steerValue);
+      arcadeVelocities(driveValue, steerValue, arcadeSetpoints);
+      this.setVelocities(arcadeSetpoints[0], arcadeSetpoints[1], ARCADE_VELOCITY_SOURCE);
+      InputLatencyTracker.markSend();
+    }).withName("SetVelocityArcade"));
+  }
+
+  /**
+   * Drives like {@link #setVoltagesArcadeCommand} right now, instead of waiting for a command to run.
+   * This is the low latency teleop path, see {@code Robot.teleopPeriodic}. It doesn't make any new
+   * objects.
+   */
+  public void arcadeDriveImmediate(double drive, double steer) {
+    InputLatencyTracker.markExecute();
+    recordArcadeInputs(drive, steer);
+    arcadeVolts(drive, steer, arcadeSetpoints);
+    setVoltages(arcadeSetpoints[0], arcadeSetpoints[1], ARCADE_VOLTAGE_SOURCE);
+    InputLatencyTracker.markSend();
+  }
+
+  /**
+   * The voltages voltage arcade sends for a drive and steer from -1 to 1, left in {@code out[0]} and
+   * right in {@code out[1]}.
+   */
+  private static void arcadeVolts(double drive, double steer, double[] out) {
+    arcadeDriveIK(drive, steer, out);
+    out[0] *= 12.0;
+    out[1] *= 12.0;
+  }
+
+  /** Like {@link #arcadeVolts}, but the speeds velocity arcade sends, in meters per second. */
+  private static void arcadeVelocities(double drive, double steer, double[] out) {
+    arcadeDriveIK(drive, steer, out);
+    out[0] *= MAX_SPEED_METERS_PER_SECOND;
+    out[1] *= MAX_SPEED_METERS_PER_SECOND;
+  }
+
+  /** The same math as {@link DifferentialDrive#arcadeDriveIK}, but saves the result in an array. */
+  private static void arcadeDriveIK(double drive, double steer, double[] out) {
+    drive = MathUtil.clamp(drive, -1.0, 1.0);
+    steer = MathUtil.clamp(steer, -1.0, 1.0);
+    double greaterInput = Math.max(Math.abs(drive), Math.abs(steer));
+    double lesserInput = Math.min(Math.abs(drive), Math.abs(steer));
+    if (greaterInput == 0.0) {
+      out[0] = 0.0;
+      out[1] = 0.0;
+      return;
+    }
+    // Scale both sides down so neither goes past full speed, keeping the ratio between them
+    double saturatedInput = (greaterInput + lesserInput) / greaterInput;
+    out[0] = (drive - steer) / saturatedInput;
+    out[1] = (drive + steer) / saturatedInput;
+  }
+
+  /** Slowly ramps the voltage up, for kS and kV. */
+  public Command sysIdQuasistatic(SysIdRoutine.Direction direction) {
+    return sysIdRoutine.quasistatic(direction);
+  }
+
+  /** Jumps straight to a voltage, for kA. */
+  public Command sysIdDynamic(SysIdRoutine.Direction direction) {
+    return sysIdRoutine.dynamic(direction);
+  }
+
+  /**
+   * Runs all four characterization tests with a pause between them to let the robot stop. Feed the
+   * log to {@link DrivetrainFeedforwardFitter} afterwards to get kS, kV, and kA.
+   */
+  public Command characterizationCommand() {
+    return Commands.sequence(
+        sysIdQuasistatic(SysIdRoutine.Direction.kForward),
+        Commands.waitSeconds(1.0),
+        sysIdQuasistatic(SysIdRoutine.Direction.kReverse),
+        Commands.waitSeconds(1.0),
+        sysIdDynamic(SysIdRoutine.Direction.kForward),
+        Commands.waitSeconds(1.0),
+        sysIdDynamic(SysIdRoutine.Direction.kReverse))
+        .withName("DrivetrainCharacterization");
+  }
+
+  /**
+   * Follows a trajectory from the cache, see {@link MappedTrajectory}. The wheel speeds from the
+   * trajectory go to the Talons' velocity control, plus a correction for how far off the path we are.
+   * Reset the pose to the start of the trajectory first, or the robot will try to get to it.
+   */
+  public Command followTrajectoryCommand(MappedTrajectory trajectory) {
+    // Made once here, so following the trajectory doesn't make any new objects each loop
+    double[] sample = new double[MappedTrajectory.FIELD_COUNT];
+    Timer timer = new Timer();
+    return LoopTimer.timeCommand(this.runOnce(() -> {
+      timer.restart();
+      Logger.recordOutput("Drivetrain/Trajectory/Name", trajectory.getName());
+      Logger.recordOutput("Drivetrain/Trajectory/LoadMS", trajectory.getLoadTimeMs());
+    }).andThen(this.run(() -> {
+      long sampleStart = trajectorySampleTimer.start();
+      trajectory.sample(timer.get(), sample);
+      trajectorySampleTimer.stop(sampleStart);
+      followSample(sample);
+    })).until(() -> timer.hasElapsed(trajectory.getTotalTimeSeconds()))
+        .finallyDo(() -> setVelocities(0.0, 0.0))
+        .withName("FollowTrajectory"));
+  }
+
+  /**
+   * Drives from wherever we are to a pose, making the path on the fly. The path is generated in the
+   * background by {@link AsyncTrajectoryGenerator}, and the robot holds still until it's ready, which
+   * is usually only a loop or two. If the command is interrupted first, the request is cancelled.
+   */
+  public Command driveToPoseCommand(Supplier<Pose2d> target) {
+    // Made once here, so following the path doesn't make any new objects each loop
+    double[] sample = new double[MappedTrajectory.FIELD_COUNT];
+    Timer timer = new Timer();
+    // The command's state between loops, in arrays so the lambdas can change them
+    @SuppressWarnings("unchecked")
+    CompletableFuture<MappedTrajectory>[] request = new CompletableFuture[1];
+    MappedTrajectory[] trajectory = new MappedTrajectory[1];
+    boolean[] failed = new boolean[1];
+
+    return LoopTimer.timeCommand(new FunctionalCommand(
+        () -> {
+          trajectory[0] = null;
+          failed[0] = false;
+          request[0] = trajectoryGenerator.generate(getPose(), List.of(), target.get());
+        },
+        () -> {
+          if (trajectory[0] == null) {
+            if (!request[0].isDone()) {
+              // Still waiting on the path, stay put
+              setVelocities(0.0, 0.0);
+              return;
+            }
+            try {
+              trajectory[0] = request[0].join();
+            } catch (RuntimeException e) {
+              // Generating failed or the queue was full, so there's nothing to follow
+              Logger.recordOutput("Drivetrain/Trajectory/GenerationError", e.getMessage());
+              failed[0] = true;
+              return;
+            }
+            timer.restart();
+            Logger.recordOutput("Drivetrain/Trajectory/Name", trajectory[0].getName());
+            Logger.recordOutput("Drivetrain/Trajectory/LoadMS", trajectory[0].getLoadTimeMs());
+          }
+          long sampleStart = trajectorySampleTimer.start();
+          trajectory[0].sample(timer.get(), sample);
+          trajectorySampleTimer.stop(sampleStart);
+          followSample(sample);
+        },
+        interrupted -> {
+          // Does nothing if the path was already done
+          request[0].cancel(false);
+          setVelocities(0.0, 0.0);
+        },
+        () -> failed[0] || (trajectory[0] != null && timer.hasElapsed(trajectory[0].getTotalTimeSeconds())),
+        this).withName("DriveToPose"));
+  }
+
+  private void followSample(double[] sample) {
+    double targetX = sample[MappedTrajectory.X];
+    double targetY = sample[MappedTrajectory.Y];
+    double targetHeading = sample[MappedTrajectory.HEADING];
+    double velocity = (sample[MappedTrajectory.LEFT_VELOCITY] + sample[MappedTrajectory.RIGHT_VELOCITY]) / 2.0;
+
+    // How far off we are, turned so x is forward and y is left of where the robot is pointing
+    double heading = poseEstimator.getHeadingRadians();
+    double fieldErrorX = targetX - poseEstimator.getXMeters();
+    double fieldErrorY = targetY - poseEstimator.getYMeters();
+    double cos = Math.cos(heading);
+    double sin = Math.sin(heading);
+    double errorX = fieldErrorX * cos + fieldErrorY * sin;
+    double errorY = -fieldErrorX * sin + fieldErrorY * cos;
+    double errorHeading = MathUtil.angleModulus(targetHeading - heading);
+
+    // Speed up when we're behind, and turn toward the path when we're off to the side
+    double correctedVelocity = velocity * Math.cos(errorHeading) + TRAJECTORY_KX * errorX;
+    double correctedOmega = sample[MappedTrajectory.ANGULAR_VELOCITY]
+        + TRAJECTORY_KTHETA * errorHeading
+        + TRAJECTORY_KY * velocity * errorY;
+
+    Logger.recordOutput("Drivetrain/Trajectory/ErrorXMeters", errorX);
+    Logger.recordOutput("Drivetrain/Trajectory/ErrorYMeters", errorY);
+    Logger.recordOutput("Drivetrain/Trajectory/ErrorHeadingRadians", errorHeading);
+
+    double turn = correctedOmega * TRACK_WIDTH_METERS / 2.0;
+    setVelocities(correctedVelocity - turn, correctedVelocity + turn);
+  }
+
+  /**
+   * Tells the pose estimator we're somewhere, like the start of an auto. In sim, this moves the
+   * simulated robot there too, so the simulated camera agrees with us.
+   */
+  public void resetPose(double xMeters, double yMeters, double headingRadians) {
+    io.setSimPose(new Pose2d(xMeters, yMeters, new Rotation2d(headingRadians)));
+    poseEstimator.resetPosition(xMeters, yMeters, headingRadians,
+        inputs.leftPositionMeters, inputs.rightPositionMeters);
+    poseTrail.clear();
+    // Resets come from commands, not inputs, so they're logged for DrivetrainReplayRegressionTest to redo
+    poseResetCount++;
+    Logger.recordOutput("Drivetrain/PoseReset", new double[] {xMeters, yMeters, headingRadians});
+    Logger.recordOutput("Drivetrain/PoseResetCount", poseResetCount);
+  }
+
+  /** Resets the pose to where a trajectory starts. */
+  public Command resetPoseCommand(MappedTrajectory trajectory) {
+    double[] start = new double[MappedTrajectory.FIELD_COUNT];
+    return Commands.runOnce(() -> {
+      trajectory.sample(0.0, start);
+      resetPose(start[MappedTrajectory.X], start[MappedTrajectory.Y], start[MappedTrajectory.HEADING]);
+    }).withName("ResetPose");
   }
 
   @Override
   public void periodic() {
+    long periodicStart = periodicTimer.start();
+
+    long updateInputsStart = updateInputsTimer.start();
     io.updateInputs(inputs);
+    updateInputsTimer.stop(updateInputsStart);
     Logger.processInputs("Drivetrain", inputs);
 
-    odometry.update(
-        odometry.getPoseMeters().getRotation()
-            // Use differential drive kinematics to find the rotation rate based on the
-            // wheel speeds and distance between wheels
-            .plus(Rotation2d.fromRadians((inputs.leftVelocityMetersPerSecond - inputs.rightVelocityMetersPerSecond)
-                * 0.020 / Units.inchesToMeters(26))),
-        inputs.leftPositionMeters, inputs.rightPositionMeters);
-    Logger.recordOutput("Drivetrain Pose", odometry.getPoseMeters());
+    updatePoseEstimate(poseEstimator, inputs);
+
+    long poseTrailStart = poseTrailTimer.start();
+    poseTrail.add(poseEstimator.getXMeters(), poseEstimator.getYMeters(), poseEstimator.getHeadingRadians());
+    poseTrail.publish(Timer.getFPGATimestamp());
+    poseTrailTimer.stop(poseTrailStart);
+
+    // How far off the speed we asked for we are, compare these between voltage and velocity control
+    Logger.recordOutput("Drivetrain/LeftVelocitySetpointMetersPerSecond", leftSetpointMetersPerSecond);
+    Logger.recordOutput("Drivetrain/RightVelocitySetpointMetersPerSecond", rightSetpointMetersPerSecond);
+    Logger.recordOutput("Drivetrain/LeftVelocityErrorMetersPerSecond",
+        leftSetpointMetersPerSecond - inputs.leftVelocityMetersPerSecond);
+    Logger.recordOutput("Drivetrain/RightVelocityErrorMetersPerSecond",
+        rightSetpointMetersPerSecond - inputs.rightVelocityMetersPerSecond);
+
+    periodicTimer.stop(periodicStart);
+  }
+
+  /**
+   * Our current estimated position on the field. This makes a new Pose2d, so AdvantageKit calls it
+   * to log "Drivetrain Pose" at the end of each loop, and only while it's logging. That means the
+   * logged pose includes any resets commands made this loop.
+   */
+  @AutoLogOutput(key = "Drivetrain Pose")
+  public Pose2d getPose() {
+    return poseEstimator.getEstimatedPose();
+  }
+
+  /**
+   * Where the physics model says we really are, for sim tools like the simulated camera. Returns
+   * null when we aren't running the sim.
+   */
+  public DrivetrainIOSim.TruePose getSimTruePose() {
+    return io instanceof DrivetrainIOSim sim ? sim.getTruePose() : null;
+  }
+
+  /**
+   * Adds a vision measurement of where we were when a camera frame was taken. It gets fused next
+   * loop.
+   *
+   * @param timestamp when the frame was taken, in FPGA seconds
+   * @param stdDevXY how much to trust x and y, in meters
+   * @param stdDevTheta how much to trust the heading, in radians
+   */
+  public void addVisionMeasurement(Pose2d visionPose, double timestamp, double stdDevXY, double stdDevTheta) {
+    addVisionMeasurement(visionPose.getX(), visionPose.getY(), visionPose.getRotation().getRadians(),
+        timestamp, stdDevXY, stdDevTheta);
+  }
+
+  /** Same as {@link #addVisionMeasurement(Pose2d, double, double, double)}, without making a Pose2d. */
+  public void addVisionMeasurement(double xMeters, double yMeters, double headingRadians, double timestamp,
+      double stdDevXY, double stdDevTheta) {
+    poseEstimator.addVisionMeasurement(timestamp, xMeters, yMeters, headingRadians, stdDevXY, stdDevTheta);
   }
 }
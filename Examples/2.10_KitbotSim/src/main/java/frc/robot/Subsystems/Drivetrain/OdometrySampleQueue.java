@@ -0,0 +1,64 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import frc.robot.Utils.SpscQueue;
+
+/**
+ * A fixed size queue of timestamped wheel positions that is shared between the odometry thread
+ * (which writes samples) and the main robot loop (which reads them).
+ *
+ * <p>This only works with exactly one writer thread and one reader thread. In exchange it never
+ * takes a lock and never allocates after it is constructed, so the odometry thread can't stall the
+ * main loop and the main loop can't stall the odometry thread. See {@link SpscQueue}.
+ */
+public class OdometrySampleQueue extends SpscQueue {
+    // Samples are stored in parallel arrays instead of an array of objects so we don't make garbage
+    private final double[] timestamps;
+    private final double[] leftPositions;
+    private final double[] rightPositions;
+
+    public OdometrySampleQueue(int capacity) {
+        super(capacity);
+        timestamps = new double[capacity];
+        leftPositions = new double[capacity];
+        rightPositions = new double[capacity];
+    }
+
+    /**
+     * Adds a sample to the queue. Only call this from the writer thread.
+     *
+     * @return false if the queue was full and the sample was dropped
+     */
+    public boolean offer(double timestamp, double leftPosition, double rightPosition) {
+        int index = startOffer();
+        if (index < 0) {
+            return false;
+        }
+        timestamps[index] = timestamp;
+        leftPositions[index] = leftPosition;
+        rightPositions[index] = rightPosition;
+        finishOffer();
+        return true;
+    }
+
+    /**
+     * Copies queued samples into the given arrays and removes them from the queue. Only call this
+     * from the reader thread.
+     *
+     * @return how many samples were copied, never more than the length of the arrays
+     */
+    public int drain(double[] timestamps, double[] leftPositions, double[] rightPositions) {
+        int count = startDrain(timestamps.length);
+        for (int i = 0; i < count; i++) {
+            int index = drainSlot(i);
+            timestamps[i] = this.timestamps[index];
+            leftPositions[i] = this.leftPositions[index];
+            rightPositions[i] = this.rightPositions[index];
+        }
+        finishDrain(count);
+        return count;
+    }
+}
@@ -0,0 +1,78 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusSignal;
+
+import edu.wpi.first.units.measure.Angle;
+import edu.wpi.first.units.measure.AngularVelocity;
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * Reads the drivetrain encoders much faster than the 50hz main loop.
+ *
+ * <p>If we only update odometry every 20ms, a fast turn can rotate the robot quite a bit between
+ * updates and our pose estimate "smears". This thread waits for each new sample from the Talons and
+ * puts it in a queue, then {@link DrivetrainSubsystem#periodic()} integrates every sample in order.
+ * Each sample is stamped with when the Talons measured it, not when this thread got around to it.
+ *
+ * <p>Refreshing a status signal writes into it, so the signals passed in have to belong to this
+ * thread alone. Pass clones, not the ones the main loop refreshes and reads.
+ */
+public class OdometryThread extends Thread {
+    public static final double FREQUENCY_HZ = 250.0;
+
+    private final OdometrySampleQueue queue;
+
+    private final StatusSignal<Angle> leftPosition;
+    private final StatusSignal<Angle> rightPosition;
+    private final StatusSignal<AngularVelocity> leftVelocity;
+    private final StatusSignal<AngularVelocity> rightVelocity;
+    private final BaseStatusSignal[] signals;
+
+    public OdometryThread(
+            OdometrySampleQueue queue,
+            StatusSignal<Angle> leftPosition,
+            StatusSignal<Angle> rightPosition,
+            StatusSignal<AngularVelocity> leftVelocity,
+            StatusSignal<AngularVelocity> rightVelocity) {
+        this.queue = queue;
+        this.leftPosition = leftPosition;
+        this.rightPosition = rightPosition;
+        this.leftVelocity = leftVelocity;
+        this.rightVelocity = rightVelocity;
+        signals = new BaseStatusSignal[] {leftPosition, rightPosition, leftVelocity, rightVelocity};
+
+        // Daemon threads don't keep the program alive when the robot code exits
+        setName("DrivetrainOdometry");
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        while (!isInterrupted()) {
+            // Sleeps until every signal has a new frame, so we wake up right as the data comes in
+            // Waiting two periods gives a late frame some room before we give up on it
+            if (!BaseStatusSignal.waitForAll(2.0 / FREQUENCY_HZ, signals).isOK()) {
+                // A Talon didn't answer in time, CanSignalMonitor reports that, so just skip this sample
+                continue;
+            }
+
+            // Each signal knows how long ago its CAN frame arrived, so the sample is stamped with when
+            // the newer of the two sides was measured. The kitbot is on the roboRIO CAN bus, which can't
+            // line up frames from different devices the way a CANivore can, so the older side is pushed
+            // forward to that same moment using its velocity
+            // The Talons' SensorToMechanismRatio makes each mechanism rotation a meter, so these are meters
+            double leftLatency = leftPosition.getTimestamp().getLatency();
+            double rightLatency = rightPosition.getTimestamp().getLatency();
+            double sampleLatency = Math.min(leftLatency, rightLatency);
+            queue.offer(
+                RobotController.getFPGATime() / 1e6 - sampleLatency,
+                leftPosition.getValueAsDouble() + leftVelocity.getValueAsDouble() * (leftLatency - sampleLatency),
+                rightPosition.getValueAsDouble() + rightVelocity.getValueAsDouble() * (rightLatency - sampleLatency));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+/**
+ * Remembers where we were over the last couple of seconds, along with the wheel positions at each
+ * point, so we can look back in time when a late vision measurement shows up.
+ *
+ * <p>Entries are kept in parallel arrays in a ring, so adding one overwrites the oldest and never
+ * allocates. Entries must be added in time order, which lets {@link #floorIndex(double)} binary
+ * search for a timestamp.
+ *
+ * <p>Indexes are logical: 0 is the oldest entry and {@code size() - 1} is the newest.
+ */
+public class PoseHistoryBuffer {
+    private final int capacity;
+    private final double[] timestamps;
+    private final double[] xMeters;
+    private final double[] yMeters;
+    private final double[] headingRadians;
+    private final double[] leftMeters;
+    private final double[] rightMeters;
+
+    // Where the oldest entry is in the arrays
+    private int start = 0;
+    private int size = 0;
+
+    public PoseHistoryBuffer(int capacity) {
+        this.capacity = capacity;
+        timestamps = new double[capacity];
+        xMeters = new double[capacity];
+        yMeters = new double[capacity];
+        headingRadians = new double[capacity];
+        leftMeters = new double[capacity];
+        rightMeters = new double[capacity];
+    }
+
+    /** Adds the newest entry, dropping the oldest if we're full. */
+    public void add(double timestamp, double x, double y, double heading, double left, double right) {
+        int slot;
+        if (size < capacity) {
+            slot = physical(size);
+            size++;
+        } else {
+            slot = start;
+            start = (start + 1) % capacity;
+        }
+        timestamps[slot] = timestamp;
+        xMeters[slot] = x;
+        yMeters[slot] = y;
+        headingRadians[slot] = heading;
+        leftMeters[slot] = left;
+        rightMeters[slot] = right;
+    }
+
+    /** Replaces the pose at an index, used when replaying odometry after a correction. */
+    public void setPose(int index, double x, double y, double heading) {
+        int slot = physical(index);
+        xMeters[slot] = x;
+        yMeters[slot] = y;
+        headingRadians[slot] = heading;
+    }
+
+    /**
+     * Finds the newest entry at or before a time with a binary search.
+     *
+     * @return the index, or -1 if the time is older than everything we have
+     */
+    public int floorIndex(double timestamp) {
+        int low = 0;
+        int high = size - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[physical(mid)] <= timestamp) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fills {@code out} with {x, y, heading, left, right} at any time by interpolating between the
+     * entries on either side of it. Times outside the buffer use the closest entry.
+     *
+     * @return false if the buffer is empty
+     */
+    public boolean sample(double timestamp, double[] out) {
+        if (size == 0) {
+            return false;
+        }
+        int before = Math.max(floorIndex(timestamp), 0);
+        int after = Math.min(before + 1, size - 1);
+        int a = physical(before);
+        int b = physical(after);
+        double span = timestamps[b] - timestamps[a];
+        double t = span > 0.0 ? Math.min(Math.max((timestamp - timestamps[a]) / span, 0.0), 1.0) : 0.0;
+        // Heading comes from the wheels so it never wraps, plain interpolation is fine
+        out[0] = xMeters[a] + (xMeters[b] - xMeters[a]) * t;
+        out[1] = yMeters[a] + (yMeters[b] - yMeters[a]) * t;
+        out[2] = headingRadians[a] + (headingRadians[b] - headingRadians[a]) * t;
+        out[3] = leftMeters[a] + (leftMeters[b] - leftMeters[a]) * t;
+        out[4] = rightMeters[a] + (rightMeters[b] - rightMeters[a]) * t;
+        return true;
+    }
+
+    /** Forgets every entry. */
+    public void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getTimestamp(int index) {
+        return timestamps[physical(index)];
+    }
+
+    public double getX(int index) {
+        return xMeters[physical(index)];
+    }
+
+    public double getY(int index) {
+        return yMeters[physical(index)];
+    }
+
+    public double getHeading(int index) {
+        return headingRadians[physical(index)];
+    }
+
+    public double getLeft(int index) {
+        return leftMeters[physical(index)];
+    }
+
+    public double getRight(int index) {
+        return rightMeters[physical(index)];
+    }
+
+    private int physical(int index) {
+        return (start + index) % capacity;
+    }
+}
@@ -0,0 +1,296 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+import frc.robot.Utils.PoseTrail;
+
+/**
+ * Measures what the {@link PoseTrail} saves over sending raw poses to a dashboard that draws the path.
+ *
+ * <p>Every {@code Drivetrain Pose} in each log goes through the same trail the robot uses, and it's
+ * compared against the two ways a dashboard could get the path without one:
+ *
+ * <ul>
+ *   <li>streaming every pose as it's logged, which only works if the dashboard never misses one, and
+ *       can't show anything from before it connected
+ *   <li>sending the whole pose history every period, like the trail, which any dashboard can draw
+ *       straight away
+ * </ul>
+ *
+ * <p>The trail itself is measured both ways too: sending the whole trail every period, and what
+ * {@link PoseTrail#publish} really sends, which is mostly just the new corners.
+ *
+ * <p>Bytes are just the data, 24 per Pose2d and 12 per trail point, NetworkTables adds a little on
+ * top of each update. CPU is the time spent adding poses and packing what gets sent. The error is how
+ * far the furthest raw pose is from the trail we end up with.
+ *
+ * <p>Run with {@code ./gradlew poseTrailReport -PlogDir=<folder>}. With no logs, it makes up a few
+ * matches of driving around.
+ */
+public final class PoseTrailReport {
+    private static final String POSE_KEY = "Drivetrain Pose";
+    private static final int POSE2D_BYTES = 24;
+    private static final int SYNTHETIC_MATCHES = 8;
+
+    private PoseTrailReport() {}
+
+    /** One log's poses, in order, with the FPGA time each was logged. */
+    record PoseLog(String name, double[] timestamps, double[] xs, double[] ys, double[] headings) {}
+
+    /** How one log did. */
+    record LogResult(String name, int poses, double seconds, int trailPoints, double toleranceMeters,
+        long rawStreamBytes, long rawHistoryBytes, long trailBytes, long publishedBytes, double rawHistoryCpuMs,
+        double trailCpuMs, double publishCpuMs, double maxErrorMeters) {}
+
+    /** Arguments: the log folder. */
+    public static void main(String... args) throws IOException {
+        Path logDir = Path.of(args.length > 0 ? args[0] : "logs");
+        List<Path> logs = new ArrayList<>();
+        if (Files.isDirectory(logDir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(logDir, "*.wpilog")) {
+                files.forEach(logs::add);
+            }
+        }
+        logs.sort(null);
+
+        List<PoseLog> poseLogs;
+        if (logs.isEmpty()) {
+            System.out.printf("No logs in %s, making up %d matches%n", logDir, SYNTHETIC_MATCHES);
+            poseLogs = syntheticMatches(SYNTHETIC_MATCHES);
+        } else {
+            poseLogs = logs.parallelStream().map(log -> {
+                try {
+                    return readPoses(log);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).filter(poses -> poses.xs().length > 0).toList();
+        }
+
+        // Run each log twice and keep the second, so the JIT has warmed up for the CPU times
+        for (PoseLog poses : poseLogs) {
+            measure(poses);
+        }
+        long poses = 0;
+        double seconds = 0.0;
+        long rawStreamBytes = 0;
+        long rawHistoryBytes = 0;
+        long trailBytes = 0;
+        long publishedBytes = 0;
+        double rawHistoryCpuMs = 0.0;
+        double trailCpuMs = 0.0;
+        double publishCpuMs = 0.0;
+        double maxError = 0.0;
+        for (PoseLog log : poseLogs) {
+            LogResult result = measure(log);
+            System.out.printf("%s: %d poses over %.0f s -> %d trail points at %.2f m, max error %.3f m%n",
+                result.name(), result.poses(), result.seconds(), result.trailPoints(), result.toleranceMeters(),
+                result.maxErrorMeters());
+            poses += result.poses();
+            seconds += result.seconds();
+            rawStreamBytes += result.rawStreamBytes();
+            rawHistoryBytes += result.rawHistoryBytes();
+            trailBytes += result.trailBytes();
+            publishedBytes += result.publishedBytes();
+            rawHistoryCpuMs += result.rawHistoryCpuMs();
+            trailCpuMs += result.trailCpuMs();
+            publishCpuMs += result.publishCpuMs();
+            maxError = Math.max(maxError, result.maxErrorMeters());
+        }
+        if (seconds <= 0.0) {
+            System.out.println("No poses to measure");
+            return;
+        }
+
+        System.out.printf("%d logs, %d poses, %.0f s of driving, worst trail error %.3f m%n",
+            poseLogs.size(), poses, seconds, maxError);
+        System.out.printf("  %-34s %10s %14s%n", "", "bytes/s", "CPU us/loop");
+        System.out.printf("  %-34s %10.0f %14s%n", "Stream every pose", rawStreamBytes / seconds, "-");
+        System.out.printf("  %-34s %10.0f %14.2f%n", "Whole pose history every period",
+            rawHistoryBytes / seconds, rawHistoryCpuMs * 1000.0 / poses);
+        System.out.printf("  %-34s %10.0f %14.2f%n", "Whole pose trail every period",
+            trailBytes / seconds, trailCpuMs * 1000.0 / poses);
+        System.out.printf("  %-34s %10.0f %14.2f%n", "Pose trail changes (what we send)",
+            publishedBytes / seconds, publishCpuMs * 1000.0 / poses);
+    }
+
+    /**
+     * Runs one log's poses through a trail, timing it against packing up the raw history. The Logger
+     * isn't running here, so {@link PoseTrail#publish} does everything but hand the arrays over.
+     */
+    static LogResult measure(PoseLog log) {
+        PoseTrail trail = DrivetrainSubsystem.createPoseTrail();
+        int poses = log.xs().length;
+        float[] packed = new float[DrivetrainSubsystem.TRAIL_CAPACITY * PoseTrail.FLOATS_PER_POINT + PoseTrail.FLOATS_PER_POINT];
+        double[] history = new double[poses * 3];
+
+        long trailBytes = 0;
+        long rawHistoryBytes = 0;
+        long addNanos = 0;
+        long packNanos = 0;
+        long publishNanos = 0;
+        long rawHistoryNanos = 0;
+        double lastPublish = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < poses; i++) {
+            double time = log.timestamps()[i];
+            long start = System.nanoTime();
+            trail.add(log.xs()[i], log.ys()[i], log.headings()[i]);
+            addNanos += System.nanoTime() - start;
+
+            // Called every loop like the robot does, it decides for itself when a period is up
+            start = System.nanoTime();
+            trail.publish(time);
+            publishNanos += System.nanoTime() - start;
+
+            if (time - lastPublish < DrivetrainSubsystem.TRAIL_PUBLISH_PERIOD_SECONDS) {
+                continue;
+            }
+            lastPublish = time;
+            // The trail only sends when it changed, but on a moving robot that's nearly every period,
+            // so this counts every one to be fair to the raw history
+            start = System.nanoTime();
+            int floats = trail.pack(packed);
+            packNanos += System.nanoTime() - start;
+            trailBytes += floats * 4L;
+
+            start = System.nanoTime();
+            for (int p = 0; p <= i; p++) {
+                history[p * 3] = log.xs()[p];
+                history[p * 3 + 1] = log.ys()[p];
+                history[p * 3 + 2] = log.headings()[p];
+            }
+            rawHistoryNanos += System.nanoTime() - start;
+            rawHistoryBytes += (i + 1L) * POSE2D_BYTES;
+        }
+
+        int floats = trail.pack(packed);
+        double maxError = 0.0;
+        for (int i = 0; i < poses; i++) {
+            maxError = Math.max(maxError, distanceToTrail(log.xs()[i], log.ys()[i], packed, floats));
+        }
+        double seconds = poses > 1 ? log.timestamps()[poses - 1] - log.timestamps()[0] : 0.0;
+        return new LogResult(log.name(), poses, seconds, floats / PoseTrail.FLOATS_PER_POINT,
+            trail.getToleranceMeters(), (long) poses * POSE2D_BYTES, rawHistoryBytes, trailBytes,
+            trail.getPublishedBytes(), rawHistoryNanos / 1e6, (addNanos + packNanos) / 1e6,
+            (addNanos + publishNanos) / 1e6, maxError);
+    }
+
+    private static double distanceToTrail(double x, double y, float[] packed, int floats) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i + PoseTrail.FLOATS_PER_POINT < floats; i += PoseTrail.FLOATS_PER_POINT) {
+            double ax = packed[i];
+            double ay = packed[i + 1];
+            double dx = packed[i + PoseTrail.FLOATS_PER_POINT] - ax;
+            double dy = packed[i + PoseTrail.FLOATS_PER_POINT + 1] - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0.0 ? 0.0 : Math.max(0.0, Math.min(1.0, ((x - ax) * dx + (y - ay) * dy) / lengthSquared));
+            best = Math.min(best, Math.hypot(x - (ax + t * dx), y - (ay + t * dy)));
+        }
+        if (floats == PoseTrail.FLOATS_PER_POINT) {
+            best = Math.hypot(x - packed[0], y - packed[1]);
+        }
+        return best;
+    }
+
+    /** Reads every {@code Drivetrain Pose} the robot logged, or the replay logged. */
+    static PoseLog readPoses(Path log) throws IOException {
+        DataLogReader reader = new DataLogReader(log.toString());
+        if (!reader.isValid()) {
+            throw new IOException(log + " isn't a wpilog file");
+        }
+        HashMap<Integer, String> entries = new HashMap<>();
+        ArrayList<double[]> poses = new ArrayList<>();
+        for (DataLogRecord record : reader) {
+            if (record.isStart()) {
+                var start = record.getStartData();
+                if (start.name.equals("/RealOutputs/" + POSE_KEY) || start.name.equals("/ReplayOutputs/" + POSE_KEY)) {
+                    entries.put(start.entry, start.name);
+                }
+                continue;
+            }
+            if (record.isControl() || !entries.containsKey(record.getEntry())) {
+                continue;
+            }
+            // A Pose2d struct is the x and y of its translation, then its rotation in radians
+            ByteBuffer pose = ByteBuffer.wrap(record.getRaw()).order(ByteOrder.LITTLE_ENDIAN);
+            poses.add(new double[] {record.getTimestamp() / 1e6, pose.getDouble(), pose.getDouble(), pose.getDouble()});
+        }
+        double[] timestamps = new double[poses.size()];
+        double[] xs = new double[poses.size()];
+        double[] ys = new double[poses.size()];
+        double[] headings = new double[poses.size()];
+        for (int i = 0; i < poses.size(); i++) {
+            timestamps[i] = poses.get(i)[0];
+            xs[i] = poses.get(i)[1];
+            ys[i] = poses.get(i)[2];
+            headings[i] = poses.get(i)[3];
+        }
+        return new PoseLog(log.getFileName().toString(), timestamps, xs, ys, headings);
+    }
+
+    /**
+     * Makes up matches of a robot driving between random spots on the field, turning toward each one
+     * as it goes, with a stop at each to score. Logged every loop like the real pose.
+     */
+    static List<PoseLog> syntheticMatches(int count) {
+        ArrayList<PoseLog> matches = new ArrayList<>();
+        // Seeds next to each other give almost the same first numbers, so each match gets a seed from here
+        Random seeds = new Random(0);
+        for (int match = 0; match < count; match++) {
+            Random random = new Random(seeds.nextLong());
+            int loops = (int) (150.0 / 0.020);
+            double[] timestamps = new double[loops];
+            double[] xs = new double[loops];
+            double[] ys = new double[loops];
+            double[] headings = new double[loops];
+            double x = 1.0;
+            double y = 4.0;
+            double heading = 0.0;
+            double targetX = x;
+            double targetY = y;
+            double waitSeconds = 0.0;
+            for (int i = 0; i < loops; i++) {
+                double distance = Math.hypot(targetX - x, targetY - y);
+                if (distance < 0.1) {
+                    if (waitSeconds <= 0.0) {
+                        targetX = 1.0 + random.nextDouble() * 14.5;
+                        targetY = 0.5 + random.nextDouble() * 7.0;
+                        waitSeconds = 1.0 + random.nextDouble() * 2.0;
+                    }
+                    waitSeconds -= 0.020;
+                } else {
+                    // Turn toward the target at up to 3 radians per second, and slow down for sharp turns
+                    double error = Math.atan2(targetY - y, targetX - x) - heading;
+                    error = Math.atan2(Math.sin(error), Math.cos(error));
+                    heading += Math.max(-0.06, Math.min(0.06, error));
+                    double speed = Math.min(3.0, distance * 2.0) * Math.max(0.2, Math.cos(error))
+                        + random.nextGaussian() * 0.02;
+                    x += speed * Math.cos(heading) * 0.020;
+                    y += speed * Math.sin(heading) * 0.020;
+                }
+                timestamps[i] = i * 0.020;
+                xs[i] = x;
+                ys[i] = y;
+                headings[i] = heading;
+            }
+            matches.add(new PoseLog(String.format("synthetic_%02d", match), timestamps, xs, ys, headings));
+        }
+        return matches;
+    }
+}
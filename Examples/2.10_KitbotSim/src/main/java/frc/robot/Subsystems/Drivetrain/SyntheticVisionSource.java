@@ -0,0 +1,150 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import java.util.Random;
+
+import edu.wpi.first.math.geometry.Pose2d;
+
+/**
+ * A pretend camera for testing the pose estimator in sim.
+ *
+ * <p>It takes a noisy snapshot of the true pose at a fixed rate, holds onto it for a random
+ * latency, then hands it to the estimator with the time the snapshot was taken, just like a real
+ * camera pipeline would. Since latencies vary, frames can show up in bursts and out of order.
+ *
+ * <p>All the timing comes from the timestamps it's given, never the clock, so it runs the same
+ * however fast the sim is stepped. {@link #update} does everything for a camera that sees the whole
+ * field. A camera with its own idea of what it can see, like {@code SimulatedCameraThread}, uses
+ * {@link #takeFrame}, {@link #capture} and {@link #deliver} instead, and adds its own noise.
+ *
+ * <p>Every source has its own random numbers, so many can run in parallel (like in {@link
+ * DrivetrainMonteCarlo}) and a given seed always gives the same frames.
+ */
+public class SyntheticVisionSource {
+    private static final int MAX_IN_FLIGHT = 32;
+
+    /** Where frames go once their latency is up. */
+    public interface FrameConsumer {
+        void accept(double captureTime, double xMeters, double yMeters, double headingRadians, int tagCount,
+            double averageTagDistanceMeters, double ambiguity);
+    }
+
+    private final double periodSeconds;
+    private final double minLatencySeconds;
+    private final double maxLatencySeconds;
+    private final double stdDevXY;
+    private final double stdDevTheta;
+    private final Random random;
+
+    // Frames that have been taken but haven't "arrived" yet
+    private final double[] captureTimes = new double[MAX_IN_FLIGHT];
+    private final double[] arrivalTimes = new double[MAX_IN_FLIGHT];
+    private final double[] xMeters = new double[MAX_IN_FLIGHT];
+    private final double[] yMeters = new double[MAX_IN_FLIGHT];
+    private final double[] headingRadians = new double[MAX_IN_FLIGHT];
+    private final int[] tagCounts = new int[MAX_IN_FLIGHT];
+    private final double[] averageTagDistances = new double[MAX_IN_FLIGHT];
+    private final double[] ambiguities = new double[MAX_IN_FLIGHT];
+    private int inFlight = 0;
+
+    private double nextCaptureTime = 0.0;
+
+    // The estimator update() is handing frames to, made into a consumer once so update() doesn't make garbage
+    private DifferentialPoseEstimator estimator;
+    private final FrameConsumer toEstimator;
+
+    /**
+     * @param periodSeconds time between frames
+     * @param minLatencySeconds shortest time from taking a frame to it arriving
+     * @param maxLatencySeconds longest time from taking a frame to it arriving
+     * @param stdDevXY noise {@link #update} adds to x and y, in meters
+     * @param stdDevTheta noise {@link #update} adds to the heading, in radians
+     */
+    public SyntheticVisionSource(double periodSeconds, double minLatencySeconds, double maxLatencySeconds,
+            double stdDevXY, double stdDevTheta, long seed) {
+        this.periodSeconds = periodSeconds;
+        this.minLatencySeconds = minLatencySeconds;
+        this.maxLatencySeconds = Math.max(minLatencySeconds, maxLatencySeconds);
+        this.stdDevXY = stdDevXY;
+        this.stdDevTheta = stdDevTheta;
+        this.random = new Random(seed);
+        toEstimator = (captureTime, x, y, heading, tagCount, distance, ambiguity) ->
+            estimator.addVisionMeasurement(captureTime, x, y, heading, stdDevXY, stdDevTheta);
+    }
+
+    /** For a camera that adds its own noise before {@link #capture}, so only the timing is used. */
+    public SyntheticVisionSource(double periodSeconds, double minLatencySeconds, double maxLatencySeconds, long seed) {
+        this(periodSeconds, minLatencySeconds, maxLatencySeconds, 0.0, 0.0, seed);
+    }
+
+    /**
+     * Takes a frame if it's time, and hands every frame that has arrived by now to the estimator.
+     * Call this once per loop with the true pose from the physics sim.
+     */
+    public void update(double timestamp, Pose2d truePose, DifferentialPoseEstimator estimator) {
+        if (takeFrame(timestamp)) {
+            capture(timestamp,
+                truePose.getX() + random.nextGaussian() * stdDevXY,
+                truePose.getY() + random.nextGaussian() * stdDevXY,
+                truePose.getRotation().getRadians() + random.nextGaussian() * stdDevTheta,
+                1, 0.0, 0.0);
+        }
+        this.estimator = estimator;
+        deliver(timestamp, toEstimator);
+    }
+
+    /**
+     * Whether it's time to take a frame. When it is, the next one is a period after this, so call
+     * {@link #capture} now or this frame is skipped.
+     */
+    public boolean takeFrame(double timestamp) {
+        if (timestamp < nextCaptureTime || inFlight == MAX_IN_FLIGHT) {
+            return false;
+        }
+        nextCaptureTime = timestamp + periodSeconds;
+        return true;
+    }
+
+    /** Holds what a frame taken at {@code timestamp} saw for a random latency, see {@link #deliver}. */
+    public void capture(double timestamp, double x, double y, double heading, int tagCount,
+            double averageTagDistance, double ambiguity) {
+        if (inFlight == MAX_IN_FLIGHT) {
+            return;
+        }
+        captureTimes[inFlight] = timestamp;
+        arrivalTimes[inFlight] = timestamp + minLatencySeconds + random.nextDouble() * (maxLatencySeconds - minLatencySeconds);
+        xMeters[inFlight] = x;
+        yMeters[inFlight] = y;
+        headingRadians[inFlight] = heading;
+        tagCounts[inFlight] = tagCount;
+        averageTagDistances[inFlight] = averageTagDistance;
+        ambiguities[inFlight] = ambiguity;
+        inFlight++;
+    }
+
+    /** Hands every frame that has arrived by {@code timestamp} to the consumer, in the order they were taken. */
+    public void deliver(double timestamp, FrameConsumer consumer) {
+        // Deliver anything that has arrived, and shuffle the rest down
+        int kept = 0;
+        for (int i = 0; i < inFlight; i++) {
+            if (arrivalTimes[i] <= timestamp) {
+                consumer.accept(captureTimes[i], xMeters[i], yMeters[i], headingRadians[i], tagCounts[i],
+                    averageTagDistances[i], ambiguities[i]);
+            } else {
+                captureTimes[kept] = captureTimes[i];
+                arrivalTimes[kept] = arrivalTimes[i];
+                xMeters[kept] = xMeters[i];
+                yMeters[kept] = yMeters[i];
+                headingRadians[kept] = headingRadians[i];
+                tagCounts[kept] = tagCounts[i];
+                averageTagDistances[kept] = averageTagDistances[i];
+                ambiguities[kept] = ambiguities[i];
+                kept++;
+            }
+        }
+        inFlight = kept;
+    }
+}
@@ -0,0 +1,70 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.system.plant.DCMotor;
+
+/**
+ * Models the velocity loop a TalonFX runs on the motor controller itself.
+ *
+ * <p>The Talon runs its PID loop every millisecond, no matter how late the roboRIO's loop is. This
+ * class does the same math in mechanism rotations per second, after the Talon's
+ * SensorToMechanismRatio, with the same kS/kV/kP gains we send to the Talon, so sim and the real
+ * robot can share one set of gains. It only models the parts we use,
+ * no kI, kD or kA.
+ *
+ * <p>In {@code VelocityVoltage} mode the output is volts. In {@code VelocityTorqueCurrentFOC} mode
+ * the output is amps, which we turn into the volts the motor would need to make that current at its
+ * current speed so the physics model (which takes volts) can use it.
+ */
+public class TalonVelocityLoopSim {
+    // How often the Talon updates its output
+    public static final double PERIOD_SECONDS = 0.001;
+
+    private final double kS;
+    private final double kV;
+    private final double kP;
+    private final boolean torqueCurrent;
+    private final DCMotor motor;
+    private final double sensorToMechanismRatio;
+
+    /**
+     * @param kS output to overcome friction, in the direction of the setpoint
+     * @param kV output per mechanism rotation per second of setpoint
+     * @param kP output per mechanism rotation per second of error
+     * @param torqueCurrent true if the gains are in amps for VelocityTorqueCurrentFOC, false for
+     *     volts
+     * @param motor the motors on this side, used to turn amps into volts
+     * @param sensorToMechanismRatio motor rotations per mechanism rotation, the same as the Talon's config
+     */
+    public TalonVelocityLoopSim(double kS, double kV, double kP, boolean torqueCurrent, DCMotor motor,
+            double sensorToMechanismRatio) {
+        this.kS = kS;
+        this.kV = kV;
+        this.kP = kP;
+        this.torqueCurrent = torqueCurrent;
+        this.motor = motor;
+        this.sensorToMechanismRatio = sensorToMechanismRatio;
+    }
+
+    /**
+     * Runs one controller update.
+     *
+     * @return the volts to apply to the motor, limited to what the battery can give
+     */
+    public double calculate(double setpointRotationsPerSecond, double measuredRotationsPerSecond, double supplyVolts) {
+        double output = Math.signum(setpointRotationsPerSecond) * kS
+            + kV * setpointRotationsPerSecond
+            + kP * (setpointRotationsPerSecond - measuredRotationsPerSecond);
+        double volts = output;
+        if (torqueCurrent) {
+            // V = IR + back EMF, for the amps the Talon is asking for at the speed we're going
+            double motorRadiansPerSecond = measuredRotationsPerSecond * sensorToMechanismRatio * 2.0 * Math.PI;
+            volts = motor.getVoltage(motor.getTorque(output), motorRadiansPerSecond);
+        }
+        return MathUtil.clamp(volts, -supplyVolts, supplyVolts);
+    }
+}
@@ -0,0 +1,20 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import org.littletonrobotics.junction.AutoLog;
+
+public interface GyroIO {
+    @AutoLog
+    public static class GyroIOInputs {
+        // False when there's no gyro, like in sim, then the heading comes from the wheels instead
+        public boolean connected = false;
+        // Counterclockwise positive, and keeps counting past a full turn
+        public double yawRadians = 0.0;
+        public double yawVelocityRadiansPerSecond = 0.0;
+    }
+
+    public void updateInputs(GyroIOInputs inputs);
+}
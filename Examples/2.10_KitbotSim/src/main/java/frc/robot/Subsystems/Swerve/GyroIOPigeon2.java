@@ -0,0 +1,47 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusSignal;
+import com.ctre.phoenix6.configs.Pigeon2Configuration;
+import com.ctre.phoenix6.hardware.Pigeon2;
+
+import edu.wpi.first.units.measure.Angle;
+import edu.wpi.first.units.measure.AngularVelocity;
+import frc.robot.Utils.CanSignalMonitor;
+import frc.robot.Utils.DeviceInitializer;
+
+public class GyroIOPigeon2 implements GyroIO {
+    Pigeon2 pigeon = new Pigeon2(SwerveSubsystem.PIGEON_ID);
+
+    private final StatusSignal<Angle> yaw = pigeon.getYaw();
+    private final StatusSignal<AngularVelocity> yawVelocity = pigeon.getAngularVelocityZWorld();
+
+    private final CanSignalMonitor canMonitor = new CanSignalMonitor();
+    private final CanSignalMonitor.Device health = canMonitor.addDevice("Swerve/Pigeon");
+
+    /** @param initializer shared with the modules, see {@link ModuleIOReal}. {@link SwerveSubsystem} runs it */
+    public GyroIOPigeon2(DeviceInitializer initializer) {
+        initializer.addDevice("Gyro/Pigeon", pigeon)
+            .step(DeviceInitializer.Phase.CONFIG, timeout -> pigeon.getConfigurator().apply(new Pigeon2Configuration(), timeout))
+            // Odometry reads the yaw every loop, so it's sent twice as often to always be fresh
+            .signalFrequency(SwerveSubsystem.ODOMETRY_SIGNAL_FREQUENCY_HZ, yaw)
+            .signalFrequency(50.0, yawVelocity)
+            .optimizeBusUtilization();
+
+        health.add(SwerveSubsystem.ODOMETRY_SIGNAL_FREQUENCY_HZ, yaw).add(50.0, yawVelocity);
+    }
+
+    @Override
+    public void updateInputs(GyroIOInputs inputs) {
+        BaseStatusSignal.refreshAll(yaw, yawVelocity);
+        canMonitor.update();
+
+        inputs.connected = health.isConnected();
+        inputs.yawRadians = Math.toRadians(yaw.getValueAsDouble());
+        inputs.yawVelocityRadiansPerSecond = Math.toRadians(yawVelocity.getValueAsDouble());
+    }
+}
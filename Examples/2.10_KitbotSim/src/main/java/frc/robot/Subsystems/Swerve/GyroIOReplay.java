@@ -0,0 +1,16 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+/**
+ * The gyro IO we use when replaying a log, where the inputs come from the log.
+ *
+ * <p>Sim uses it too. It leaves {@code connected} false, so the heading comes from the module
+ * positions, which in sim are perfect anyway.
+ */
+public class GyroIOReplay implements GyroIO {
+    @Override
+    public void updateInputs(GyroIOInputs inputs) {}
+}
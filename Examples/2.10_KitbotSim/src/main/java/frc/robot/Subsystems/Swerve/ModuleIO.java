@@ -0,0 +1,40 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import org.littletonrobotics.junction.AutoLog;
+
+/** One swerve module: a drive motor, a turn motor, and an absolute encoder on the turn axle. */
+public interface ModuleIO {
+    @AutoLog
+    public static class ModuleIOInputs {
+        // Whether each device answered, see CanSignalMonitor
+        // Don't trust the values for a device that's disconnected
+        public boolean driveConnected = true;
+        public boolean turnConnected = true;
+        public boolean turnEncoderConnected = true;
+
+        public double drivePositionMeters = 0.0;
+        public double driveVelocityMetersPerSecond = 0.0;
+        public double driveAppliedVolts = 0.0;
+        public double driveCurrentAmps = 0.0;
+
+        // Where the wheel is pointing, 0 is forward and positive is counterclockwise
+        // The absolute one comes straight from the CANcoder, so it's right even just after boot
+        public double turnAbsolutePositionRadians = 0.0;
+        public double turnPositionRadians = 0.0;
+        public double turnVelocityRadiansPerSecond = 0.0;
+        public double turnAppliedVolts = 0.0;
+        public double turnCurrentAmps = 0.0;
+    }
+
+    public void updateInputs(ModuleIOInputs inputs);
+
+    /** Asks the drive motor to hold a wheel speed, using the velocity loop that runs on the Talon. */
+    public void setDriveVelocity(double metersPerSecond);
+
+    /** Asks the turn motor to point the wheel, using the position loop that runs on the Talon. */
+    public void setTurnPosition(double radians);
+}
@@ -0,0 +1,184 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusSignal;
+import com.ctre.phoenix6.configs.CANcoderConfiguration;
+import com.ctre.phoenix6.configs.TalonFXConfiguration;
+import com.ctre.phoenix6.controls.PositionVoltage;
+import com.ctre.phoenix6.controls.VelocityVoltage;
+import com.ctre.phoenix6.hardware.CANcoder;
+import com.ctre.phoenix6.hardware.TalonFX;
+import com.ctre.phoenix6.signals.FeedbackSensorSourceValue;
+import com.ctre.phoenix6.signals.InvertedValue;
+import com.ctre.phoenix6.signals.NeutralModeValue;
+import com.ctre.phoenix6.signals.SensorDirectionValue;
+
+import edu.wpi.first.units.measure.Angle;
+import edu.wpi.first.units.measure.AngularVelocity;
+import edu.wpi.first.units.measure.Current;
+import edu.wpi.first.units.measure.Voltage;
+import frc.robot.Utils.CanSignalMonitor;
+import frc.robot.Utils.ControlRequestCache;
+import frc.robot.Utils.DeviceInitializer;
+
+/**
+ * A module with a TalonFX driving the wheel, a TalonFX steering it, and a CANcoder on the steering
+ * axle, like an MK4i.
+ *
+ * <p>Both control loops run on the Talons at 1khz. The drive Talon has a SensorToMechanismRatio so it
+ * works in wheel rotations, and the turn Talon uses the CANcoder as its sensor, so it knows where the
+ * wheel points as soon as it boots and we never have to zero it.
+ */
+public class ModuleIOReal implements ModuleIO {
+    TalonFX driveTalon;
+    TalonFX turnTalon;
+    CANcoder turnEncoder;
+
+    // Update frequency 0 means Phoenix only sends these when we call setControl, the caches below
+    // decide how often that is
+    VelocityVoltage driveVelocity = new VelocityVoltage(0).withSlot(0).withUpdateFreqHz(0);
+    PositionVoltage turnPosition = new PositionVoltage(0).withSlot(0).withUpdateFreqHz(0);
+
+    // Each Talon only ever gets one kind of request, but the cache wants to know which
+    static final int VELOCITY_MODE = 0;
+    static final int POSITION_MODE = 1;
+    private final ControlRequestCache driveControlCache;
+    private final ControlRequestCache turnControlCache;
+
+    private final StatusSignal<Angle> drivePositionRotations;
+    private final StatusSignal<AngularVelocity> driveVelocityRPS;
+    private final StatusSignal<Voltage> driveAppliedVoltage;
+    private final StatusSignal<Current> driveSupplyCurrent;
+    private final StatusSignal<Angle> turnAbsolutePositionRotations;
+    private final StatusSignal<Angle> turnPositionRotations;
+    private final StatusSignal<AngularVelocity> turnVelocityRPS;
+    private final StatusSignal<Voltage> turnAppliedVoltage;
+    private final StatusSignal<Current> turnSupplyCurrent;
+
+    private final CanSignalMonitor canMonitor = new CanSignalMonitor();
+    private final CanSignalMonitor.Device driveHealth;
+    private final CanSignalMonitor.Device turnHealth;
+    private final CanSignalMonitor.Device encoderHealth;
+
+    /**
+     * @param module which module this is, the index into the ID lists in {@link SwerveSubsystem}
+     * @param initializer shared with the other modules and the gyro, so every device on the drive
+     *     gets set up at once. This only adds the steps, {@link SwerveSubsystem} runs it
+     */
+    public ModuleIOReal(int module, DeviceInitializer initializer) {
+        driveTalon = new TalonFX(SwerveSubsystem.DRIVE_TALON_IDS[module]);
+        turnTalon = new TalonFX(SwerveSubsystem.TURN_TALON_IDS[module]);
+        turnEncoder = new CANcoder(SwerveSubsystem.TURN_ENCODER_IDS[module]);
+
+        drivePositionRotations = driveTalon.getPosition();
+        driveVelocityRPS = driveTalon.getVelocity();
+        driveAppliedVoltage = driveTalon.getMotorVoltage();
+        driveSupplyCurrent = driveTalon.getSupplyCurrent();
+        turnAbsolutePositionRotations = turnEncoder.getAbsolutePosition();
+        turnPositionRotations = turnTalon.getPosition();
+        turnVelocityRPS = turnTalon.getVelocity();
+        turnAppliedVoltage = turnTalon.getMotorVoltage();
+        turnSupplyCurrent = turnTalon.getSupplyCurrent();
+
+        String name = SwerveSubsystem.MODULE_NAMES[module];
+        driveControlCache = new ControlRequestCache("Swerve/" + name + "/DriveTalon", 0.01);
+        turnControlCache = new ControlRequestCache("Swerve/" + name + "/TurnTalon", 0.001);
+        driveHealth = canMonitor.addDevice("Swerve/" + name + "/DriveTalon");
+        turnHealth = canMonitor.addDevice("Swerve/" + name + "/TurnTalon");
+        encoderHealth = canMonitor.addDevice("Swerve/" + name + "/TurnEncoder");
+
+        // The drive Talon works in wheel rotations instead of motor rotations
+        TalonFXConfiguration driveConfig = new TalonFXConfiguration()
+            .withSlot0(SwerveSubsystem.DRIVE_GAINS);
+        driveConfig.Feedback.SensorToMechanismRatio = SwerveSubsystem.DRIVE_GEAR_RATIO;
+        driveConfig.MotorOutput.NeutralMode = NeutralModeValue.Brake;
+
+        // The turn Talon reads the CANcoder, which is on the axle so it's already in wheel rotations
+        // FusedCANcoder would also use the motor's own encoder between CANcoder updates, but it needs a Pro license
+        TalonFXConfiguration turnConfig = new TalonFXConfiguration()
+            .withSlot0(SwerveSubsystem.TURN_GAINS);
+        turnConfig.Feedback.FeedbackRemoteSensorID = SwerveSubsystem.TURN_ENCODER_IDS[module];
+        turnConfig.Feedback.FeedbackSensorSource = FeedbackSensorSourceValue.RemoteCANcoder;
+        turnConfig.Feedback.RotorToSensorRatio = SwerveSubsystem.TURN_GEAR_RATIO;
+        // Half a turn forward and half a turn back are the same place, so always take the short way
+        turnConfig.ClosedLoopGeneral.ContinuousWrap = true;
+        // The MK4i turn motor is upside down
+        turnConfig.MotorOutput.Inverted = InvertedValue.Clockwise_Positive;
+        turnConfig.MotorOutput.NeutralMode = NeutralModeValue.Brake;
+
+        // The offset makes 0 point the wheel forward, measure it with the bevel gears all facing the same way
+        CANcoderConfiguration encoderConfig = new CANcoderConfiguration();
+        encoderConfig.MagnetSensor.MagnetOffset = SwerveSubsystem.TURN_ENCODER_OFFSETS_ROTATIONS[module];
+        encoderConfig.MagnetSensor.SensorDirection = SensorDirectionValue.CounterClockwise_Positive;
+        encoderConfig.MagnetSensor.AbsoluteSensorDiscontinuityPoint = 0.5;
+
+        initializer.addDevice(name + "/TurnEncoder", turnEncoder)
+            .step(DeviceInitializer.Phase.CONFIG, timeout -> turnEncoder.getConfigurator().apply(encoderConfig, timeout))
+            .signalFrequency(50.0, turnAbsolutePositionRotations)
+            .optimizeBusUtilization();
+        initializer.addTalonFX(name + "/DriveTalon", driveTalon, driveConfig)
+            // Odometry reads these every loop, so they're sent twice as often to always be fresh
+            .signalFrequency(SwerveSubsystem.ODOMETRY_SIGNAL_FREQUENCY_HZ, drivePositionRotations, driveVelocityRPS)
+            .signalFrequency(50.0, driveAppliedVoltage, driveSupplyCurrent)
+            .optimizeBusUtilization();
+        initializer.addTalonFX(name + "/TurnTalon", turnTalon, turnConfig)
+            .signalFrequency(SwerveSubsystem.ODOMETRY_SIGNAL_FREQUENCY_HZ, turnPositionRotations)
+            .signalFrequency(50.0, turnVelocityRPS, turnAppliedVoltage, turnSupplyCurrent)
+            .optimizeBusUtilization();
+
+        driveHealth.add(SwerveSubsystem.ODOMETRY_SIGNAL_FREQUENCY_HZ, drivePositionRotations, driveVelocityRPS)
+            .add(50.0, driveAppliedVoltage, driveSupplyCurrent);
+        turnHealth.add(SwerveSubsystem.ODOMETRY_SIGNAL_FREQUENCY_HZ, turnPositionRotations)
+            .add(50.0, turnVelocityRPS, turnAppliedVoltage, turnSupplyCurrent);
+        encoderHealth.add(50.0, turnAbsolutePositionRotations);
+    }
+
+    @Override
+    public void updateInputs(ModuleIOInputs inputs) {
+        BaseStatusSignal.refreshAll(drivePositionRotations,
+            driveVelocityRPS,
+            driveAppliedVoltage,
+            driveSupplyCurrent,
+            turnAbsolutePositionRotations,
+            turnPositionRotations,
+            turnVelocityRPS,
+            turnAppliedVoltage,
+            turnSupplyCurrent);
+        canMonitor.update();
+
+        inputs.driveConnected = driveHealth.isConnected();
+        inputs.turnConnected = turnHealth.isConnected();
+        inputs.turnEncoderConnected = encoderHealth.isConnected();
+
+        inputs.drivePositionMeters = drivePositionRotations.getValueAsDouble() * SwerveSubsystem.WHEEL_CIRCUMFERENCE_METERS;
+        inputs.driveVelocityMetersPerSecond = driveVelocityRPS.getValueAsDouble() * SwerveSubsystem.WHEEL_CIRCUMFERENCE_METERS;
+        inputs.driveAppliedVolts = driveAppliedVoltage.getValueAsDouble();
+        inputs.driveCurrentAmps = driveSupplyCurrent.getValueAsDouble();
+
+        inputs.turnAbsolutePositionRadians = turnAbsolutePositionRotations.getValueAsDouble() * 2.0 * Math.PI;
+        inputs.turnPositionRadians = turnPositionRotations.getValueAsDouble() * 2.0 * Math.PI;
+        inputs.turnVelocityRadiansPerSecond = turnVelocityRPS.getValueAsDouble() * 2.0 * Math.PI;
+        inputs.turnAppliedVolts = turnAppliedVoltage.getValueAsDouble();
+        inputs.turnCurrentAmps = turnSupplyCurrent.getValueAsDouble();
+    }
+
+    @Override
+    public void setDriveVelocity(double metersPerSecond) {
+        double rotationsPerSecond = metersPerSecond / SwerveSubsystem.WHEEL_CIRCUMFERENCE_METERS;
+        if (driveControlCache.shouldSend(VELOCITY_MODE, rotationsPerSecond)) {
+            driveTalon.setControl(driveVelocity.withVelocity(rotationsPerSecond));
+        }
+    }
+
+    @Override
+    public void setTurnPosition(double radians) {
+        double rotations = radians / (2.0 * Math.PI);
+        if (turnControlCache.shouldSend(POSITION_MODE, rotations)) {
+            turnTalon.setControl(turnPosition.withPosition(rotations));
+        }
+    }
+}
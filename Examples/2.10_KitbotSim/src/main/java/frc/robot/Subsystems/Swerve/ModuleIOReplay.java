@@ -0,0 +1,17 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+/** The module IO we use when replaying a log, the inputs all come from the log. */
+public class ModuleIOReplay implements ModuleIO {
+    @Override
+    public void updateInputs(ModuleIOInputs inputs) {}
+
+    @Override
+    public void setDriveVelocity(double metersPerSecond) {}
+
+    @Override
+    public void setTurnPosition(double radians) {}
+}
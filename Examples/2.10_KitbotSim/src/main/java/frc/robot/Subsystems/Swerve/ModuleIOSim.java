@@ -0,0 +1,120 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.system.plant.LinearSystemId;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.simulation.DCMotorSim;
+import edu.wpi.first.wpilibj.simulation.RoboRioSim;
+import frc.robot.Subsystems.Drivetrain.TalonVelocityLoopSim;
+import frc.robot.Utils.SimPowerModel;
+
+/**
+ * A simulated module, with a physics model for the drive and turn motors. The control loops the
+ * Talons would run are modeled here at 1khz with the same gains, so the same tuning works in sim.
+ *
+ * <p>The wheel never slips and the modules don't push on each other, so sim odometry is perfect.
+ * That's fine for trying out commands and the setpoint generator, just don't tune vision with it.
+ */
+public class ModuleIOSim implements ModuleIO {
+    // Rough guesses for how hard each part is to spin up, from the wheel and the steering gears
+    private static final double DRIVE_MOI_KG_METERS_SQUARED = 0.025;
+    private static final double TURN_MOI_KG_METERS_SQUARED = 0.004;
+    // The loop is 20ms and the Talons update every 1ms
+    private static final double LOOP_PERIOD_SECONDS = 0.020;
+    private static final int STEPS_PER_LOOP = (int) Math.round(LOOP_PERIOD_SECONDS / TalonVelocityLoopSim.PERIOD_SECONDS);
+
+    private final DCMotorSim driveSim = new DCMotorSim(
+        LinearSystemId.createDCMotorSystem(SwerveSubsystem.DRIVE_MOTOR, DRIVE_MOI_KG_METERS_SQUARED, SwerveSubsystem.DRIVE_GEAR_RATIO),
+        SwerveSubsystem.DRIVE_MOTOR);
+    private final DCMotorSim turnSim = new DCMotorSim(
+        LinearSystemId.createDCMotorSystem(SwerveSubsystem.TURN_MOTOR, TURN_MOI_KG_METERS_SQUARED, SwerveSubsystem.TURN_GEAR_RATIO),
+        SwerveSubsystem.TURN_MOTOR);
+
+    // Works in wheel rotations per second, like the drive Talon with its SensorToMechanismRatio
+    private final TalonVelocityLoopSim driveLoop = new TalonVelocityLoopSim(
+        SwerveSubsystem.DRIVE_GAINS.kS, SwerveSubsystem.DRIVE_GAINS.kV, SwerveSubsystem.DRIVE_GAINS.kP,
+        false, SwerveSubsystem.DRIVE_MOTOR, SwerveSubsystem.DRIVE_GEAR_RATIO);
+
+    private final SimPowerModel.Source powerSource;
+
+    private double driveSetpointRotationsPerSecond = 0.0;
+    private double turnSetpointRotations = 0.0;
+    private double driveVolts = 0.0;
+    private double turnVolts = 0.0;
+    private double driveSupplyAmps = 0.0;
+    private double turnSupplyAmps = 0.0;
+
+    /** @param module which module this is, for naming its current draw */
+    public ModuleIOSim(int module) {
+        powerSource = SimPowerModel.addSource("Swerve/" + SwerveSubsystem.MODULE_NAMES[module]);
+        // Start with the wheels pointing a bit off, like a real robot that was pushed around while off
+        turnSim.setState((module - 1.5) * 0.3, 0.0);
+    }
+
+    @Override
+    public void updateInputs(ModuleIOInputs inputs) {
+        double supplyVolts = RoboRioSim.getVInVoltage();
+        boolean enabled = DriverStation.isEnabled() && !SimPowerModel.isBrownedOut();
+
+        double driveAmpSum = 0.0;
+        double turnAmpSum = 0.0;
+        for (int step = 0; step < STEPS_PER_LOOP; step++) {
+            double wheelRotationsPerSecond = driveSim.getAngularVelocityRadPerSec() / (2.0 * Math.PI);
+            double turnRotations = turnSim.getAngularPositionRad() / (2.0 * Math.PI);
+            double turnRotationsPerSecond = turnSim.getAngularVelocityRadPerSec() / (2.0 * Math.PI);
+
+            driveVolts = enabled ? driveLoop.calculate(driveSetpointRotationsPerSecond, wheelRotationsPerSecond, supplyVolts) : 0.0;
+            // ContinuousWrap, so the error is never more than half a turn
+            double turnError = MathUtil.inputModulus(turnSetpointRotations - turnRotations, -0.5, 0.5);
+            turnVolts = enabled
+                ? MathUtil.clamp(SwerveSubsystem.TURN_GAINS.kP * turnError - SwerveSubsystem.TURN_GAINS.kD * turnRotationsPerSecond,
+                    -supplyVolts, supplyVolts)
+                : 0.0;
+
+            driveSim.setInputVoltage(driveVolts);
+            turnSim.setInputVoltage(turnVolts);
+            driveSim.update(TalonVelocityLoopSim.PERIOD_SECONDS);
+            turnSim.update(TalonVelocityLoopSim.PERIOD_SECONDS);
+
+            // The battery only sees the stator current for the part of the time the Talon has it connected
+            if (supplyVolts > 0.0) {
+                driveAmpSum += Math.abs(driveSim.getCurrentDrawAmps() * driveVolts / supplyVolts);
+                turnAmpSum += Math.abs(turnSim.getCurrentDrawAmps() * turnVolts / supplyVolts);
+            }
+        }
+        driveSupplyAmps = driveAmpSum / STEPS_PER_LOOP;
+        turnSupplyAmps = turnAmpSum / STEPS_PER_LOOP;
+        powerSource.setCurrentAmps(driveSupplyAmps + turnSupplyAmps);
+
+        inputs.driveConnected = true;
+        inputs.turnConnected = true;
+        inputs.turnEncoderConnected = true;
+
+        inputs.drivePositionMeters = driveSim.getAngularPositionRad() * SwerveSubsystem.WHEEL_RADIUS_METERS;
+        inputs.driveVelocityMetersPerSecond = driveSim.getAngularVelocityRadPerSec() * SwerveSubsystem.WHEEL_RADIUS_METERS;
+        inputs.driveAppliedVolts = driveVolts;
+        inputs.driveCurrentAmps = driveSupplyAmps;
+
+        // The CANcoder reads between -half and half a turn, the Talon keeps counting
+        inputs.turnAbsolutePositionRadians = MathUtil.angleModulus(turnSim.getAngularPositionRad());
+        inputs.turnPositionRadians = turnSim.getAngularPositionRad();
+        inputs.turnVelocityRadiansPerSecond = turnSim.getAngularVelocityRadPerSec();
+        inputs.turnAppliedVolts = turnVolts;
+        inputs.turnCurrentAmps = turnSupplyAmps;
+    }
+
+    @Override
+    public void setDriveVelocity(double metersPerSecond) {
+        driveSetpointRotationsPerSecond = metersPerSecond / SwerveSubsystem.WHEEL_CIRCUMFERENCE_METERS;
+    }
+
+    @Override
+    public void setTurnPosition(double radians) {
+        turnSetpointRotations = radians / (2.0 * Math.PI);
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Swerve kinematics on plain double arrays, so nothing is allocated while the robot is running.
+ *
+ * <p>WPILib's {@code SwerveDriveKinematics} does the same math, but every call makes new {@code
+ * ChassisSpeeds}, {@code SwerveModuleState}s and {@code Rotation2d}s, plus a matrix multiply that
+ * makes a few more. That's a lot of garbage for something we do every loop, so this keeps the answers
+ * in arrays the caller passes in. Angles are radians, 0 is forward and counterclockwise is positive.
+ */
+public final class SwerveKinematics {
+    private final int moduleCount;
+    private final double[] moduleX;
+    private final double[] moduleY;
+    // The least squares solution for the robot's motion from the module motions, see forward()
+    private final double[][] forwardMatrix;
+
+    /**
+     * @param moduleX how far forward of the robot's center each module is, in meters
+     * @param moduleY how far left of the robot's center each module is, in meters
+     */
+    public SwerveKinematics(double[] moduleX, double[] moduleY) {
+        if (moduleX.length != moduleY.length || moduleX.length < 2) {
+            throw new IllegalArgumentException("Swerve needs at least 2 modules, each with an x and a y");
+        }
+        moduleCount = moduleX.length;
+        this.moduleX = moduleX.clone();
+        this.moduleY = moduleY.clone();
+
+        // Each module's velocity is the robot's velocity plus the spin, v = (vx - omega * y, vy + omega * x)
+        // Going back the other way there are more equations than unknowns, so we use the pseudo inverse
+        // It only depends on where the modules are, so it's worked out once here
+        SimpleMatrix inverse = new SimpleMatrix(moduleCount * 2, 3);
+        for (int i = 0; i < moduleCount; i++) {
+            inverse.setRow(i * 2, 0, 1.0, 0.0, -moduleY[i]);
+            inverse.setRow(i * 2 + 1, 0, 0.0, 1.0, moduleX[i]);
+        }
+        SimpleMatrix pseudoInverse = inverse.pseudoInverse();
+        forwardMatrix = new double[3][moduleCount * 2];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < moduleCount * 2; column++) {
+                forwardMatrix[row][column] = pseudoInverse.get(row, column);
+            }
+        }
+    }
+
+    public int getModuleCount() {
+        return moduleCount;
+    }
+
+    public double getModuleX(int module) {
+        return moduleX[module];
+    }
+
+    public double getModuleY(int module) {
+        return moduleY[module];
+    }
+
+    /** The x part of a module's velocity when the robot moves at these robot relative speeds. */
+    public double moduleVelocityX(int module, double vx, double omega) {
+        return vx - omega * moduleY[module];
+    }
+
+    /** The y part of a module's velocity when the robot moves at these robot relative speeds. */
+    public double moduleVelocityY(int module, double vy, double omega) {
+        return vy + omega * moduleX[module];
+    }
+
+    /**
+     * Works out each module's speed and angle for robot relative speeds. A module that isn't moving
+     * keeps the angle already in {@code angles}, so wheels don't snap to 0 when we stop.
+     *
+     * @return the fastest module speed, for desaturating
+     */
+    public double inverse(double vx, double vy, double omega, double[] speeds, double[] angles) {
+        double fastest = 0.0;
+        for (int i = 0; i < moduleCount; i++) {
+            double x = moduleVelocityX(i, vx, omega);
+            double y = moduleVelocityY(i, vy, omega);
+            speeds[i] = Math.hypot(x, y);
+            if (speeds[i] > 1e-9) {
+                angles[i] = Math.atan2(y, x);
+            }
+            fastest = Math.max(fastest, speeds[i]);
+        }
+        return fastest;
+    }
+
+    /**
+     * Works out how the robot moved from how each module moved, robot relative. Works the same for
+     * velocities or distances.
+     *
+     * @param distances how far each wheel rolled, or how fast it's going
+     * @param angles where each wheel is pointing
+     * @param out filled with x, y and rotation
+     */
+    public void forward(double[] distances, double[] angles, double[] out) {
+        double x = 0.0;
+        double y = 0.0;
+        double rotation = 0.0;
+        for (int i = 0; i < moduleCount; i++) {
+            double dx = distances[i] * Math.cos(angles[i]);
+            double dy = distances[i] * Math.sin(angles[i]);
+            x += forwardMatrix[0][i * 2] * dx + forwardMatrix[0][i * 2 + 1] * dy;
+            y += forwardMatrix[1][i * 2] * dx + forwardMatrix[1][i * 2 + 1] * dy;
+            rotation += forwardMatrix[2][i * 2] * dx + forwardMatrix[2][i * 2 + 1] * dy;
+        }
+        out[0] = x;
+        out[1] = y;
+        out[2] = rotation;
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+/**
+ * Keeps track of where a swerve robot is from its module positions, without allocating.
+ *
+ * <p>Same math as WPILib's {@code SwerveDriveOdometry}: how far each wheel rolled and which way it
+ * pointed goes through {@link SwerveKinematics#forward} to get how far the robot moved, then it's
+ * treated as an arc like {@code Pose2d.exp}. When the gyro is connected its heading is used instead of
+ * the one from the wheels, since wheels slip when the robot gets pushed.
+ */
+public final class SwerveOdometryIntegrator {
+    private final SwerveKinematics kinematics;
+    private final double[] lastPositions;
+    private final double[] deltas;
+    private final double[] twist = new double[3];
+
+    private double x = 0.0;
+    private double y = 0.0;
+    private double heading = 0.0;
+    // Added to the gyro's yaw to get our heading, so resetting the pose doesn't need to touch the gyro
+    private double gyroOffset = 0.0;
+
+    public SwerveOdometryIntegrator(SwerveKinematics kinematics) {
+        this.kinematics = kinematics;
+        lastPositions = new double[kinematics.getModuleCount()];
+        deltas = new double[kinematics.getModuleCount()];
+    }
+
+    /** Moves the pose to somewhere new, like at the start of an auto. */
+    public void reset(double newX, double newY, double newHeading, double[] modulePositions, double gyroYaw) {
+        x = newX;
+        y = newY;
+        heading = newHeading;
+        gyroOffset = newHeading - gyroYaw;
+        System.arraycopy(modulePositions, 0, lastPositions, 0, lastPositions.length);
+    }
+
+    /**
+     * Adds the motion since the last update.
+     *
+     * @param modulePositions how far each wheel has rolled in total, in meters
+     * @param moduleAngles where each wheel is pointing now, in radians
+     * @param gyroConnected whether to use {@code gyroYaw} for the heading
+     */
+    public void update(double[] modulePositions, double[] moduleAngles, boolean gyroConnected, double gyroYaw) {
+        for (int i = 0; i < deltas.length; i++) {
+            deltas[i] = modulePositions[i] - lastPositions[i];
+            lastPositions[i] = modulePositions[i];
+        }
+        kinematics.forward(deltas, moduleAngles, twist);
+        double dTheta = twist[2];
+        if (gyroConnected) {
+            double gyroHeading = gyroYaw + gyroOffset;
+            dTheta = gyroHeading - heading;
+        } else {
+            // Keep the offset up to date, so the heading doesn't jump if the gyro comes back
+            gyroOffset = heading + dTheta - gyroYaw;
+        }
+
+        // Follow an arc instead of a straight line, see Pose2d.exp
+        // When barely turning, the series expansion avoids dividing by almost zero
+        double s;
+        double c;
+        if (Math.abs(dTheta) < 1e-9) {
+            s = 1.0 - dTheta * dTheta / 6.0;
+            c = dTheta / 2.0;
+        } else {
+            s = Math.sin(dTheta) / dTheta;
+            c = (1.0 - Math.cos(dTheta)) / dTheta;
+        }
+        double dx = twist[0] * s - twist[1] * c;
+        double dy = twist[0] * c + twist[1] * s;
+
+        // Turn that robot relative motion into field relative motion
+        double cos = Math.cos(heading);
+        double sin = Math.sin(heading);
+        x += dx * cos - dy * sin;
+        y += dx * sin + dy * cos;
+        heading += dTheta;
+    }
+
+    public double getXMeters() {
+        return x;
+    }
+
+    public double getYMeters() {
+        return y;
+    }
+
+    public double getHeadingRadians() {
+        return heading;
+    }
+}
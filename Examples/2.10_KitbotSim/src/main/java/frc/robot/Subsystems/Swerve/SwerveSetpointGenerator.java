@@ -0,0 +1,218 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import edu.wpi.first.math.MathUtil;
+
+/**
+ * Turns the speeds the driver asks for into module setpoints the modules can actually follow.
+ *
+ * <p>If the joystick goes from full forward to full left, plain kinematics flips every wheel 90
+ * degrees in one loop and asks the drive motors to change speed instantly. The wheels can't turn
+ * that fast, so the robot skids the wrong way while they catch up. Each loop, this moves from the last
+ * setpoint toward the one we want, but only as far as the modules can keep up:
+ *
+ * <ul>
+ *   <li>no module's velocity can change by more than {@code maxModuleAcceleration * dt}
+ *   <li>no module can steer more than {@code maxSteerRate * dt}, unless it's barely moving
+ *   <li>no module goes faster than {@code maxModuleSpeed}
+ * </ul>
+ *
+ * <p>Everything moves by the same fraction of the way, so the robot keeps heading the way the driver
+ * asked even when it's limited. Wheels flip around and drive backwards instead of turning more than
+ * 90 degrees. A module that's still steering only drives the part of its speed that's along where it
+ * points, so it doesn't scrub sideways.
+ *
+ * <p>It's all plain doubles and arrays made in the constructor, so running it every loop makes no
+ * garbage. Speeds are robot relative.
+ */
+public final class SwerveSetpointGenerator {
+    // Slower than this, a module is stopped and can steer as fast as it wants
+    static final double STOPPED_METERS_PER_SECOND = 0.05;
+    // How many times to halve the search for the steering limit, 10 gets within a tenth of a percent
+    static final int STEER_SEARCH_ITERATIONS = 10;
+
+    private final SwerveKinematics kinematics;
+    private final double maxModuleSpeed;
+    private final double maxModuleAcceleration;
+    private final double maxSteerRate;
+
+    // The last setpoint
+    private double vx = 0.0;
+    private double vy = 0.0;
+    private double omega = 0.0;
+    private final double[] moduleSpeeds;
+    private final double[] moduleAngles;
+
+    // Scratch space for each update
+    private final double[] desiredSpeeds;
+    private final double[] desiredAngles;
+    private int limitedModule = -1;
+    private double limitedFraction = 1.0;
+
+    /**
+     * @param maxModuleSpeed the fastest a module can go, in meters per second
+     * @param maxModuleAcceleration how fast a module's velocity can change, in meters per second squared
+     * @param maxSteerRate how fast a module can turn, in radians per second
+     */
+    public SwerveSetpointGenerator(SwerveKinematics kinematics, double maxModuleSpeed,
+            double maxModuleAcceleration, double maxSteerRate) {
+        this.kinematics = kinematics;
+        this.maxModuleSpeed = maxModuleSpeed;
+        this.maxModuleAcceleration = maxModuleAcceleration;
+        this.maxSteerRate = maxSteerRate;
+        int count = kinematics.getModuleCount();
+        moduleSpeeds = new double[count];
+        moduleAngles = new double[count];
+        desiredSpeeds = new double[count];
+        desiredAngles = new double[count];
+    }
+
+    /** Starts over from the robot sitting still with its wheels where they are now, like when a command starts. */
+    public void reset(double[] measuredAngles) {
+        vx = 0.0;
+        vy = 0.0;
+        omega = 0.0;
+        for (int i = 0; i < moduleAngles.length; i++) {
+            moduleSpeeds[i] = 0.0;
+            moduleAngles[i] = measuredAngles[i];
+        }
+    }
+
+    /**
+     * Moves the setpoint toward the speeds we want, as far as the modules can go in one loop.
+     *
+     * @param desiredVx forward, in meters per second
+     * @param desiredVy left, in meters per second
+     * @param desiredOmega counterclockwise, in radians per second
+     * @param dt how long until the next update, in seconds
+     */
+    public void update(double desiredVx, double desiredVy, double desiredOmega, double dt) {
+        // If any module would go too fast, slow everything down by the same amount so the robot still
+        // goes the direction we asked
+        double fastest = kinematics.inverse(desiredVx, desiredVy, desiredOmega, desiredSpeeds, desiredAngles);
+        if (fastest > maxModuleSpeed) {
+            double scale = maxModuleSpeed / fastest;
+            desiredVx *= scale;
+            desiredVy *= scale;
+            desiredOmega *= scale;
+        }
+
+        // Find how far from the last setpoint toward the one we want we can go
+        // 0 means staying where we are and 1 means getting all the way there this loop
+        double fraction = 1.0;
+        limitedModule = -1;
+        double maxVelocityChange = maxModuleAcceleration * dt;
+        double dVx = desiredVx - vx;
+        double dVy = desiredVy - vy;
+        double dOmega = desiredOmega - omega;
+        for (int i = 0; i < moduleAngles.length; i++) {
+            // A module's velocity is linear in the robot's speeds, so its change is too
+            double changeX = kinematics.moduleVelocityX(i, dVx, dOmega);
+            double changeY = kinematics.moduleVelocityY(i, dVy, dOmega);
+            double change = Math.hypot(changeX, changeY);
+            if (change * fraction > maxVelocityChange) {
+                fraction = maxVelocityChange / change;
+                limitedModule = i;
+            }
+        }
+        double maxSteer = maxSteerRate * dt;
+        for (int i = 0; i < moduleAngles.length; i++) {
+            if (steerError(i, fraction, dVx, dVy, dOmega) <= maxSteer) {
+                continue;
+            }
+            // The steering isn't always smooth in the fraction, so search for the furthest fraction that works
+            double low = 0.0;
+            double high = fraction;
+            for (int iteration = 0; iteration < STEER_SEARCH_ITERATIONS; iteration++) {
+                double middle = (low + high) / 2.0;
+                if (steerError(i, middle, dVx, dVy, dOmega) <= maxSteer) {
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+            fraction = low;
+            limitedModule = i;
+        }
+        limitedFraction = fraction;
+
+        vx += dVx * fraction;
+        vy += dVy * fraction;
+        omega += dOmega * fraction;
+
+        for (int i = 0; i < moduleAngles.length; i++) {
+            double moduleVx = kinematics.moduleVelocityX(i, vx, omega);
+            double moduleVy = kinematics.moduleVelocityY(i, vy, omega);
+            double speed = Math.hypot(moduleVx, moduleVy);
+            double target;
+            if (speed > STOPPED_METERS_PER_SECOND) {
+                target = Math.atan2(moduleVy, moduleVx);
+            } else if (desiredSpeeds[i] > STOPPED_METERS_PER_SECOND) {
+                // Stopped or close to it, so get the wheel pointing where it's going to need to go next
+                target = desiredAngles[i];
+            } else {
+                // Nowhere to go, so leave the wheel where it is instead of snapping back to 0
+                target = moduleAngles[i];
+            }
+            // Driving backwards is the same as turning the wheel halfway around, so never turn more than 90 degrees
+            double error = MathUtil.angleModulus(target - moduleAngles[i]);
+            if (Math.abs(error) > Math.PI / 2.0) {
+                error = MathUtil.angleModulus(error + Math.PI);
+                speed = -speed;
+            }
+            double steer = MathUtil.clamp(error, -maxSteer, maxSteer);
+            moduleAngles[i] = MathUtil.angleModulus(moduleAngles[i] + steer);
+            // Only drive the part of the speed along where the wheel points right now
+            moduleSpeeds[i] = speed * Math.cos(error - steer);
+        }
+    }
+
+    /**
+     * How far module i would have to steer to get from its last angle to where it would need to point
+     * if we went this fraction of the way. Pointing backwards counts, and a stopped module never needs to steer.
+     */
+    private double steerError(int i, double fraction, double dVx, double dVy, double dOmega) {
+        double moduleVx = kinematics.moduleVelocityX(i, vx + dVx * fraction, omega + dOmega * fraction);
+        double moduleVy = kinematics.moduleVelocityY(i, vy + dVy * fraction, omega + dOmega * fraction);
+        if (Math.hypot(moduleVx, moduleVy) <= STOPPED_METERS_PER_SECOND) {
+            return 0.0;
+        }
+        double error = Math.abs(MathUtil.angleModulus(Math.atan2(moduleVy, moduleVx) - moduleAngles[i]));
+        return Math.min(error, Math.PI - error);
+    }
+
+    public double getVx() {
+        return vx;
+    }
+
+    public double getVy() {
+        return vy;
+    }
+
+    public double getOmega() {
+        return omega;
+    }
+
+    /** How fast a module should drive, negative is backwards. */
+    public double getModuleSpeed(int module) {
+        return moduleSpeeds[module];
+    }
+
+    /** Where a module should point, between -pi and pi. */
+    public double getModuleAngle(int module) {
+        return moduleAngles[module];
+    }
+
+    /** Which module held us back last update, -1 if none did. Handy for tuning the limits. */
+    public int getLimitedModule() {
+        return limitedModule;
+    }
+
+    /** How far toward what we wanted we got last update, 1 means all the way. */
+    public double getLimitedFraction() {
+        return limitedFraction;
+    }
+}
@@ -0,0 +1,215 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Swerve;
+
+import java.util.function.DoubleSupplier;
+
+import org.littletonrobotics.junction.Logger;
+
+import com.ctre.phoenix6.configs.Slot0Configs;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.Robot;
+import frc.robot.Utils.DeviceInitializer;
+import frc.robot.Utils.LoopTimer;
+
+/**
+ * A swerve drivetrain, for when we move on from the kitbot. It isn't in {@code Robot} yet, to try it
+ * swap it in for {@code DrivetrainSubsystem} and bind {@link #driveFieldRelativeCommand} to the sticks.
+ *
+ * <p>It's laid out like the kitbot drivetrain: each module and the gyro have an IO layer with real,
+ * sim and replay versions, and everything that happens each loop runs on plain doubles so it doesn't
+ * make garbage. The joystick goes through a {@link SwerveSetpointGenerator}, so the wheels are never
+ * asked to do more than they can.
+ */
+public class SwerveSubsystem extends SubsystemBase {
+  // Front left, front right, back left, back right, everything below is in this order
+  public static final String[] MODULE_NAMES = {"FrontLeft", "FrontRight", "BackLeft", "BackRight"};
+  public static final int[] DRIVE_TALON_IDS = {10, 20, 30, 40};
+  public static final int[] TURN_TALON_IDS = {11, 21, 31, 41};
+  public static final int[] TURN_ENCODER_IDS = {12, 22, 32, 42};
+  // Measure these on the real robot, see ModuleIOReal
+  public static final double[] TURN_ENCODER_OFFSETS_ROTATIONS = {0.0, 0.0, 0.0, 0.0};
+  public static final int PIGEON_ID = 5;
+
+  // An MK4i with L2 gearing, if this was a real robot we would check with mechanical for actual numbers
+  public static final double WHEEL_RADIUS_METERS = Units.inchesToMeters(2.0);
+  public static final double WHEEL_CIRCUMFERENCE_METERS = 2.0 * Math.PI * WHEEL_RADIUS_METERS;
+  public static final double DRIVE_GEAR_RATIO = 6.75;
+  public static final double TURN_GEAR_RATIO = 150.0 / 7.0;
+  public static final DCMotor DRIVE_MOTOR = DCMotor.getKrakenX60(1);
+  public static final DCMotor TURN_MOTOR = DCMotor.getKrakenX60(1);
+  // How far each module is from the center, the frame is square so it's the same forward and sideways
+  public static final double MODULE_OFFSET_METERS = Units.inchesToMeters(22.75) / 2.0;
+  public static final double[] MODULE_X_METERS = {MODULE_OFFSET_METERS, MODULE_OFFSET_METERS, -MODULE_OFFSET_METERS, -MODULE_OFFSET_METERS};
+  public static final double[] MODULE_Y_METERS = {MODULE_OFFSET_METERS, -MODULE_OFFSET_METERS, MODULE_OFFSET_METERS, -MODULE_OFFSET_METERS};
+
+  // A Kraken spins at about 100 rotations per second with no load, and we leave a little for the loop to correct with
+  public static final double MAX_SPEED_METERS_PER_SECOND = 0.9 * 100.0 / DRIVE_GEAR_RATIO * WHEEL_CIRCUMFERENCE_METERS;
+  public static final double MAX_ANGULAR_SPEED_RADIANS_PER_SECOND =
+      MAX_SPEED_METERS_PER_SECOND / Math.hypot(MODULE_OFFSET_METERS, MODULE_OFFSET_METERS);
+  // Limits for the setpoint generator, a bit under what the modules can do so the Talons can keep up
+  // Meters per second squared, about what the wheels can do before they slip
+  public static final double MAX_MODULE_ACCELERATION = 8.0;
+  // Radians per second, a Kraken through 150/7 turns a module about 30 radians per second
+  public static final double MAX_STEER_RATE = 20.0;
+
+  // The drive Talons work in wheel rotations, so these are in volts per wheel rotation per second
+  public static final Slot0Configs DRIVE_GAINS = new Slot0Configs()
+      .withKS(0.1) // Volts to get moving
+      .withKV(12.0 / (100.0 / DRIVE_GEAR_RATIO)) // Volts per wheel rotation per second, from the Kraken's free speed
+      .withKP(0.5); // Volts per wheel rotation per second of error
+  // The turn Talons work in wheel rotations from the CANcoder
+  public static final Slot0Configs TURN_GAINS = new Slot0Configs()
+      .withKP(50.0) // Volts per rotation of error
+      .withKD(0.5); // Volts per rotation per second, to keep it from overshooting
+
+  // The drive and turn positions are read every loop for odometry, so they come in twice a loop
+  public static final double ODOMETRY_SIGNAL_FREQUENCY_HZ = 100.0;
+  static final double LOOP_PERIOD_SECONDS = 0.020;
+
+  // Made once, so logging each module doesn't build a new string every loop
+  private static final String[] MODULE_INPUT_KEYS = {
+      "Swerve/" + MODULE_NAMES[0], "Swerve/" + MODULE_NAMES[1], "Swerve/" + MODULE_NAMES[2], "Swerve/" + MODULE_NAMES[3]};
+
+  ModuleIO[] modules = new ModuleIO[MODULE_NAMES.length];
+  ModuleIOInputsAutoLogged[] moduleInputs = new ModuleIOInputsAutoLogged[MODULE_NAMES.length];
+  GyroIO gyro;
+  GyroIOInputsAutoLogged gyroInputs = new GyroIOInputsAutoLogged();
+
+  final SwerveKinematics kinematics = new SwerveKinematics(MODULE_X_METERS, MODULE_Y_METERS);
+  final SwerveOdometryIntegrator odometry = new SwerveOdometryIntegrator(kinematics);
+  final SwerveSetpointGenerator setpointGenerator = new SwerveSetpointGenerator(
+      kinematics, MAX_SPEED_METERS_PER_SECOND, MAX_MODULE_ACCELERATION, MAX_STEER_RATE);
+
+  LoopTimer periodicTimer = new LoopTimer("Swerve/Periodic");
+  LoopTimer setpointTimer = new LoopTimer("Swerve/SetpointGenerator");
+
+  // Filled in every loop from the inputs, for odometry
+  private final double[] modulePositions = new double[MODULE_NAMES.length];
+  private final double[] moduleAngles = new double[MODULE_NAMES.length];
+  // Angle then speed for each module, the layout AdvantageScope's swerve tab reads
+  private final double[] measuredStates = new double[MODULE_NAMES.length * 2];
+  private final double[] setpointStates = new double[MODULE_NAMES.length * 2];
+
+  private long poseResetCount = 0;
+
+  /** Creates a new Swerve drivetrain. */
+  public SwerveSubsystem() {
+    // All twelve module devices and the Pigeon get set up at the same time, instead of one module
+    // at a time, see DeviceInitializer
+    DeviceInitializer initializer = new DeviceInitializer("Swerve");
+    gyro = Robot.isReal() ? new GyroIOPigeon2(initializer) : new GyroIOReplay();
+    for (int i = 0; i < modules.length; i++) {
+      modules[i] = Robot.isReal() ? new ModuleIOReal(i, initializer)
+          : Robot.REPLAY ? new ModuleIOReplay()
+          : new ModuleIOSim(i);
+      moduleInputs[i] = new ModuleIOInputsAutoLogged();
+    }
+    if (Robot.isReal()) {
+      initializer.run();
+    }
+  }
+
+  /**
+   * Drives with the sticks, field relative, so pushing forward always goes away from the driver.
+   *
+   * @param x forward, from -1 to 1
+   * @param y left, from -1 to 1
+   * @param omega counterclockwise, from -1 to 1
+   */
+  public Command driveFieldRelativeCommand(DoubleSupplier x, DoubleSupplier y, DoubleSupplier omega) {
+    return LoopTimer.timeCommand(this.startRun(
+        // Start from where the wheels are really pointing, not wherever the last command left them
+        () -> setpointGenerator.reset(moduleAngles),
+        () -> {
+          double fieldVx = MathUtil.clamp(x.getAsDouble(), -1.0, 1.0) * MAX_SPEED_METERS_PER_SECOND;
+          double fieldVy = MathUtil.clamp(y.getAsDouble(), -1.0, 1.0) * MAX_SPEED_METERS_PER_SECOND;
+          double omegaRadiansPerSecond = MathUtil.clamp(omega.getAsDouble(), -1.0, 1.0) * MAX_ANGULAR_SPEED_RADIANS_PER_SECOND;
+
+          // Turn field relative into robot relative, by rotating backwards by our heading
+          double heading = odometry.getHeadingRadians();
+          double cos = Math.cos(heading);
+          double sin = Math.sin(heading);
+          runRobotRelative(fieldVx * cos + fieldVy * sin, -fieldVx * sin + fieldVy * cos, omegaRadiansPerSecond);
+        })
+        .finallyDo(this::stop)
+        .withName("DriveFieldRelative"));
+  }
+
+  /** Drives at robot relative speeds, through the setpoint generator. Doesn't make any new objects. */
+  public void runRobotRelative(double vx, double vy, double omega) {
+    long setpointStart = setpointTimer.start();
+    setpointGenerator.update(vx, vy, omega, LOOP_PERIOD_SECONDS);
+    setpointTimer.stop(setpointStart);
+
+    for (int i = 0; i < modules.length; i++) {
+      modules[i].setDriveVelocity(setpointGenerator.getModuleSpeed(i));
+      modules[i].setTurnPosition(setpointGenerator.getModuleAngle(i));
+      setpointStates[i * 2] = setpointGenerator.getModuleAngle(i);
+      setpointStates[i * 2 + 1] = setpointGenerator.getModuleSpeed(i);
+    }
+    Logger.recordOutput("Swerve/SetpointStates", setpointStates);
+    Logger.recordOutput("Swerve/SetpointLimitedModule", setpointGenerator.getLimitedModule());
+    Logger.recordOutput("Swerve/SetpointLimitedFraction", setpointGenerator.getLimitedFraction());
+  }
+
+  /** Stops the wheels and leaves them pointing where they are. */
+  public void stop() {
+    for (int i = 0; i < modules.length; i++) {
+      modules[i].setDriveVelocity(0.0);
+      modules[i].setTurnPosition(moduleAngles[i]);
+    }
+  }
+
+  /** Tells odometry we're somewhere, like the start of an auto. */
+  public void resetPose(double xMeters, double yMeters, double headingRadians) {
+    odometry.reset(xMeters, yMeters, headingRadians, modulePositions, gyroInputs.yawRadians);
+    poseResetCount++;
+    Logger.recordOutput("Swerve/PoseReset", new double[] {xMeters, yMeters, headingRadians});
+    Logger.recordOutput("Swerve/PoseResetCount", poseResetCount);
+  }
+
+  @Override
+  public void periodic() {
+    long periodicStart = periodicTimer.start();
+
+    for (int i = 0; i < modules.length; i++) {
+      modules[i].updateInputs(moduleInputs[i]);
+      Logger.processInputs(MODULE_INPUT_KEYS[i], moduleInputs[i]);
+    }
+    gyro.updateInputs(gyroInputs);
+    Logger.processInputs("Swerve/Gyro", gyroInputs);
+
+    // A module that isn't answering can read as zero, which would look like we teleported, so we
+    // hold the last pose until they're all back
+    boolean allConnected = true;
+    for (int i = 0; i < modules.length; i++) {
+      allConnected &= moduleInputs[i].driveConnected && moduleInputs[i].turnConnected;
+      modulePositions[i] = moduleInputs[i].drivePositionMeters;
+      moduleAngles[i] = moduleInputs[i].turnPositionRadians;
+      measuredStates[i * 2] = moduleInputs[i].turnPositionRadians;
+      measuredStates[i * 2 + 1] = moduleInputs[i].driveVelocityMetersPerSecond;
+    }
+    if (allConnected) {
+      odometry.update(modulePositions, moduleAngles, gyroInputs.connected, gyroInputs.yawRadians);
+    }
+    Logger.recordOutput("Swerve Pose", getPose());
+    Logger.recordOutput("Swerve/MeasuredStates", measuredStates);
+
+    periodicTimer.stop(periodicStart);
+  }
+
+  /** Our current position on the field, from odometry. */
+  public Pose2d getPose() {
+    return new Pose2d(odometry.getXMeters(), odometry.getYMeters(), new Rotation2d(odometry.getHeadingRadians()));
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Vision;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import frc.robot.Subsystems.Drivetrain.DrivetrainIOSim;
+import frc.robot.Subsystems.Drivetrain.SyntheticVisionSource;
+
+/**
+ * Pretends to be a camera pipeline looking at AprilTags.
+ *
+ * <p>Each time the sim loop steps the physics it hands the new true pose to {@link #step}. At the
+ * camera's frame rate this thread works out which tags the camera could see from there, and makes a
+ * noisy pose observation from them. Like a real pipeline, the observation takes a while to come out
+ * the other end: we can burn some CPU to model the processing cost, then a {@link
+ * SyntheticVisionSource} holds the result for the latency before it goes in the queue for {@link
+ * VisionIOSim} to read. All of that happens on this thread, so the main loop only ever pays for
+ * handing over the pose and reading the queue.
+ *
+ * <p>Frames are taken and delivered by the sim's timestamps, never the clock, so they line up with
+ * the rest of the sim even when timing is paused or stepped faster than real time. Between steps
+ * the thread sleeps until the next one. If it falls behind it only looks at the newest pose, which
+ * skips frames like a real camera that can't keep up.
+ */
+public class SimulatedCameraThread extends Thread {
+    // How far away and how far off to the side we can still pick out a tag
+    private static final double MAX_TAG_DISTANCE_METERS = 5.0;
+    private static final double HALF_FIELD_OF_VIEW_RADIANS = Math.toRadians(35);
+    // Tags seen nearly edge on can't be read
+    private static final double MAX_VIEWING_ANGLE_RADIANS = Math.toRadians(70);
+    // Noise grows with distance squared and shrinks with more tags, like real tag solvers
+    private static final double XY_NOISE_PER_METER_SQUARED = 0.01;
+    private static final double HEADING_NOISE_PER_METER_SQUARED = Math.toRadians(0.5);
+
+    private final SyntheticVisionSource.FrameConsumer toQueue;
+    private final Transform2d robotToCamera;
+    private final long processingNanos;
+    private final Random random;
+    // When to take frames and how long they take to arrive
+    private final SyntheticVisionSource frames;
+
+    // Tag positions and which way they face, copied out of the layout once
+    private final double[] tagX;
+    private final double[] tagY;
+    private final double[] tagFacingRadians;
+
+    // The newest pose from the sim loop that this thread hasn't looked at yet
+    private final AtomicReference<DrivetrainIOSim.TruePose> latestTruth = new AtomicReference<>();
+
+    /**
+     * @param framesPerSecond how fast the camera takes pictures
+     * @param minLatencySeconds shortest time from taking a picture to the pose coming out
+     * @param maxLatencySeconds longest time from taking a picture to the pose coming out
+     * @param processingSeconds how much CPU time each frame burns on this thread, to model running
+     *     the pipeline on the same computer as the robot code
+     */
+    public SimulatedCameraThread(
+            VisionObservationQueue queue,
+            AprilTagFieldLayout layout,
+            Transform2d robotToCamera,
+            double framesPerSecond,
+            double minLatencySeconds,
+            double maxLatencySeconds,
+            double processingSeconds,
+            long seed) {
+        this.toQueue = queue::offer;
+        this.robotToCamera = robotToCamera;
+        this.processingNanos = (long) (processingSeconds * 1e9);
+        this.random = new Random(seed);
+        this.frames = new SyntheticVisionSource(1.0 / framesPerSecond, minLatencySeconds, maxLatencySeconds, seed + 1);
+
+        List<AprilTag> tags = layout.getTags();
+        tagX = new double[tags.size()];
+        tagY = new double[tags.size()];
+        tagFacingRadians = new double[tags.size()];
+        for (int i = 0; i < tags.size(); i++) {
+            Pose2d tagPose = tags.get(i).pose.toPose2d();
+            tagX[i] = tagPose.getX();
+            tagY[i] = tagPose.getY();
+            tagFacingRadians[i] = tagPose.getRotation().getRadians();
+        }
+
+        // Daemon threads don't keep the program alive when the robot code exits
+        setName("SimulatedCamera");
+        setDaemon(true);
+    }
+
+    /**
+     * Call from the sim loop every time the physics steps, with the new true pose. Never waits on
+     * this thread, it just hands the pose over and wakes it up.
+     */
+    public void step(DrivetrainIOSim.TruePose truth) {
+        if (truth == null) {
+            return;
+        }
+        latestTruth.set(truth);
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        while (!isInterrupted()) {
+            DrivetrainIOSim.TruePose truth = latestTruth.getAndSet(null);
+            if (truth == null) {
+                // Nothing new from the sim, sleep until step() wakes us (or we're interrupted)
+                LockSupport.park(this);
+                continue;
+            }
+            if (frames.takeFrame(truth.timestamp())) {
+                captureFrame(truth);
+            }
+            frames.deliver(truth.timestamp(), toQueue);
+        }
+    }
+
+    /** Takes one picture and starts "processing" it. */
+    private void captureFrame(DrivetrainIOSim.TruePose truth) {
+        Pose2d cameraPose = truth.pose().transformBy(robotToCamera);
+        double cameraX = cameraPose.getX();
+        double cameraY = cameraPose.getY();
+        double cameraHeading = cameraPose.getRotation().getRadians();
+
+        int tagCount = 0;
+        double totalDistance = 0.0;
+        for (int i = 0; i < tagX.length; i++) {
+            double dx = tagX[i] - cameraX;
+            double dy = tagY[i] - cameraY;
+            double distance = Math.hypot(dx, dy);
+            if (distance > MAX_TAG_DISTANCE_METERS) {
+                continue;
+            }
+            // The tag has to be in front of the camera...
+            double bearing = Math.atan2(dy, dx);
+            if (Math.abs(MathUtil.angleModulus(bearing - cameraHeading)) > HALF_FIELD_OF_VIEW_RADIANS) {
+                continue;
+            }
+            // ...and facing us, the tag's facing direction should point back at the camera
+            if (Math.abs(MathUtil.angleModulus(bearing + Math.PI - tagFacingRadians[i])) > MAX_VIEWING_ANGLE_RADIANS) {
+                continue;
+            }
+            tagCount++;
+            totalDistance += distance;
+        }
+
+        // Real pipelines spend the time whether or not they find anything
+        long spinUntil = System.nanoTime() + processingNanos;
+        while (System.nanoTime() < spinUntil) {
+            Thread.onSpinWait();
+        }
+        if (tagCount == 0) {
+            return;
+        }
+
+        double averageDistance = totalDistance / tagCount;
+        double noiseScale = averageDistance * averageDistance / tagCount;
+        Pose2d robotPose = truth.pose();
+        frames.capture(truth.timestamp(),
+            robotPose.getX() + random.nextGaussian() * XY_NOISE_PER_METER_SQUARED * noiseScale,
+            robotPose.getY() + random.nextGaussian() * XY_NOISE_PER_METER_SQUARED * noiseScale,
+            robotPose.getRotation().getRadians() + random.nextGaussian() * HEADING_NOISE_PER_METER_SQUARED * noiseScale,
+            tagCount,
+            averageDistance,
+            // Only single tags can flip between two solutions, and it gets worse further away
+            tagCount == 1 ? Math.min(random.nextDouble() * averageDistance / MAX_TAG_DISTANCE_METERS, 1.0) : 0.0);
+    }
+}
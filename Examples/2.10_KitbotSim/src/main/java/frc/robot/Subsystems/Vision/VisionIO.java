@@ -0,0 +1,30 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Vision;
+
+import org.littletonrobotics.junction.AutoLog;
+
+public interface VisionIO {
+    @AutoLog
+    public static class VisionIOInputs {
+        public boolean connected = false;
+
+        // Robot poses from AprilTags since the last updateInputs, oldest first
+        // These are all the same length, one entry per observation
+        public double[] observationTimestamps = new double[] {};
+        public double[] observationXMeters = new double[] {};
+        public double[] observationYMeters = new double[] {};
+        public double[] observationHeadingRadians = new double[] {};
+        public int[] observationTagCounts = new int[] {};
+        public double[] observationAverageTagDistanceMeters = new double[] {};
+        // How unsure the camera is between two possible poses, only matters for single tags
+        public double[] observationAmbiguities = new double[] {};
+
+        // Observations thrown away because we didn't read them fast enough
+        public long droppedObservations = 0;
+    }
+
+    public void updateInputs(VisionIOInputs inputs);
+}
@@ -0,0 +1,14 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Vision;
+
+/**
+ * Does nothing. Used in replay, where the inputs come from the log, and on the real robot until we
+ * mount a camera.
+ */
+public class VisionIOReplay implements VisionIO {
+    @Override
+    public void updateInputs(VisionIOInputs inputs) {}
+}
@@ -0,0 +1,91 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Vision;
+
+import java.util.function.Supplier;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.apriltag.AprilTagFields;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.util.Units;
+import frc.robot.Subsystems.Drivetrain.DrivetrainIOSim;
+import frc.robot.Utils.InputArrayPool;
+
+/** A simulated AprilTag camera, see {@link SimulatedCameraThread}. */
+public class VisionIOSim implements VisionIO {
+    // Roughly what a coprocessor running PhotonVision gives us
+    public static final double DEFAULT_FRAMES_PER_SECOND = 30.0;
+    public static final double DEFAULT_MIN_LATENCY_SECONDS = 0.030;
+    public static final double DEFAULT_MAX_LATENCY_SECONDS = 0.060;
+    // A coprocessor does the work, so it costs the robot code nothing
+    public static final double DEFAULT_PROCESSING_SECONDS = 0.0;
+
+    // The camera is on the front of the robot, facing forward
+    private static final Transform2d ROBOT_TO_CAMERA =
+        new Transform2d(Units.inchesToMeters(12), 0.0, new Rotation2d());
+
+    // One loop at 30fps is under one frame, this leaves plenty of room if the main loop stalls
+    static final int QUEUE_SIZE = 32;
+
+    private final VisionObservationQueue queue = new VisionObservationQueue(QUEUE_SIZE);
+    private final Supplier<DrivetrainIOSim.TruePose> groundTruth;
+    private final SimulatedCameraThread cameraThread;
+
+    // The arrays the observations are copied into, reused instead of made new every loop, see InputArrayPool
+    private final InputArrayPool timestampPool = new InputArrayPool(QUEUE_SIZE);
+    private final InputArrayPool xPool = new InputArrayPool(QUEUE_SIZE);
+    private final InputArrayPool yPool = new InputArrayPool(QUEUE_SIZE);
+    private final InputArrayPool headingPool = new InputArrayPool(QUEUE_SIZE);
+    private final InputArrayPool tagCountPool = new InputArrayPool(QUEUE_SIZE);
+    private final InputArrayPool averageTagDistancePool = new InputArrayPool(QUEUE_SIZE);
+    private final InputArrayPool ambiguityPool = new InputArrayPool(QUEUE_SIZE);
+
+    public VisionIOSim(Supplier<DrivetrainIOSim.TruePose> groundTruth) {
+        this(groundTruth, DEFAULT_FRAMES_PER_SECOND, DEFAULT_MIN_LATENCY_SECONDS, DEFAULT_MAX_LATENCY_SECONDS,
+            DEFAULT_PROCESSING_SECONDS);
+    }
+
+    /**
+     * @param processingSeconds CPU time each frame burns, set this above 0 to see what running the
+     *     pipeline on the roboRIO would cost the main loop
+     */
+    public VisionIOSim(Supplier<DrivetrainIOSim.TruePose> groundTruth, double framesPerSecond,
+            double minLatencySeconds, double maxLatencySeconds, double processingSeconds) {
+        this.groundTruth = groundTruth;
+        cameraThread = new SimulatedCameraThread(
+            queue,
+            AprilTagFieldLayout.loadField(AprilTagFields.kDefaultField),
+            ROBOT_TO_CAMERA,
+            framesPerSecond,
+            minLatencySeconds,
+            maxLatencySeconds,
+            processingSeconds,
+            0);
+        cameraThread.start();
+    }
+
+    @Override
+    public void updateInputs(VisionIOInputs inputs) {
+        // The camera thread takes its pictures by sim time, so it hears about every step of the sim
+        // loop. What it sees now shows up in a later loop, after its latency
+        cameraThread.step(groundTruth.get());
+
+        // Grab everything the camera thread has seen since last loop
+        int count = queue.size();
+        inputs.connected = cameraThread.isAlive();
+        inputs.observationTimestamps = timestampPool.next(count);
+        inputs.observationXMeters = xPool.next(count);
+        inputs.observationYMeters = yPool.next(count);
+        inputs.observationHeadingRadians = headingPool.next(count);
+        inputs.observationTagCounts = tagCountPool.nextInt(count);
+        inputs.observationAverageTagDistanceMeters = averageTagDistancePool.next(count);
+        inputs.observationAmbiguities = ambiguityPool.next(count);
+        queue.drain(inputs.observationTimestamps, inputs.observationXMeters, inputs.observationYMeters,
+            inputs.observationHeadingRadians, inputs.observationTagCounts, inputs.observationAverageTagDistanceMeters,
+            inputs.observationAmbiguities);
+        inputs.droppedObservations = queue.getDroppedCount();
+    }
+}
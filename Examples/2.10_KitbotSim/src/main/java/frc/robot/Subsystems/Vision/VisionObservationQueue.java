@@ -0,0 +1,81 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Vision;
+
+import frc.robot.Utils.SpscQueue;
+
+/**
+ * A fixed size queue of pose observations shared between a camera thread (which writes them) and
+ * the main robot loop (which reads them).
+ *
+ * <p>This works just like {@code OdometrySampleQueue}: exactly one writer thread and one reader
+ * thread, no locks, and no allocation after it's constructed. See {@link SpscQueue}.
+ */
+public class VisionObservationQueue extends SpscQueue {
+    // Observations are stored in parallel arrays instead of an array of objects so we don't make garbage
+    private final double[] timestamps;
+    private final double[] xMeters;
+    private final double[] yMeters;
+    private final double[] headingRadians;
+    private final int[] tagCounts;
+    private final double[] averageTagDistances;
+    private final double[] ambiguities;
+
+    public VisionObservationQueue(int capacity) {
+        super(capacity);
+        timestamps = new double[capacity];
+        xMeters = new double[capacity];
+        yMeters = new double[capacity];
+        headingRadians = new double[capacity];
+        tagCounts = new int[capacity];
+        averageTagDistances = new double[capacity];
+        ambiguities = new double[capacity];
+    }
+
+    /**
+     * Adds an observation to the queue. Only call this from the writer thread.
+     *
+     * @return false if the queue was full and the observation was dropped
+     */
+    public boolean offer(double timestamp, double x, double y, double heading, int tagCount,
+            double averageTagDistance, double ambiguity) {
+        int index = startOffer();
+        if (index < 0) {
+            return false;
+        }
+        timestamps[index] = timestamp;
+        xMeters[index] = x;
+        yMeters[index] = y;
+        headingRadians[index] = heading;
+        tagCounts[index] = tagCount;
+        averageTagDistances[index] = averageTagDistance;
+        ambiguities[index] = ambiguity;
+        finishOffer();
+        return true;
+    }
+
+    /**
+     * Copies queued observations into the given arrays and removes them from the queue. Only call
+     * this from the reader thread.
+     *
+     * @return how many observations were copied, never more than the length of the arrays
+     */
+    public int drain(double[] timestamps, double[] xMeters, double[] yMeters, double[] headingRadians,
+            int[] tagCounts, double[] averageTagDistances, double[] ambiguities) {
+        int count = startDrain(timestamps.length);
+        for (int i = 0; i < count; i++) {
+            int index = drainSlot(i);
+            timestamps[i] = this.timestamps[index];
+            xMeters[i] = this.xMeters[index];
+            yMeters[i] = this.yMeters[index];
+            headingRadians[i] = this.headingRadians[index];
+            tagCounts[i] = this.tagCounts[index];
+            averageTagDistances[i] = this.averageTagDistances[index];
+            ambiguities[i] = this.ambiguities[index];
+        }
+        finishDrain(count);
+        return count;
+    }
+}
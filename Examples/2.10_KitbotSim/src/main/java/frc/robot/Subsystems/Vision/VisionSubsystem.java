@@ -0,0 +1,88 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Vision;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.Robot;
+import frc.robot.Subsystems.Drivetrain.DrivetrainSubsystem;
+import frc.robot.Utils.LoopTimer;
+
+public class VisionSubsystem extends SubsystemBase {
+  // Single tag observations more ambiguous than this might be the wrong one of two poses
+  static final double MAX_AMBIGUITY = 0.3;
+  // How much to trust an observation from one tag one meter away
+  // Trust drops off with distance squared and goes up with more tags
+  static final double XY_STD_DEV_COEFFICIENT = 0.02;
+  static final double THETA_STD_DEV_COEFFICIENT = 0.06;
+
+  private final DrivetrainSubsystem drivetrain;
+
+  // We don't have a camera on the real robot yet, so only the sim makes observations
+  VisionIO io;
+  VisionIOInputsAutoLogged inputs = new VisionIOInputsAutoLogged();
+
+  LoopTimer periodicTimer = new LoopTimer("Vision/Periodic");
+
+  /** Where accepted observations go, the same arguments as {@link DrivetrainSubsystem#addVisionMeasurement}. */
+  public interface MeasurementConsumer {
+    void accept(double xMeters, double yMeters, double headingRadians, double timestamp,
+        double stdDevXY, double stdDevTheta);
+  }
+
+  /** Creates a new Vision subsystem that sends its observations to the drivetrain. */
+  public VisionSubsystem(DrivetrainSubsystem drivetrain) {
+    this.drivetrain = drivetrain;
+    io = Robot.isReal() || Robot.REPLAY ? new VisionIOReplay() : new VisionIOSim(drivetrain::getSimTruePose);
+  }
+
+  @Override
+  public void periodic() {
+    long periodicStart = periodicTimer.start();
+
+    io.updateInputs(inputs);
+    Logger.processInputs("Vision", inputs);
+
+    // The drivetrain fuses these next loop, rewinding to when each picture was taken
+    int accepted = addObservations(inputs, drivetrain::addVisionMeasurement);
+    Logger.recordOutput("Vision/AcceptedCount", accepted);
+    Logger.recordOutput("Vision/RejectedCount", inputs.observationTimestamps.length - accepted);
+    // How old the newest picture was by the time we got it
+    if (inputs.observationTimestamps.length > 0) {
+      Logger.recordOutput("Vision/LatencyMS",
+          (Timer.getFPGATimestamp() - inputs.observationTimestamps[inputs.observationTimestamps.length - 1]) * 1000.0);
+    }
+
+    periodicTimer.stop(periodicStart);
+  }
+
+  /**
+   * Throws out observations we don't trust and passes the rest on with how much to trust them. The
+   * drivetrain's replay regression uses this too, so it sees the same observations the robot did.
+   *
+   * @return how many were accepted
+   */
+  public static int addObservations(VisionIO.VisionIOInputs inputs, MeasurementConsumer consumer) {
+    int accepted = 0;
+    for (int i = 0; i < inputs.observationTimestamps.length; i++) {
+      if (inputs.observationTagCounts[i] == 1 && inputs.observationAmbiguities[i] > MAX_AMBIGUITY) {
+        continue;
+      }
+      double distance = inputs.observationAverageTagDistanceMeters[i];
+      double trust = distance * distance / inputs.observationTagCounts[i];
+      consumer.accept(
+          inputs.observationXMeters[i],
+          inputs.observationYMeters[i],
+          inputs.observationHeadingRadians[i],
+          inputs.observationTimestamps[i],
+          XY_STD_DEV_COEFFICIENT * trust,
+          THETA_STD_DEV_COEFFICIENT * trust);
+      accepted++;
+    }
+    return accepted;
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot;
+
+import java.util.function.DoubleUnaryOperator;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
+import edu.wpi.first.wpilibj2.command.button.Trigger;
+import frc.robot.Subsystems.Drivetrain.DrivetrainSubsystem;
+import frc.robot.Utils.StateMachine;
+
+/**
+ * Coordinates what the robot is doing with a state machine, see the Superstructure-Triggers
+ * writeup.
+ *
+ * <p>The kitbot only has a drivetrain, so the states are just different ways of driving. A robot
+ * with an intake or shooter would add states like INTAKE and SHOOT here, and bind each mechanism's
+ * commands to the states it's used in.
+ */
+public class Superstructure {
+  public enum SuperState {
+    IDLE,
+    // Plain voltages, this is just the drivetrain's default command
+    DRIVE,
+    // Plain voltages at reduced speed, for lining up
+    SLOW_DRIVE,
+    // The Talons' velocity control, to try out and compare against voltages while the gains get fitted
+    VELOCITY_DRIVE,
+    // Drives itself to a spot on the field, along a path made on the fly
+    DRIVE_TO_POSE
+  }
+
+  // How much of full speed slow mode allows
+  static final double SLOW_DRIVE_SCALE = 0.4;
+  // Where DRIVE_TO_POSE goes, the same spot DriveForward starts from
+  static final Pose2d DRIVE_TO_POSE_TARGET = new Pose2d(2.0, 4.0, Rotation2d.kZero);
+
+  private final StateMachine<SuperState> stateMachine =
+      new StateMachine<>("Superstructure", SuperState.class, SuperState.IDLE);
+
+  public Superstructure(DrivetrainSubsystem drivetrain, CommandXboxController controller,
+      DoubleUnaryOperator modifyJoystick) {
+    Trigger slowRequest = controller.rightBumper();
+    Trigger velocityRequest = controller.leftBumper();
+    Trigger driveToPoseRequest = controller.b();
+
+    stateMachine
+        // Disabling always wins, so it goes first
+        .addTransitionFromAny(SuperState.IDLE, DriverStation::isDisabled)
+        .addTransition(SuperState.IDLE, SuperState.DRIVE, DriverStation::isEnabled)
+        .addTransition(SuperState.DRIVE, SuperState.SLOW_DRIVE, slowRequest)
+        .addTransition(SuperState.DRIVE, SuperState.VELOCITY_DRIVE, velocityRequest)
+        .addTransition(SuperState.DRIVE, SuperState.DRIVE_TO_POSE, driveToPoseRequest)
+        .addTransition(SuperState.SLOW_DRIVE, SuperState.DRIVE, slowRequest.negate())
+        .addTransition(SuperState.VELOCITY_DRIVE, SuperState.DRIVE, velocityRequest.negate())
+        // Letting go stops it, and cancels the path if it's still being made
+        .addTransition(SuperState.DRIVE_TO_POSE, SuperState.DRIVE, driveToPoseRequest.negate());
+
+    // DRIVE and IDLE use the drivetrain's default command, so they don't need anything bound
+    stateMachine.stateTrigger(SuperState.SLOW_DRIVE).whileTrue(
+        drivetrain.setVoltagesArcadeCommand(
+            () -> SLOW_DRIVE_SCALE * modifyJoystick.applyAsDouble(controller.getLeftY()),
+            () -> SLOW_DRIVE_SCALE * modifyJoystick.applyAsDouble(controller.getRightX())));
+    stateMachine.stateTrigger(SuperState.VELOCITY_DRIVE).whileTrue(
+        drivetrain.setVelocityArcadeCommand(
+            () -> modifyJoystick.applyAsDouble(controller.getLeftY()),
+            () -> modifyJoystick.applyAsDouble(controller.getRightX())));
+    stateMachine.stateTrigger(SuperState.DRIVE_TO_POSE).whileTrue(
+        drivetrain.driveToPoseCommand(() -> DRIVE_TO_POSE_TARGET));
+  }
+
+  public SuperState getState() {
+    return stateMachine.getState();
+  }
+}
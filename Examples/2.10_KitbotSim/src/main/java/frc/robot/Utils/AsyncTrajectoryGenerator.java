@@ -0,0 +1,157 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.trajectory.Trajectory;
+import edu.wpi.first.math.trajectory.TrajectoryConfig;
+import edu.wpi.first.math.trajectory.TrajectoryGenerator;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+
+/**
+ * Makes trajectories on background threads, so the main loop never waits on one.
+ *
+ * <p>Generating a path to somewhere on the field can take tens of milliseconds, which is a whole
+ * loop or more. Here {@link #generate} hands the work to a small pool of threads and returns a
+ * future right away. The command following the path checks the future each loop and starts driving
+ * once it's done. The pool only has a few threads and a short queue, so asking for a lot of paths
+ * at once fails the extra ones instead of piling up work. Cancelling a future takes it out of the
+ * queue right away if it hasn't started yet, so it stops counting against the queue size.
+ *
+ * <p>Logs how long requests waited in the queue and how long generating took as {@link LoopTimer}s,
+ * plus how many requests finished each way, all under the generator's name.
+ */
+public class AsyncTrajectoryGenerator {
+    private enum Outcome {
+        COMPLETED,
+        FAILED,
+        CANCELLED,
+        REJECTED
+    }
+
+    // Filled in by the worker threads, read on the main thread, so timing goes through a queue
+    private record Result(Outcome outcome, double queueWaitMs, double generationMs) {}
+
+    private final TrajectoryConfig config;
+    private final double periodSeconds;
+    private final double trackWidthMeters;
+    private final ThreadPoolExecutor pool;
+    private final ConcurrentLinkedQueue<Result> results = new ConcurrentLinkedQueue<>();
+
+    private final LoopTimer queueWaitTimer;
+    private final LoopTimer generationTimer;
+    private final long[] outcomeCounts = new long[Outcome.values().length];
+    private final String[] outcomeKeys = new String[Outcome.values().length];
+    private final String pendingKey;
+
+    /**
+     * @param threads how many paths can be generated at once, keep this small, the roboRIO only has
+     *     two cores and the main loop needs one
+     * @param queueSize how many requests can wait for a thread before new ones are turned away
+     * @param periodSeconds how far apart the samples in the finished trajectory are
+     * @param trackWidthMeters for splitting the speed into wheel speeds
+     */
+    public AsyncTrajectoryGenerator(String name, TrajectoryConfig config, int threads, int queueSize,
+            double periodSeconds, double trackWidthMeters) {
+        this.config = config;
+        this.periodSeconds = periodSeconds;
+        this.trackWidthMeters = trackWidthMeters;
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, name + "Worker");
+                // Daemon threads don't keep the program alive when the robot code exits
+                thread.setDaemon(true);
+                // Lower than the main loop, so generating never steals time from it
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+
+        queueWaitTimer = new LoopTimer(name + "/QueueWait");
+        generationTimer = new LoopTimer(name + "/Generation");
+        for (Outcome outcome : Outcome.values()) {
+            String outcomeName = outcome.name().charAt(0) + outcome.name().substring(1).toLowerCase();
+            outcomeKeys[outcome.ordinal()] = name + "/" + outcomeName + "Count";
+        }
+        pendingKey = name + "/Pending";
+
+        // Logs results once per loop, same as the state machines
+        CommandScheduler.getInstance().getDefaultButtonLoop().bind(this::publishResults);
+    }
+
+    /**
+     * Starts generating a path in the background.
+     *
+     * @return finishes with the trajectory, or fails if generating it failed or the queue was full
+     */
+    public CompletableFuture<MappedTrajectory> generate(Pose2d start, List<Translation2d> interiorWaypoints, Pose2d end) {
+        long submitNanos = System.nanoTime();
+        CompletableFuture<MappedTrajectory> future = new CompletableFuture<>();
+        try {
+            Future<?> task = pool.submit(() -> {
+                double queueWaitMs = (System.nanoTime() - submitNanos) / 1e6;
+                if (future.isDone()) {
+                    // Cancelled after it started running but before we got here
+                    return;
+                }
+                long generationStart = System.nanoTime();
+                try {
+                    Trajectory trajectory = TrajectoryGenerator.generateTrajectory(start, interiorWaypoints, end, config);
+                    MappedTrajectory mapped = MappedTrajectory.fromTrajectory("Generated", trajectory, periodSeconds, trackWidthMeters);
+                    double generationMs = (System.nanoTime() - generationStart) / 1e6;
+                    // If it was cancelled while we were working, it's already been counted as cancelled
+                    if (future.complete(mapped)) {
+                        results.add(new Result(Outcome.COMPLETED, queueWaitMs, generationMs));
+                    }
+                } catch (RuntimeException e) {
+                    double generationMs = (System.nanoTime() - generationStart) / 1e6;
+                    if (future.completeExceptionally(e)) {
+                        results.add(new Result(Outcome.FAILED, queueWaitMs, generationMs));
+                    }
+                }
+            });
+            // Cancelling the future pulls the task out of the queue if it's still waiting. Cancelling the
+            // task alone only marks it, it would sit in the queue taking up a spot until a thread got to
+            // it, so we remove it too. submit() queues the task itself, so it's the Runnable to remove
+            future.whenComplete((trajectory, error) -> {
+                if (future.isCancelled()) {
+                    task.cancel(false);
+                    pool.remove((Runnable) task);
+                    results.add(new Result(Outcome.CANCELLED, 0.0, 0.0));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            results.add(new Result(Outcome.REJECTED, 0.0, 0.0));
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void publishResults() {
+        Result result;
+        while ((result = results.poll()) != null) {
+            outcomeCounts[result.outcome().ordinal()]++;
+            if (result.outcome() == Outcome.COMPLETED || result.outcome() == Outcome.FAILED) {
+                queueWaitTimer.record(result.queueWaitMs());
+                generationTimer.record(result.generationMs());
+            }
+        }
+        for (int i = 0; i < outcomeKeys.length; i++) {
+            Logger.recordOutput(outcomeKeys[i], outcomeCounts[i]);
+        }
+        Logger.recordOutput(pendingKey, pool.getQueue().size() + pool.getActiveCount());
+    }
+}
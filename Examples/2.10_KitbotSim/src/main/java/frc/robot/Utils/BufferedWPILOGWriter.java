@@ -0,0 +1,484 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.littletonrobotics.junction.LogDataReceiver;
+import org.littletonrobotics.junction.LogTable;
+import org.littletonrobotics.junction.LogTable.LogValue;
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * Writes AdvantageKit logs to a {@code .wpilog} file without ever waiting on the disk.
+ *
+ * <p>Cheap or failing USB sticks can take hundreds of milliseconds to finish a write. AdvantageKit's
+ * own writer waits for each one, and once its queue fills up whole loops of data are thrown away.
+ * This writer encodes each loop into large blocks of memory, and a separate thread writes full
+ * blocks to the file in big sequential writes, which is what flash drives are fastest at.
+ *
+ * <p>There's a fixed number of blocks. If the disk falls so far behind that most of them are waiting
+ * to be written, fields marked as low priority are only logged every few loops until it catches
+ * up. If every block is full, the loop is dropped and counted instead of waiting. Queue depth, write
+ * speed and drops can be logged with {@link #recordMetrics()}.
+ */
+public class BufferedWPILOGWriter implements LogDataReceiver {
+    private static final int BLOCK_SIZE_BYTES = 128 * 1024;
+    private static final int BLOCK_COUNT = 16;
+    // Once this few blocks are free, start skipping low priority fields
+    private static final int DECIMATE_BELOW_FREE_BLOCKS = BLOCK_COUNT / 4;
+    // While decimating, low priority fields are only logged every this many loops
+    private static final int DECIMATION_FACTOR = 10;
+    // Hand a partly full block to the disk after this long so a crash doesn't lose much data
+    private static final long FLUSH_PERIOD_MICROS = 1_000_000;
+    // How long end() waits for the disk to finish, a stick that's stopped answering doesn't hang shutdown
+    private static final long END_TIMEOUT_MILLIS = 5000;
+
+    private static final String TIMESTAMP_KEY = "/Timestamp";
+    private static final String METADATA = "{\"source\":\"AdvantageKit\"}";
+
+    private final String folder;
+    private final String[] lowPriorityPrefixes;
+
+    private final ArrayBlockingQueue<ByteBuffer> freeBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT);
+    // One extra spot, so END_OF_LOG always fits behind every block
+    private final ArrayBlockingQueue<ByteBuffer> fullBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+    // Queued by end() after the last block, the writer thread stops when it gets to it
+    private static final ByteBuffer END_OF_LOG = ByteBuffer.allocate(0);
+    private ByteBuffer currentBlock;
+    private long lastHandoffMicros = 0;
+
+    // One loop is encoded here first, so a loop is either written completely or not at all
+    private ByteBuffer scratch = ByteBuffer.allocate(16 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final HashMap<String, Integer> entryIds = new HashMap<>();
+    private final HashMap<String, LogValue> lastValues = new HashMap<>();
+    private final ArrayList<String> newEntriesThisLoop = new ArrayList<>();
+    private int nextEntryId = 1;
+    private long loopCount = 0;
+
+    private Thread writerThread;
+    private FileChannel channel;
+    // Set when the file couldn't be opened, like with no USB stick in, then this writer does nothing
+    private boolean disabled = false;
+
+    // The file starts with a random name, and is renamed once we know the date and the match, see
+    // updateFileName. Only the writer thread touches the file itself, so it does the renaming
+    private Path filePath;
+    private LocalDateTime logDate = null;
+    private String matchText = null;
+    private final AtomicReference<String> pendingFileName = new AtomicReference<>();
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong droppedLoops = new AtomicLong();
+    private final AtomicLong decimatedFields = new AtomicLong();
+    private volatile double bytesPerSecond = 0.0;
+
+    /**
+     * @param folder where to create the log file
+     * @param lowPriorityPrefixes keys starting with any of these (like {@code "RealOutputs/LoopTiming/"})
+     *     are the first to be skipped when the disk can't keep up
+     */
+    public BufferedWPILOGWriter(String folder, String... lowPriorityPrefixes) {
+        this.folder = folder;
+        this.lowPriorityPrefixes = lowPriorityPrefixes;
+    }
+
+    /**
+     * Opens a new log file. If it can't, like when there's no USB stick in on a practice field, this
+     * reports it once and the writer does nothing from then on. Throwing here would stop AdvantageKit's
+     * receiver thread, and with it NetworkTables, or even keep the robot from booting.
+     */
+    @Override
+    public void start() {
+        try {
+            Files.createDirectories(Path.of(folder));
+            // The roboRIO's clock isn't set until the driver station connects, so the time now could be
+            // anything, even the same as an old log. A random name that has to be new never overwrites one
+            for (int attempt = 0; channel == null; attempt++) {
+                filePath = Path.of(folder, String.format("akit_%08x.wpilog", ThreadLocalRandom.current().nextInt()));
+                try {
+                    channel = FileChannel.open(filePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                } catch (FileAlreadyExistsException e) {
+                    if (attempt >= 10) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            DriverStation.reportError("Not logging to a file, couldn't open a log in " + folder + ": " + e, false);
+            disabled = true;
+            return;
+        }
+
+        // All the memory we'll ever use is allocated up front
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            freeBlocks.add(ByteBuffer.allocateDirect(BLOCK_SIZE_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+        }
+        currentBlock = freeBlocks.poll();
+
+        // Header: "WPILOG", version 1.0, then an extra header string
+        byte[] extraHeader = "AdvantageKit".getBytes(StandardCharsets.UTF_8);
+        currentBlock.put("WPILOG".getBytes(StandardCharsets.US_ASCII));
+        currentBlock.putShort((short) 0x0100);
+        currentBlock.putInt(extraHeader.length);
+        currentBlock.put(extraHeader);
+
+        writerThread = new Thread(this::writeLoop, "BufferedWPILOGWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void end() {
+        if (disabled) {
+            return;
+        }
+        handOff(lastHandoffMicros);
+        // Interrupting the writer in the middle of a write would close the file on it with a
+        // ClosedByInterruptException, so it's told to stop by a marker behind the last block instead
+        fullBlocks.add(END_OF_LOG);
+        try {
+            writerThread.join(END_TIMEOUT_MILLIS);
+            channel.close();
+        } catch (InterruptedException | IOException e) {
+            // We're shutting down anyway
+        }
+    }
+
+    /** Called by AdvantageKit's receiver thread once per loop. */
+    @Override
+    public void putTable(LogTable table) {
+        if (disabled) {
+            return;
+        }
+        long timestamp = table.getTimestamp();
+        updateFileName(table);
+        boolean decimate = freeBlocks.size() < DECIMATE_BELOW_FREE_BLOCKS && loopCount % DECIMATION_FACTOR != 0;
+        loopCount++;
+
+        // Encode the loop into the scratch buffer
+        scratch.clear();
+        newEntriesThisLoop.clear();
+        Integer timestampId = entryIds.get(TIMESTAMP_KEY);
+        if (timestampId == null) {
+            timestampId = startEntry(TIMESTAMP_KEY, "int64", timestamp);
+            entryIds.put(TIMESTAMP_KEY, timestampId);
+            newEntriesThisLoop.add(TIMESTAMP_KEY);
+        }
+        beginRecord(timestampId, timestamp, 8);
+        scratch.putLong(timestamp);
+
+        for (Map.Entry<String, LogValue> field : table.getAll(false).entrySet()) {
+            String key = field.getKey();
+            LogValue value = field.getValue();
+            // Like AdvantageKit's writer, only log values that changed
+            if (value.equals(lastValues.get(key))) {
+                continue;
+            }
+            if (decimate && isLowPriority(key)) {
+                decimatedFields.incrementAndGet();
+                continue;
+            }
+            Integer id = entryIds.get(key);
+            if (id == null) {
+                id = startEntry(key.startsWith("/") ? key : "/" + key, value.getWPILOGType(), timestamp);
+                entryIds.put(key, id);
+                newEntriesThisLoop.add(key);
+            }
+            writeValue(id, timestamp, value);
+            lastValues.put(key, value);
+        }
+        scratch.flip();
+
+        // Copy the loop into the current block, grabbing a new block if it doesn't fit
+        if (scratch.remaining() > currentBlock.remaining()) {
+            ByteBuffer next = freeBlocks.poll();
+            if (next == null || scratch.remaining() > next.capacity()) {
+                if (next != null) {
+                    freeBlocks.add(next);
+                }
+                dropLoop();
+                return;
+            }
+            handOff(timestamp);
+            currentBlock = next;
+        }
+        currentBlock.put(scratch);
+
+        if (timestamp - lastHandoffMicros > FLUSH_PERIOD_MICROS && freeBlocks.size() > 0) {
+            handOff(timestamp);
+            currentBlock = freeBlocks.poll();
+        }
+    }
+
+    /**
+     * Works out the file's real name once we know it, like AdvantageKit's own writer: the date once the
+     * driver station has set the clock, then the event and match once the FMS tells us. The writer
+     * thread does the rename, so a slow stick never holds up this thread.
+     */
+    private void updateFileName(LogTable table) {
+        if (matchText != null) {
+            return;
+        }
+        boolean changed = false;
+        if (logDate == null && RobotController.isSystemTimeValid()) {
+            logDate = LocalDateTime.now();
+            changed = true;
+        }
+        String matchPrefix = switch (table.get("DriverStation/MatchType", 0)) {
+            case 1 -> "p";
+            case 2 -> "q";
+            case 3 -> "e";
+            default -> null;
+        };
+        if (logDate != null && matchPrefix != null) {
+            matchText = table.get("DriverStation/EventName", "").toLowerCase() + "_" + matchPrefix
+                + table.get("DriverStation/MatchNumber", 0);
+            changed = true;
+        }
+        if (changed) {
+            String name = "akit_" + logDate.format(DateTimeFormatter.ofPattern("yy-MM-dd_HH-mm-ss"));
+            pendingFileName.set((matchText == null ? name : name + "_" + matchText) + ".wpilog");
+        }
+    }
+
+    /** Forgets everything this loop would have written so the next loop can start cleanly. */
+    private void dropLoop() {
+        droppedLoops.incrementAndGet();
+        for (String key : newEntriesThisLoop) {
+            entryIds.remove(key);
+        }
+        nextEntryId -= newEntriesThisLoop.size();
+        // We don't know which values made it to the file, so write everything again next time
+        lastValues.clear();
+    }
+
+    /** Sends the current block to the writer thread. */
+    private void handOff(long timestamp) {
+        currentBlock.flip();
+        fullBlocks.add(currentBlock);
+        lastHandoffMicros = timestamp;
+    }
+
+    private boolean isLowPriority(String key) {
+        int start = key.startsWith("/") ? 1 : 0;
+        for (String prefix : lowPriorityPrefixes) {
+            if (key.startsWith(prefix, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Runs on its own thread, writing full blocks to the file in order. */
+    private void writeLoop() {
+        long windowStartNanos = System.nanoTime();
+        long windowBytes = 0;
+        while (true) {
+            ByteBuffer block;
+            try {
+                block = fullBlocks.take();
+            } catch (InterruptedException e) {
+                // Nothing interrupts this thread on purpose, end() uses END_OF_LOG
+                continue;
+            }
+            renameFile();
+            if (block == END_OF_LOG) {
+                return;
+            }
+            try {
+                int size = block.remaining();
+                while (block.hasRemaining()) {
+                    channel.write(block);
+                }
+                bytesWritten.addAndGet(size);
+                windowBytes += size;
+            } catch (IOException e) {
+                // The USB stick is gone, the data in this block is lost but the robot keeps running
+            }
+            block.clear();
+            freeBlocks.add(block);
+
+            long now = System.nanoTime();
+            if (now - windowStartNanos > 1_000_000_000L) {
+                bytesPerSecond = windowBytes / ((now - windowStartNanos) / 1e9);
+                windowStartNanos = now;
+                windowBytes = 0;
+            }
+        }
+    }
+
+    /** Gives the file the name updateFileName picked, on the writer thread. */
+    private void renameFile() {
+        String name = pendingFileName.getAndSet(null);
+        if (name == null) {
+            return;
+        }
+        Path target = filePath.resolveSibling(name);
+        try {
+            // Linux lets us rename the file while it's open, and writes keep going to the same file
+            // Without REPLACE_EXISTING this never overwrites an old log, we'd just keep the random name
+            Files.move(filePath, target);
+            filePath = target;
+        } catch (IOException e) {
+            // The data is safe under the old name either way
+        }
+    }
+
+    /** Logs how the writer is keeping up, call from the main loop. */
+    public void recordMetrics() {
+        Logger.recordOutput("LogWriter/QueuedBlocks", fullBlocks.size());
+        Logger.recordOutput("LogWriter/BytesPerSecond", bytesPerSecond);
+        Logger.recordOutput("LogWriter/BytesWritten", bytesWritten.get());
+        Logger.recordOutput("LogWriter/DroppedLoops", droppedLoops.get());
+        Logger.recordOutput("LogWriter/DecimatedFields", decimatedFields.get());
+    }
+
+    // ---- WPILOG encoding, see WPILib's datalog.adoc ----
+
+    private void ensureScratch(int bytes) {
+        if (scratch.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + bytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+            scratch.flip();
+            bigger.put(scratch);
+            scratch = bigger;
+        }
+    }
+
+    private static int byteLength(long value) {
+        int length = 1;
+        while (length < 8 && (value >>> (8 * length)) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private void putVarLong(long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            scratch.put((byte) (value >>> (8 * i)));
+        }
+    }
+
+    /** Writes a record header, the caller then writes exactly {@code size} bytes of payload. */
+    private void beginRecord(int entry, long timestamp, int size) {
+        int entryLength = Math.min(byteLength(entry), 4);
+        int sizeLength = Math.min(byteLength(size), 4);
+        int timestampLength = byteLength(timestamp);
+        ensureScratch(1 + entryLength + sizeLength + timestampLength + size);
+        scratch.put((byte) ((entryLength - 1) | ((sizeLength - 1) << 2) | ((timestampLength - 1) << 4)));
+        putVarLong(entry, entryLength);
+        putVarLong(size, sizeLength);
+        putVarLong(timestamp, timestampLength);
+    }
+
+    private int startEntry(String name, String type, long timestamp) {
+        int id = nextEntryId++;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        byte[] metadataBytes = METADATA.getBytes(StandardCharsets.UTF_8);
+        beginRecord(0, timestamp, 1 + 4 + 4 + nameBytes.length + 4 + typeBytes.length + 4 + metadataBytes.length);
+        scratch.put((byte) 0); // Start control record
+        scratch.putInt(id);
+        scratch.putInt(nameBytes.length).put(nameBytes);
+        scratch.putInt(typeBytes.length).put(typeBytes);
+        scratch.putInt(metadataBytes.length).put(metadataBytes);
+        return id;
+    }
+
+    private void writeValue(int id, long timestamp, LogValue value) {
+        switch (value.type) {
+            case Raw -> {
+                byte[] raw = value.getRaw();
+                beginRecord(id, timestamp, raw.length);
+                scratch.put(raw);
+            }
+            case Boolean -> {
+                beginRecord(id, timestamp, 1);
+                scratch.put((byte) (value.getBoolean() ? 1 : 0));
+            }
+            case Integer -> {
+                beginRecord(id, timestamp, 8);
+                scratch.putLong(value.getInteger());
+            }
+            case Float -> {
+                beginRecord(id, timestamp, 4);
+                scratch.putFloat(value.getFloat());
+            }
+            case Double -> {
+                beginRecord(id, timestamp, 8);
+                scratch.putDouble(value.getDouble());
+            }
+            case String -> {
+                byte[] bytes = value.getString().getBytes(StandardCharsets.UTF_8);
+                beginRecord(id, timestamp, bytes.length);
+                scratch.put(bytes);
+            }
+            case BooleanArray -> {
+                boolean[] values = value.getBooleanArray();
+                beginRecord(id, timestamp, values.length);
+                for (boolean v : values) {
+                    scratch.put((byte) (v ? 1 : 0));
+                }
+            }
+            case IntegerArray -> {
+                long[] values = value.getIntegerArray();
+                beginRecord(id, timestamp, values.length * 8);
+                for (long v : values) {
+                    scratch.putLong(v);
+                }
+            }
+            case FloatArray -> {
+                float[] values = value.getFloatArray();
+                beginRecord(id, timestamp, values.length * 4);
+                for (float v : values) {
+                    scratch.putFloat(v);
+                }
+            }
+            case DoubleArray -> {
+                double[] values = value.getDoubleArray();
+                beginRecord(id, timestamp, values.length * 8);
+                for (double v : values) {
+                    scratch.putDouble(v);
+                }
+            }
+            case StringArray -> {
+                String[] values = value.getStringArray();
+                byte[][] encoded = new byte[values.length][];
+                int size = 4;
+                for (int i = 0; i < values.length; i++) {
+                    encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                    size += 4 + encoded[i].length;
+                }
+                beginRecord(id, timestamp, size);
+                scratch.putInt(values.length);
+                for (byte[] bytes : encoded) {
+                    scratch.putInt(bytes.length).put(bytes);
+                }
+            }
+        }
+    }
+}
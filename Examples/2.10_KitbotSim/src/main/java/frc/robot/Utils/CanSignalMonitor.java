@@ -0,0 +1,209 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.ArrayList;
+
+import org.littletonrobotics.junction.Logger;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
+import com.ctre.phoenix6.Timestamp;
+import com.ctre.phoenix6.Utils;
+
+/**
+ * Keeps an eye on CAN status signals, so we notice when a device stops talking to us.
+ *
+ * <p>{@code refreshAll} happily hands back the last value it got, even if that value is a second
+ * old because the device unplugged. This checks every signal after it's refreshed:
+ *
+ * <ul>
+ *   <li>{@code Connected}: every signal refreshed without an error
+ *   <li>{@code Stale}: some signal hasn't had a new frame in {@link #STALE_PERIODS} update periods
+ *   <li>{@code MaxAgeMS}: how long ago the oldest signal's frame arrived
+ *   <li>{@code MaxLatencyMS}: how long ago the oldest signal was measured, from the device's own
+ *       timestamp when it has one (CANivore with Pro), otherwise the same as the age
+ *   <li>{@code UpdateRateHz}: how many new frames per second the slowest signal got, next to
+ *       {@code ExpectedUpdateRateHz}, the rate it's set to or how often we check, whichever is lower
+ *   <li>{@code Status}: the last error, or OK
+ * </ul>
+ *
+ * <p>These are logged per device under {@code CANHealth/}. They're outputs, since they describe the
+ * hardware, not anything replay could recompute. Pass {@link Device#isConnected()} and
+ * {@link Device#isStale()} through the IO inputs so the code that uses the data sees them in replay.
+ */
+public class CanSignalMonitor {
+    // A signal that's missed this many updates in a row is stale
+    public static final double STALE_PERIODS = 3.0;
+    // How long we count frames for before working out the update rate
+    public static final double RATE_WINDOW_SECONDS = 1.0;
+
+    /** The signals from one device, checked together. */
+    public static class Device {
+        private final ArrayList<BaseStatusSignal> signalList = new ArrayList<>();
+        private final ArrayList<Double> frequencyList = new ArrayList<>();
+
+        // Copied out of the lists by compile(), so update() doesn't go through boxed Doubles
+        private BaseStatusSignal[] signals = null;
+        private double[] expectedHz;
+        private double[] lastFrameTime;
+        private int[] framesThisWindow;
+        private double[] observedHz;
+
+        private boolean connected = true;
+        private boolean stale = false;
+        private double maxAgeMs = 0.0;
+        private double maxLatencyMs = 0.0;
+        private double minRateHz = 0.0;
+        private double minExpectedRateHz = 0.0;
+        private StatusCode lastError = StatusCode.OK;
+
+        private final String connectedKey;
+        private final String staleKey;
+        private final String maxAgeKey;
+        private final String maxLatencyKey;
+        private final String rateKey;
+        private final String expectedRateKey;
+        private final String statusKey;
+
+        private Device(String name) {
+            String prefix = "CANHealth/" + name + "/";
+            connectedKey = prefix + "Connected";
+            staleKey = prefix + "Stale";
+            maxAgeKey = prefix + "MaxAgeMS";
+            maxLatencyKey = prefix + "MaxLatencyMS";
+            rateKey = prefix + "UpdateRateHz";
+            expectedRateKey = prefix + "ExpectedUpdateRateHz";
+            statusKey = prefix + "Status";
+        }
+
+        /** Watches signals that are set to update at a given rate. */
+        public Device add(double frequencyHz, BaseStatusSignal... added) {
+            if (signals != null) {
+                throw new IllegalStateException("Signals must be added before the monitor first updates");
+            }
+            for (BaseStatusSignal signal : added) {
+                signalList.add(signal);
+                frequencyList.add(frequencyHz);
+            }
+            return this;
+        }
+
+        /** True if every signal refreshed without an error last time we checked. */
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /** True if any signal has gone too long without a new frame. */
+        public boolean isStale() {
+            return stale;
+        }
+
+        private void compile() {
+            signals = signalList.toArray(new BaseStatusSignal[0]);
+            expectedHz = new double[signals.length];
+            lastFrameTime = new double[signals.length];
+            framesThisWindow = new int[signals.length];
+            observedHz = new double[signals.length];
+            for (int i = 0; i < signals.length; i++) {
+                expectedHz[i] = frequencyList.get(i);
+            }
+        }
+
+        private void update(double now, double windowSeconds, int checksThisWindow) {
+            if (signals == null) {
+                compile();
+            }
+            connected = true;
+            stale = false;
+            maxAgeMs = 0.0;
+            maxLatencyMs = 0.0;
+            for (int i = 0; i < signals.length; i++) {
+                BaseStatusSignal signal = signals[i];
+                StatusCode status = signal.getStatus();
+                if (!status.isOK()) {
+                    connected = false;
+                    lastError = status;
+                }
+
+                // When the roboRIO got the frame, and when the device says it measured the value
+                Timestamp received = signal.getAllTimestamps().getSystemTimestamp();
+                Timestamp measured = signal.getTimestamp();
+                if (received.isValid()) {
+                    double age = now - received.getTime();
+                    maxAgeMs = Math.max(maxAgeMs, age * 1000.0);
+                    if (age > STALE_PERIODS / expectedHz[i]) {
+                        stale = true;
+                    }
+                    if (received.getTime() != lastFrameTime[i]) {
+                        lastFrameTime[i] = received.getTime();
+                        framesThisWindow[i]++;
+                    }
+                } else {
+                    // We've never heard from it at all
+                    stale = true;
+                }
+                if (measured.isValid()) {
+                    maxLatencyMs = Math.max(maxLatencyMs, (now - measured.getTime()) * 1000.0);
+                }
+            }
+
+            if (windowSeconds > 0.0) {
+                // We can only see a new frame when we check, so a 250hz signal looks like 50hz
+                // when we check every 20ms. Compare against whichever is slower
+                double checkHz = checksThisWindow / windowSeconds;
+                minRateHz = Double.POSITIVE_INFINITY;
+                minExpectedRateHz = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < signals.length; i++) {
+                    observedHz[i] = framesThisWindow[i] / windowSeconds;
+                    framesThisWindow[i] = 0;
+                    minRateHz = Math.min(minRateHz, observedHz[i]);
+                    minExpectedRateHz = Math.min(minExpectedRateHz, Math.min(expectedHz[i], checkHz));
+                }
+            }
+
+            Logger.recordOutput(connectedKey, connected);
+            Logger.recordOutput(staleKey, stale);
+            Logger.recordOutput(maxAgeKey, maxAgeMs);
+            Logger.recordOutput(maxLatencyKey, maxLatencyMs);
+            Logger.recordOutput(rateKey, minRateHz);
+            Logger.recordOutput(expectedRateKey, minExpectedRateHz);
+            Logger.recordOutput(statusKey, connected ? StatusCode.OK.name() : lastError.name());
+        }
+    }
+
+    private final ArrayList<Device> devices = new ArrayList<>();
+    private double windowStart = Double.NaN;
+    private int checksThisWindow = 0;
+
+    /** Adds a device to watch, add its signals to what this returns. */
+    public Device addDevice(String name) {
+        Device device = new Device(name);
+        devices.add(device);
+        return device;
+    }
+
+    /** Checks every signal and logs each device's health. Call right after refreshing the signals. */
+    public void update() {
+        // Phoenix timestamps use this clock, not the FPGA one
+        double now = Utils.getCurrentTimeSeconds();
+        if (Double.isNaN(windowStart)) {
+            windowStart = now;
+        }
+        checksThisWindow++;
+        // The rate only gets worked out once per window, 0 means this isn't the end of one
+        double windowSeconds = 0.0;
+        if (now - windowStart >= RATE_WINDOW_SECONDS) {
+            windowSeconds = now - windowStart;
+        }
+        for (int i = 0; i < devices.size(); i++) {
+            devices.get(i).update(now, windowSeconds, checksThisWindow);
+        }
+        if (windowSeconds > 0.0) {
+            windowStart = now;
+            checksThisWindow = 0;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.ArrayList;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.TimedRobot;
+
+/**
+ * Skips sending a motor the same control request over and over.
+ *
+ * <p>Our drive code asks for an output every loop, even when it's the same 0 volts it asked for
+ * last loop. Each of those is a CAN frame, and with a lot of motors they add up. This remembers the
+ * last request sent to one motor and only says to send a new one when it changed by more than the
+ * tolerance, or when it's been long enough that the motor needs to hear from us again. Motors stop
+ * if they don't get a control frame for a while, so the keep alive should be well under that.
+ *
+ * <pre>
+ * if (leftCache.shouldSend(VOLTAGE_MODE, volts)) {
+ *     leftTalon.setControl(leftVoltage.withOutput(volts));
+ * }
+ * </pre>
+ *
+ * <p>For this to save anything, the control request needs {@code withUpdateFreqHz(0)}. Otherwise
+ * Phoenix sends it on its own timer whether we call {@code setControl} or not. How many frames were
+ * sent and skipped is logged under {@code CANControl/}, see {@link #publishAll()}.
+ */
+public class ControlRequestCache {
+    // Motors stop on their own if they go too long without a control frame, so we resend at least
+    // every 50ms (20hz) to be safe
+    public static final double DEFAULT_KEEP_ALIVE_SECONDS = 0.050;
+    // We only get a chance to send once a loop, so a frame has to go out on the last loop before the
+    // keep alive runs out, not the first one after. With 20ms loops that's every 40ms
+    private static final long LOOP_PERIOD_MICROS = (long) (TimedRobot.kDefaultPeriod * 1e6);
+
+    private static final ArrayList<ControlRequestCache> caches = new ArrayList<>();
+
+    private final double tolerance;
+    private final long keepAliveMicros;
+
+    // Nothing has been sent yet, so the first request always goes out
+    private int lastMode = -1;
+    private double lastValue = Double.NaN;
+    private long lastSentMicros = 0;
+    private long sentCount = 0;
+    private long suppressedCount = 0;
+
+    // Building these once keeps us from making new strings every time we log
+    private final String sentKey;
+    private final String suppressedKey;
+
+    /**
+     * @param tolerance how much the value has to change to be worth sending, in whatever units the
+     *     request uses, like volts or rotations per second
+     */
+    public ControlRequestCache(String name, double tolerance) {
+        this(name, tolerance, DEFAULT_KEEP_ALIVE_SECONDS);
+    }
+
+    public ControlRequestCache(String name, double tolerance, double keepAliveSeconds) {
+        this.tolerance = tolerance;
+        this.keepAliveMicros = (long) (keepAliveSeconds * 1e6);
+        sentKey = "CANControl/" + name + "/SentFrames";
+        suppressedKey = "CANControl/" + name + "/SuppressedFrames";
+        caches.add(this);
+    }
+
+    /**
+     * Checks whether a request is worth sending, and if it is, remembers it as the last one sent.
+     *
+     * @param mode any number for the kind of request, so switching from volts to velocity always
+     *     sends even if the numbers happen to match
+     * @return true if the caller should send it
+     */
+    public boolean shouldSend(int mode, double value) {
+        return shouldSend(mode, value, RobotController.getFPGATime());
+    }
+
+    /** {@link #shouldSend(int, double)} at a given time, so tests can step the clock themselves. */
+    boolean shouldSend(int mode, double value, long nowMicros) {
+        if (mode == lastMode
+                && Math.abs(value - lastValue) <= tolerance
+                && nowMicros - lastSentMicros + LOOP_PERIOD_MICROS <= keepAliveMicros) {
+            suppressedCount++;
+            return false;
+        }
+        lastMode = mode;
+        lastValue = value;
+        lastSentMicros = nowMicros;
+        sentCount++;
+        return true;
+    }
+
+    /** Forgets the last request, so the next one is sent no matter what. Use after a motor reboots. */
+    public void invalidate() {
+        lastMode = -1;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /** Call once per loop, logs how many frames every cache sent and skipped. */
+    public static void publishAll() {
+        long totalSent = 0;
+        long totalSuppressed = 0;
+        for (int i = 0; i < caches.size(); i++) {
+            ControlRequestCache cache = caches.get(i);
+            Logger.recordOutput(cache.sentKey, cache.sentCount);
+            Logger.recordOutput(cache.suppressedKey, cache.suppressedCount);
+            totalSent += cache.sentCount;
+            totalSuppressed += cache.suppressedCount;
+        }
+        Logger.recordOutput("CANControl/SentFrames", totalSent);
+        Logger.recordOutput("CANControl/SuppressedFrames", totalSuppressed);
+        // How much of the control traffic we saved, this should go up as we add idle mechanisms
+        long total = totalSent + totalSuppressed;
+        Logger.recordOutput("CANControl/SuppressedPercent", total == 0 ? 0.0 : 100.0 * totalSuppressed / total);
+    }
+}
@@ -0,0 +1,252 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.littletonrobotics.junction.Logger;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
+import com.ctre.phoenix6.configs.TalonFXConfiguration;
+import com.ctre.phoenix6.hardware.ParentDevice;
+import com.ctre.phoenix6.hardware.TalonFX;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Sets up CAN devices in parallel instead of one at a time.
+ *
+ * <p>Every config apply or signal frequency change waits for the device to answer, which can take
+ * tens of milliseconds. Done one device at a time, a robot with a lot of motors can take seconds to
+ * boot, which hurts a lot if the roboRIO browns out and reboots in the middle of a match. Here each
+ * device gets its own thread, so they all wait at the same time. Each step is retried if the device
+ * doesn't answer in time, and we give up on a device that's taking way too long so it can't hold up
+ * the whole robot.
+ *
+ * <pre>
+ * DeviceInitializer initializer = new DeviceInitializer("Drivetrain");
+ * initializer.addTalonFX("LeftTalon", leftTalon, config)
+ *     .signalFrequency(250.0, leftPosition, leftVelocity)
+ *     .optimizeBusUtilization();
+ * initializer.run();
+ * </pre>
+ *
+ * <p>How long each phase took for each device is logged under {@code Boot/<name>/}, once the
+ * logger is running. See {@link #publishResults()}.
+ */
+public class DeviceInitializer {
+    // How many times we try each step, and how long we wait for the device to answer each time
+    public static final int DEFAULT_ATTEMPTS = 5;
+    public static final double DEFAULT_ATTEMPT_TIMEOUT_SECONDS = 0.100;
+    // Past this, we stop waiting and let the robot boot without the slow devices
+    public static final double DEFAULT_TOTAL_TIMEOUT_SECONDS = 5.0;
+
+    /** The kinds of steps, each one's time is added up and logged separately. */
+    public enum Phase {
+        CONFIG("Config"),
+        SIGNAL_FREQUENCIES("SignalFrequencies"),
+        OPTIMIZE_BUS("OptimizeBus");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    /** One call to a device, given how long to wait for it to answer. */
+    @FunctionalInterface
+    public interface Step {
+        StatusCode run(double timeoutSeconds);
+    }
+
+    /** The steps for one device. They run in the order they're added, on the device's own thread. */
+    public class Device {
+        private final String name;
+        private final ParentDevice device;
+        private final ArrayList<Phase> stepPhases = new ArrayList<>();
+        private final ArrayList<Step> steps = new ArrayList<>();
+
+        // Written by the device's thread, read after its future is done
+        private final double[] phaseMs = new double[Phase.values().length];
+        private final int[] phaseAttempts = new int[Phase.values().length];
+        private String status = "OK";
+
+        private Device(String name, ParentDevice device) {
+            this.name = name;
+            this.device = device;
+        }
+
+        /** Adds a step, for anything the other methods don't cover. */
+        public Device step(Phase phase, Step step) {
+            stepPhases.add(phase);
+            steps.add(step);
+            return this;
+        }
+
+        /** Sets how often some of this device's signals are sent. */
+        public Device signalFrequency(double frequencyHz, BaseStatusSignal... signals) {
+            return step(Phase.SIGNAL_FREQUENCIES, timeout -> BaseStatusSignal.setUpdateFrequencyForAll(frequencyHz, signals));
+        }
+
+        /**
+         * Turns off every signal we didn't give a frequency to. Nobody reads them, and they take up
+         * room on the bus. Add this after all of the device's {@link #signalFrequency} calls.
+         */
+        public Device optimizeBusUtilization() {
+            return step(Phase.OPTIMIZE_BUS, timeout -> device.optimizeBusUtilization(0.0, timeout));
+        }
+
+        private void initialize() {
+            for (int i = 0; i < steps.size(); i++) {
+                int phase = stepPhases.get(i).ordinal();
+                long start = System.nanoTime();
+                StatusCode result = StatusCode.OK;
+                for (int attempt = 0; attempt < attempts; attempt++) {
+                    phaseAttempts[phase]++;
+                    result = steps.get(i).run(attemptTimeoutSeconds);
+                    if (result.isOK()) {
+                        break;
+                    }
+                }
+                phaseMs[phase] += (System.nanoTime() - start) / 1e6;
+                // Keep going if a step fails, the rest might still work
+                if (!result.isOK()) {
+                    status = stepPhases.get(i).key + " " + result.name();
+                }
+            }
+        }
+    }
+
+    private record BootValue(String key, double number, String text) {}
+
+    // Filled in as initializers finish, then logged by publishResults once the logger is running
+    private static final ConcurrentLinkedQueue<BootValue> pendingResults = new ConcurrentLinkedQueue<>();
+
+    private final String name;
+    private final ArrayList<Device> devices = new ArrayList<>();
+    private int attempts = DEFAULT_ATTEMPTS;
+    private double attemptTimeoutSeconds = DEFAULT_ATTEMPT_TIMEOUT_SECONDS;
+    private double totalTimeoutSeconds = DEFAULT_TOTAL_TIMEOUT_SECONDS;
+
+    public DeviceInitializer(String name) {
+        this.name = name;
+    }
+
+    public DeviceInitializer withRetries(int attempts, double attemptTimeoutSeconds) {
+        this.attempts = attempts;
+        this.attemptTimeoutSeconds = attemptTimeoutSeconds;
+        return this;
+    }
+
+    public DeviceInitializer withTotalTimeout(double totalTimeoutSeconds) {
+        this.totalTimeoutSeconds = totalTimeoutSeconds;
+        return this;
+    }
+
+    /** Adds a device with no steps yet. */
+    public Device addDevice(String deviceName, ParentDevice device) {
+        Device added = new Device(deviceName, device);
+        devices.add(added);
+        return added;
+    }
+
+    /**
+     * Adds a Talon FX and applies a whole configuration to it. Anything not in the configuration
+     * goes back to its default, so the code is the only place settings come from.
+     */
+    public Device addTalonFX(String deviceName, TalonFX talon, TalonFXConfiguration config) {
+        return addDevice(deviceName, talon)
+            .step(Phase.CONFIG, timeout -> talon.getConfigurator().apply(config, timeout));
+    }
+
+    /**
+     * Runs every device's steps at the same time and waits for them to finish.
+     *
+     * @return true if every step on every device worked
+     */
+    public boolean run() {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(devices.size(), 1), runnable -> {
+            Thread thread = new Thread(runnable, name + "Init");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (Device device : devices) {
+            futures.add(pool.submit(device::initialize));
+        }
+        pool.shutdown();
+
+        long deadline = start + (long) (totalTimeoutSeconds * 1e9);
+        boolean allOK = true;
+        double serialMs = 0.0;
+        for (int i = 0; i < devices.size(); i++) {
+            Device device = devices.get(i);
+            String prefix = "Boot/" + name + "/" + device.name + "/";
+            try {
+                futures.get(i).get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                device.status = "TIMED_OUT";
+            } catch (ExecutionException e) {
+                device.status = "ERROR " + e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                device.status = "INTERRUPTED";
+            }
+
+            if (!device.status.equals("OK")) {
+                allOK = false;
+                DriverStation.reportWarning(name + " " + device.name + " didn't finish setting up: " + device.status, false);
+            }
+            pendingResults.add(new BootValue(prefix + "Status", 0.0, device.status));
+            // A device that's still running is still writing these, so we only read finished ones
+            if (futures.get(i).isDone()) {
+                for (Phase phase : Phase.values()) {
+                    pendingResults.add(new BootValue(prefix + phase.key + "MS", device.phaseMs[phase.ordinal()], null));
+                    pendingResults.add(new BootValue(prefix + phase.key + "Attempts", device.phaseAttempts[phase.ordinal()], null));
+                    serialMs += device.phaseMs[phase.ordinal()];
+                }
+            }
+        }
+        // Let any stuck threads finish in the background, they're daemons so they won't block exiting
+        pool.shutdownNow();
+
+        double totalMs = (System.nanoTime() - start) / 1e6;
+        // SerialMS is about how long it would have taken one device at a time
+        recordBootTime(name + "/TotalMS", totalMs);
+        recordBootTime(name + "/SerialMS", serialMs);
+        return allOK;
+    }
+
+    /** Saves a boot time to be logged under {@code Boot/} by {@link #publishResults()}. */
+    public static void recordBootTime(String key, double ms) {
+        pendingResults.add(new BootValue("Boot/" + key, ms, null));
+    }
+
+    /**
+     * Logs any results that came in since the last call. Devices are usually set up before the
+     * logger starts, so call this every loop from {@code robotPeriodic}. It does nothing once
+     * everything has been logged.
+     */
+    public static void publishResults() {
+        BootValue value;
+        while ((value = pendingResults.poll()) != null) {
+            if (value.text() != null) {
+                Logger.recordOutput(value.key(), value.text());
+            } else {
+                Logger.recordOutput(value.key(), value.number());
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+/**
+ * Hands out double arrays for IO inputs, reusing old ones instead of making a new one every loop.
+ * {@link #nextInt} does the same for int arrays, like how many tags each vision observation saw.
+ *
+ * <p>Array inputs, like the odometry samples, have to be a new array each loop. AdvantageKit keeps a
+ * reference to the array we log, not a copy, and hands it to the data receivers (the log writer and
+ * NetworkTables) on their own thread, which can be behind the main loop. If we filled the same array
+ * again next loop, a receiver that hadn't written it yet would log the new values instead.
+ *
+ * <p>So each length gets a ring of {@link #DEFAULT_DEPTH} arrays, used in turn. AdvantageKit drops
+ * data instead of queueing more than 500 loops for the receivers, so by the time an array comes
+ * around again nothing can still be waiting on it. The ring for a length is made the first time we
+ * see that length, and after that {@link #next} never makes garbage. An odometry input is usually
+ * about 5 samples, so a ring is about 30 KB, and we only ever see a few lengths.
+ *
+ * <p>Only use one from a single thread, which is the main loop for IO inputs.
+ */
+public class InputArrayPool {
+    // More than AdvantageKit's receiver queue holds, 500 loops, plus the loop being written
+    public static final int DEFAULT_DEPTH = 512;
+
+    private static final double[] EMPTY = new double[0];
+    private static final int[] EMPTY_INT = new int[0];
+
+    private final int depth;
+    // rings[length][i] is the i-th array of that length, made when the length is first asked for
+    private final double[][][] rings;
+    private final int[] nextIndex;
+    // The same for int arrays, a pool is usually only used for one or the other
+    private final int[][][] intRings;
+    private final int[] nextIntIndex;
+
+    /**
+     * @param maxLength the longest array {@link #next} will be asked for
+     * @param depth how many calls for the same length before an array is handed out again
+     */
+    public InputArrayPool(int maxLength, int depth) {
+        this.depth = depth;
+        rings = new double[maxLength + 1][][];
+        nextIndex = new int[maxLength + 1];
+        intRings = new int[maxLength + 1][][];
+        nextIntIndex = new int[maxLength + 1];
+    }
+
+    public InputArrayPool(int maxLength) {
+        this(maxLength, DEFAULT_DEPTH);
+    }
+
+    /**
+     * An array of exactly {@code length}, which won't be handed out again for {@code depth} more calls
+     * with the same length. Its old values are still in it, so fill all of it.
+     */
+    public double[] next(int length) {
+        if (length == 0) {
+            // Nothing can be written into an empty array, so one can be shared forever
+            return EMPTY;
+        }
+        checkLength(length);
+        if (rings[length] == null) {
+            rings[length] = new double[depth][length];
+        }
+        int index = nextIndex[length];
+        nextIndex[length] = (index + 1) % depth;
+        return rings[length][index];
+    }
+
+    /** Like {@link #next}, but an int array. */
+    public int[] nextInt(int length) {
+        if (length == 0) {
+            return EMPTY_INT;
+        }
+        checkLength(length);
+        if (intRings[length] == null) {
+            intRings[length] = new int[depth][length];
+        }
+        int index = nextIntIndex[length];
+        nextIntIndex[length] = (index + 1) % depth;
+        return intRings[length][index];
+    }
+
+    private void checkLength(int length) {
+        if (length >= rings.length) {
+            throw new IllegalArgumentException("Asked for " + length + " values, but this pool only goes up to "
+                + (rings.length - 1));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.hal.DriverStationJNI;
+import edu.wpi.first.util.WPIUtilJNI;
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * Measures how long it takes a joystick movement to turn into a motor command.
+ *
+ * <p>A stick movement goes through a few steps before the motors hear about it: the driver station
+ * sends a packet, our loop starts and reads it, a command runs and does some math, and then we send
+ * a control frame over CAN. This times each step against the moment the packet arrived:
+ *
+ * <ul>
+ *   <li>{@code PacketToLoopStart}: the packet sat waiting for our next loop
+ *   <li>{@code PacketToExecute}: plus everything that ran before our drive code
+ *   <li>{@code PacketToSend}: plus our drive code, up to the control frame being queued
+ * </ul>
+ *
+ * <p>Each is a {@link LoopTimer} under {@code LoopTiming/InputLatency}. Packet arrivals are caught
+ * by a small thread that waits on the driver station's new data event, so the timestamp is when the
+ * packet really showed up, not when we got around to looking at it.
+ */
+public final class InputLatencyTracker {
+    private static final LoopTimer packetToLoopStart = new LoopTimer("InputLatency/PacketToLoopStart");
+    private static final LoopTimer packetToExecute = new LoopTimer("InputLatency/PacketToExecute");
+    private static final LoopTimer packetToSend = new LoopTimer("InputLatency/PacketToSend");
+
+    // Written by the packet thread, read by the main loop
+    // We keep the one before too, in case a packet shows up partway through a loop
+    private static volatile long lastPacketMicros = 0;
+    private static volatile long previousPacketMicros = 0;
+    private static long executeMicros = 0;
+    private static Thread packetThread = null;
+
+    private InputLatencyTracker() {}
+
+    /** Starts watching for driver station packets. Don't call this in replay, there are no packets. */
+    public static void start() {
+        if (!LoopTimer.ENABLED || packetThread != null) {
+            return;
+        }
+        packetThread = new Thread(() -> {
+            int event = WPIUtilJNI.createEvent(false, false);
+            DriverStationJNI.provideNewDataEventHandle(event);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    WPIUtilJNI.waitForObject(event);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                previousPacketMicros = lastPacketMicros;
+                lastPacketMicros = RobotController.getFPGATime();
+            }
+            DriverStationJNI.removeNewDataEventHandle(event);
+            WPIUtilJNI.destroyEvent(event);
+        }, "DriverStationPacketWatcher");
+        // Daemon threads don't keep the program alive when the robot code exits
+        packetThread.setDaemon(true);
+        packetThread.start();
+    }
+
+    /** Call right when drive code starts using the joystick values. */
+    public static void markExecute() {
+        if (LoopTimer.ENABLED) {
+            executeMicros = RobotController.getFPGATime();
+        }
+    }
+
+    /**
+     * Call right after a joystick path hands its control frame to Phoenix. Only call it from paths
+     * that called {@link #markExecute} this loop, otherwise autos and SysId would get timed against
+     * a packet they never used.
+     */
+    public static void markSend() {
+        if (!LoopTimer.ENABLED) {
+            return;
+        }
+        long sendMicros = RobotController.getFPGATime();
+        // AdvantageKit timestamps each loop when it starts, right after it reads the joysticks
+        long loopStartMicros = Logger.getTimestamp();
+        // A packet that showed up after that isn't the one this loop is using
+        long packetMicros = lastPacketMicros;
+        if (packetMicros > loopStartMicros) {
+            packetMicros = previousPacketMicros;
+        }
+        if (packetMicros == 0) {
+            return;
+        }
+        packetToLoopStart.record((loopStartMicros - packetMicros) / 1000.0);
+        packetToExecute.record((executeMicros - packetMicros) / 1000.0);
+        packetToSend.record((sendMicros - packetMicros) / 1000.0);
+    }
+}
@@ -0,0 +1,451 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+
+/**
+ * A log turned sideways, so we can ask questions about a whole season of logs without reading all of
+ * them.
+ *
+ * <p>A {@code .wpilog} is one record after another, so finding the peak current means decoding every
+ * record in the file, even though we only care about one or two keys. An archive stores each key as
+ * its own column instead, with one row per robot loop. The rows are split into blocks of
+ * {@value #BLOCK_ROWS}, each column's block is compressed on its own, and the minimum and maximum of
+ * every block is kept in an index at the end of the file. A {@link LogArchiveQuery} only reads the
+ * columns it uses, and skips any block the index says can't match, like every block where the motors
+ * never got above 60 degrees. The {@code Timestamp} column works the same way, so its index is also
+ * the time index.
+ *
+ * <p>AdvantageKit only logs a value when it changes, so each row holds the latest value of every key
+ * as of that loop. Before a key's first value its rows are NaN. Only scalar numbers and booleans are
+ * kept (booleans as 0 and 1), arrays like the odometry samples are skipped.
+ *
+ * <p>Each block is compressed by XORing every value with the one before it, which turns a value that
+ * didn't change into all zero bytes, and then deflating. Most inputs barely change loop to loop, so
+ * this shrinks them a lot.
+ *
+ * <p>Make archives with {@code ./gradlew archiveLogs}, see {@link #main}.
+ *
+ * <pre>
+ * int     magic, "KLAR" read as a little endian int
+ * int     version
+ * ...     compressed blocks
+ * footer: long row count, int column count, then for each column:
+ *           short name length, name in UTF-8, int block count, then for each block:
+ *             int rows, long offset, int compressed length (0 if every value is NaN), double min, double max
+ * long    footer offset
+ * </pre>
+ */
+public final class LogArchive implements AutoCloseable {
+    public static final int MAGIC = 0x52414C4B; // "KLAR" read as a little endian int
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".wpiarchive";
+    // Rows per block, about 80 seconds of loops, small enough to skip most of a match
+    public static final int BLOCK_ROWS = 4096;
+    // Every archive has this column, in FPGA seconds
+    public static final String TIMESTAMP_COLUMN = "Timestamp";
+    // AdvantageKit writes this first thing every loop, whether anything else changed or not
+    static final String TIMESTAMP_KEY = "/Timestamp";
+    // The drivetrain's IO inputs, everything else in the log is skipped unless asked for
+    public static final String DEFAULT_PREFIX = "/Drivetrain/";
+
+    private static final int HEADER_BYTES = 8;
+
+    /** Where one block of one column is in the file, and what range of values it holds. */
+    public record Block(int rows, long offset, int compressedLength, double min, double max) {
+        /** True if every value in the block is NaN, so there's nothing to read. */
+        public boolean isEmpty() {
+            return compressedLength == 0;
+        }
+    }
+
+    /** One key from the log. */
+    public record Column(String name, Block[] blocks) {}
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long rowCount;
+    private final Map<String, Column> columns;
+    private final int blockCount;
+
+    private LogArchive(Path path, FileChannel channel, long rowCount, Map<String, Column> columns) {
+        this.path = path;
+        this.channel = channel;
+        this.rowCount = rowCount;
+        this.columns = columns;
+        this.blockCount = (int) ((rowCount + BLOCK_ROWS - 1) / BLOCK_ROWS);
+    }
+
+    /** Opens an archive and reads its index. The blocks are only read when a query asks for them. */
+    public static LogArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " isn't a log archive");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " is archive version " + version + ", expected " + VERSION);
+            }
+
+            long footerOffset = readFully(channel, channel.size() - Long.BYTES, Long.BYTES).getLong();
+            ByteBuffer footer = readFully(channel, footerOffset, (int) (channel.size() - Long.BYTES - footerOffset));
+            long rowCount = footer.getLong();
+            int columnCount = footer.getInt();
+            LinkedHashMap<String, Column> columns = new LinkedHashMap<>();
+            for (int i = 0; i < columnCount; i++) {
+                byte[] nameBytes = new byte[footer.getShort()];
+                footer.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                Block[] blocks = new Block[footer.getInt()];
+                for (int j = 0; j < blocks.length; j++) {
+                    blocks[j] = new Block(footer.getInt(), footer.getLong(), footer.getInt(), footer.getDouble(), footer.getDouble());
+                }
+                columns.put(name, new Column(name, blocks));
+            }
+            return new LogArchive(path, channel, rowCount, columns);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /** Null if the log never had this key. */
+    public Column getColumn(String name) {
+        return columns.get(name);
+    }
+
+    public List<String> getColumnNames() {
+        return new ArrayList<>(columns.keySet());
+    }
+
+    /**
+     * Reads and decompresses one block of a column.
+     *
+     * <p>Safe to call from several threads at once, as long as each brings its own inflater.
+     *
+     * @param out filled with the block's values, must hold at least {@link #BLOCK_ROWS}
+     * @return how many rows the block has
+     */
+    public int readBlock(Column column, int blockIndex, double[] out, Inflater inflater) throws IOException {
+        Block block = column.blocks()[blockIndex];
+        if (block.isEmpty()) {
+            Arrays.fill(out, 0, block.rows(), Double.NaN);
+            return block.rows();
+        }
+        ByteBuffer compressed = readFully(channel, block.offset(), block.compressedLength());
+        byte[] raw = new byte[block.rows() * Double.BYTES];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, read, raw.length - read);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("ran out of data");
+                }
+                read += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(path + ": block " + blockIndex + " of " + column.name() + " is corrupt", e);
+        }
+        // Undo the XOR with the value before
+        ByteBuffer values = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        long previous = 0;
+        for (int i = 0; i < block.rows(); i++) {
+            previous ^= values.getLong();
+            out[i] = Double.longBitsToDouble(previous);
+        }
+        return block.rows();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Arguments: a folder of {@code .wpilog} files, the output folder, and optionally the key prefixes to keep. */
+    public static void main(String... args) throws IOException {
+        Path inputDir = Path.of(args[0]);
+        Path outputDir = Path.of(args[1]);
+        String[] prefixes = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : new String[] {DEFAULT_PREFIX};
+
+        Files.createDirectories(outputDir);
+        if (!Files.isDirectory(inputDir)) {
+            System.out.println("No logs in " + inputDir);
+            return;
+        }
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(inputDir, "*.wpilog")) {
+            for (Path log : logs) {
+                Path output = outputDir.resolve(archiveName(log));
+                long start = System.nanoTime();
+                long rows = convert(log, output, prefixes);
+                System.out.printf("%s -> %s (%d rows, %.0f%% of the log's size, %.0f ms)%n", log, output, rows,
+                    100.0 * Files.size(output) / Files.size(log), (System.nanoTime() - start) / 1e6);
+            }
+        }
+    }
+
+    /** The archive file name for a log, {@code match.wpilog} becomes {@code match.wpiarchive}. */
+    public static String archiveName(Path log) {
+        String fileName = log.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return (dot < 0 ? fileName : fileName.substring(0, dot)) + EXTENSION;
+    }
+
+    /**
+     * Streams through a log once and writes out an archive of every scalar key under the prefixes.
+     *
+     * @return how many rows, one per robot loop, were written
+     */
+    public static long convert(Path log, Path output, String... prefixes) throws IOException {
+        DataLogReader reader = new DataLogReader(log.toString());
+        if (!reader.isValid()) {
+            throw new IOException(log + " isn't a wpilog file");
+        }
+        try (ArchiveWriter writer = new ArchiveWriter(output)) {
+            // Entry id to column, only for the keys we keep
+            HashMap<Integer, ArchiveWriter.PendingColumn> entries = new HashMap<>();
+            HashMap<Integer, String> entryTypes = new HashMap<>();
+            int timestampEntry = -1;
+            long cycleTimestamp = -1;
+
+            for (DataLogRecord record : reader) {
+                if (record.isStart()) {
+                    var start = record.getStartData();
+                    if (start.name.equals(TIMESTAMP_KEY)) {
+                        timestampEntry = start.entry;
+                    } else if (keep(start.name, start.type, prefixes)) {
+                        entries.put(start.entry, writer.column(start.name.substring(1)));
+                        entryTypes.put(start.entry, start.type);
+                    }
+                    continue;
+                }
+                if (record.isControl()) {
+                    continue;
+                }
+                // Every loop starts with its timestamp, so that finishes the last loop's row. Loops where
+                // none of our keys changed still get a row, AdvantageKit only logs what changed
+                if (record.getEntry() == timestampEntry) {
+                    if (cycleTimestamp >= 0) {
+                        writer.endRow(cycleTimestamp / 1e6);
+                    }
+                    cycleTimestamp = record.getInteger();
+                    continue;
+                }
+                ArchiveWriter.PendingColumn column = entries.get(record.getEntry());
+                if (column == null) {
+                    continue;
+                }
+                column.value = switch (entryTypes.get(record.getEntry())) {
+                    case "double" -> record.getDouble();
+                    case "float" -> record.getFloat();
+                    case "int64" -> record.getInteger();
+                    default -> record.getBoolean() ? 1.0 : 0.0;
+                };
+            }
+            if (cycleTimestamp >= 0) {
+                writer.endRow(cycleTimestamp / 1e6);
+            }
+            return writer.rowCount;
+        }
+    }
+
+    /** Whether a log key is one we put in the archive. */
+    static boolean keep(String name, String type, String... prefixes) {
+        if (!(type.equals("double") || type.equals("float") || type.equals("int64") || type.equals("boolean"))) {
+            return false;
+        }
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            // Reading at a position doesn't move the channel, so threads can share it
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Archive ended early");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /** Collects rows into blocks and writes them out as they fill up. */
+    private static final class ArchiveWriter implements AutoCloseable {
+        /** One column's values for the block being filled. */
+        static final class PendingColumn {
+            final String name;
+            final double[] values = new double[BLOCK_ROWS];
+            final ArrayList<Block> blocks = new ArrayList<>();
+            // The latest value, copied into each row as it ends
+            double value = Double.NaN;
+
+            PendingColumn(String name) {
+                this.name = name;
+            }
+        }
+
+        private final FileChannel channel;
+        private final LinkedHashMap<String, PendingColumn> columns = new LinkedHashMap<>();
+        private final PendingColumn timestamps = new PendingColumn(TIMESTAMP_COLUMN);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final ByteBuffer raw = ByteBuffer.allocate(BLOCK_ROWS * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private byte[] compressed = new byte[BLOCK_ROWS * Double.BYTES];
+        private long position = 0;
+        private long rowCount = 0;
+        private int rowInBlock = 0;
+
+        ArchiveWriter(Path output) throws IOException {
+            channel = FileChannel.open(output,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            writeFully(ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(VERSION).flip());
+            columns.put(TIMESTAMP_COLUMN, timestamps);
+        }
+
+        /** Gets a column, adding it if this is the first time we've seen the key. */
+        PendingColumn column(String name) {
+            return columns.computeIfAbsent(name, key -> {
+                PendingColumn column = new PendingColumn(key);
+                // Blocks already written didn't have this key yet, so they're all NaN
+                int fullBlocks = timestamps.blocks.size();
+                for (int i = 0; i < fullBlocks; i++) {
+                    column.blocks.add(new Block(BLOCK_ROWS, 0, 0, Double.NaN, Double.NaN));
+                }
+                Arrays.fill(column.values, 0, rowInBlock, Double.NaN);
+                return column;
+            });
+        }
+
+        void endRow(double timestampSeconds) throws IOException {
+            timestamps.value = timestampSeconds;
+            for (PendingColumn column : columns.values()) {
+                column.values[rowInBlock] = column.value;
+            }
+            rowInBlock++;
+            rowCount++;
+            if (rowInBlock == BLOCK_ROWS) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            for (PendingColumn column : columns.values()) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                raw.clear();
+                long previous = 0;
+                for (int i = 0; i < rowInBlock; i++) {
+                    double value = column.values[i];
+                    // NaN isn't less or more than anything, so it never changes the range
+                    min = Math.min(min, Double.isNaN(value) ? min : value);
+                    max = Math.max(max, Double.isNaN(value) ? max : value);
+                    long bits = Double.doubleToRawLongBits(value);
+                    raw.putLong(bits ^ previous);
+                    previous = bits;
+                }
+                if (min > max) {
+                    // Every value was NaN
+                    column.blocks.add(new Block(rowInBlock, 0, 0, Double.NaN, Double.NaN));
+                    continue;
+                }
+
+                deflater.reset();
+                deflater.setInput(raw.array(), 0, raw.position());
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                column.blocks.add(new Block(rowInBlock, position, length, min, max));
+                writeFully(ByteBuffer.wrap(compressed, 0, length));
+            }
+            rowInBlock = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (rowInBlock > 0) {
+                    flushBlock();
+                }
+                int footerSize = Long.BYTES + Integer.BYTES;
+                for (PendingColumn column : columns.values()) {
+                    footerSize += Short.BYTES + column.name.getBytes(StandardCharsets.UTF_8).length + Integer.BYTES
+                        + column.blocks.size() * (Integer.BYTES + Long.BYTES + Integer.BYTES + 2 * Double.BYTES);
+                }
+                ByteBuffer footer = ByteBuffer.allocate(footerSize + Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                long footerOffset = position;
+                footer.putLong(rowCount);
+                footer.putInt(columns.size());
+                for (PendingColumn column : columns.values()) {
+                    byte[] name = column.name.getBytes(StandardCharsets.UTF_8);
+                    footer.putShort((short) name.length);
+                    footer.put(name);
+                    footer.putInt(column.blocks.size());
+                    for (Block block : column.blocks) {
+                        footer.putInt(block.rows());
+                        footer.putLong(block.offset());
+                        footer.putInt(block.compressedLength());
+                        footer.putDouble(block.min());
+                        footer.putDouble(block.max());
+                    }
+                }
+                footer.putLong(footerOffset);
+                writeFully(footer.flip());
+            } finally {
+                deflater.end();
+                channel.close();
+            }
+        }
+    }
+}
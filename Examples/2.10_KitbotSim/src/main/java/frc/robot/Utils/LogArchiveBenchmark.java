@@ -0,0 +1,244 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.wpi.first.util.datalog.DataLogWriter;
+
+/**
+ * Times a {@link LogArchiveQuery} against reading every {@code .wpilog} from start to finish.
+ *
+ * <p>The question is the one that got us to make archives: what was the peak left current in any
+ * loop where the left motor was over 60 degrees. It's answered three ways, each a few times so the
+ * JIT and the disk cache warm up:
+ *
+ * <ul>
+ *   <li>reading every log one after another, the way we used to
+ *   <li>reading every log, but all at once on every core, to see how much is just from threads
+ *   <li>from the archives, which only read three columns and skip blocks that can't match
+ * </ul>
+ *
+ * <p>The three have to agree, or it stops with an error. Run with {@code ./gradlew benchmarkLogArchive},
+ * which makes a season's worth of fake match logs first. Pass {@code -PlogDir=<folder>} to run on real
+ * logs instead.
+ */
+public final class LogArchiveBenchmark {
+    private static final int RUNS = 5;
+    private static final String VALUE_COLUMN = "Drivetrain/LeftCurrentAmps";
+    private static final String FILTER_COLUMN = "Drivetrain/LeftTempCelsius";
+    private static final double HOT_CELSIUS = 60.0;
+
+    // The fake logs are a whole power on, not just the match, like the ones on the USB stick
+    private static final double SYNTHETIC_LOG_SECONDS = 300.0;
+    private static final int SYNTHETIC_ODOMETRY_SAMPLES = 5;
+
+    private LogArchiveBenchmark() {}
+
+    /** Arguments: the log folder, the archive folder, and optionally {@code --synthetic <count>}. */
+    public static void main(String... args) throws IOException {
+        Path logDir = Path.of(args[0]);
+        Path archiveDir = Path.of(args[1]);
+        if (args.length > 3 && args[2].equals("--synthetic")) {
+            int count = Integer.parseInt(args[3]);
+            System.out.printf("Writing %d fake logs to %s%n", count, logDir);
+            writeSyntheticLogs(logDir, count);
+        }
+
+        List<Path> logs = listFiles(logDir, "*.wpilog");
+        if (logs.isEmpty()) {
+            System.out.println("No logs in " + logDir);
+            return;
+        }
+        Files.createDirectories(archiveDir);
+        long convertStart = System.nanoTime();
+        List<Path> archives = logs.parallelStream().map(log -> {
+            Path archive = archiveDir.resolve(LogArchive.archiveName(log));
+            try {
+                LogArchive.convert(log, archive, LogArchive.DEFAULT_PREFIX);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return archive;
+        }).toList();
+        double convertMs = (System.nanoTime() - convertStart) / 1e6;
+        long logBytes = totalSize(logs);
+        long archiveBytes = totalSize(archives);
+        System.out.printf("%d logs, %.1f MB -> %.1f MB of archives (%.1f%%) in %.0f ms%n", logs.size(),
+            logBytes / 1e6, archiveBytes / 1e6, 100.0 * archiveBytes / logBytes, convertMs);
+
+        LogArchiveQuery query = LogArchiveQuery.of(VALUE_COLUMN)
+            .where(FILTER_COLUMN, HOT_CELSIUS, Double.POSITIVE_INFINITY);
+
+        double[] sequentialMs = new double[RUNS];
+        double[] parallelMs = new double[RUNS];
+        double[] archiveMs = new double[RUNS];
+        LogArchiveQuery.Result sequential = null;
+        LogArchiveQuery.Result parallel = null;
+        LogArchiveQuery.Result archived = null;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            sequential = logs.stream().map(log -> scan(query, log)).reduce(LogArchiveQuery.Result.EMPTY,
+                LogArchiveQuery.Result::merge);
+            sequentialMs[run] = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            parallel = logs.parallelStream().map(log -> scan(query, log)).reduce(LogArchiveQuery.Result.EMPTY,
+                LogArchiveQuery.Result::merge);
+            parallelMs[run] = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            archived = query.run(archives);
+            archiveMs[run] = (System.nanoTime() - start) / 1e6;
+        }
+
+        System.out.printf("Peak %s above %.0f C: %.2f in %s at %.2f s, %d of %d loops matched%n",
+            VALUE_COLUMN, HOT_CELSIUS, archived.max(), archived.maxSource(), archived.maxTimestamp(),
+            archived.matchedRows(), archived.rows());
+        System.out.printf("Archive blocks read: %d, skipped by the index: %d%n",
+            archived.blocksRead(), archived.blocksSkipped());
+        printTiming("Full scan, one log at a time", sequentialMs, sequentialMs);
+        printTiming("Full scan, all logs at once", parallelMs, sequentialMs);
+        printTiming("Archive query", archiveMs, sequentialMs);
+
+        if (!agrees(sequential, archived) || !agrees(parallel, archived)) {
+            throw new IllegalStateException("The archive query doesn't match the full scan: "
+                + sequential + " vs " + archived);
+        }
+    }
+
+    private static LogArchiveQuery.Result scan(LogArchiveQuery query, Path log) {
+        try {
+            return query.scanLog(log, LogArchive.DEFAULT_PREFIX);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean agrees(LogArchiveQuery.Result a, LogArchiveQuery.Result b) {
+        // The sums are added up in a different order, so they can be off in the last few digits
+        return a.rows() == b.rows() && a.matchedRows() == b.matchedRows() && a.max() == b.max()
+            && a.min() == b.min() && Math.abs(a.sum() - b.sum()) <= 1e-9 * Math.max(1.0, Math.abs(a.sum()));
+    }
+
+    private static void printTiming(String name, double[] ms, double[] baselineMs) {
+        double median = median(ms);
+        System.out.printf("  %-30s median %8.1f ms, best %8.1f ms, %6.1fx faster%n", name, median,
+            Arrays.stream(ms).min().orElse(0.0), median(baselineMs) / median);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static List<Path> listFiles(Path dir, String glob) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+                stream.forEach(files::add);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static long totalSize(List<Path> files) throws IOException {
+        long total = 0;
+        for (Path file : files) {
+            total += Files.size(file);
+        }
+        return total;
+    }
+
+    /**
+     * Writes logs shaped like the ones AdvantageKit makes: every drivetrain input, only logged when it
+     * changes, plus the odometry arrays and some outputs the archive doesn't keep. The motors heat up
+     * as the robot drives, so only some logs get over 60 degrees.
+     */
+    static void writeSyntheticLogs(Path dir, int count) throws IOException {
+        Files.createDirectories(dir);
+        // Seeds next to each other give almost the same first numbers, so each log gets a seed from here
+        Random seeds = new Random(0);
+        for (int i = 0; i < count; i++) {
+            writeSyntheticLog(dir.resolve(String.format("synthetic_%03d.wpilog", i)), new Random(seeds.nextLong()));
+        }
+    }
+
+    private static void writeSyntheticLog(Path path, Random random) throws IOException {
+        DataLogWriter log = new DataLogWriter(path.toString());
+        String[] sideKeys = {"OutputVolts", "VelocityMetersPerSecond", "PositionMeters", "CurrentAmps", "TempCelsius"};
+        int timestamp = log.start("/Timestamp", "int64");
+        int[][] sides = new int[2][sideKeys.length];
+        for (int side = 0; side < 2; side++) {
+            for (int k = 0; k < sideKeys.length; k++) {
+                sides[side][k] = log.start("/Drivetrain/" + (side == 0 ? "Left" : "Right") + sideKeys[k], "double");
+            }
+        }
+        int leftConnected = log.start("/Drivetrain/LeftConnected", "boolean");
+        int rightConnected = log.start("/Drivetrain/RightConnected", "boolean");
+        int odometryTimestamps = log.start("/Drivetrain/OdometryTimestamps", "double[]");
+        int odometryLeft = log.start("/Drivetrain/OdometryLeftPositionsMeters", "double[]");
+        int odometryRight = log.start("/Drivetrain/OdometryRightPositionsMeters", "double[]");
+        int loopTime = log.start("/RealOutputs/LoopTiming/Drivetrain/Periodic/P50MS", "double");
+
+        // Some robots run hotter, from a worse gearbox or a hotter venue
+        double heating = 0.002 + 0.006 * random.nextDouble();
+        double[] temps = {25.0, 25.0};
+        double[] lastTemps = {Double.NaN, Double.NaN};
+        double[] positions = {0.0, 0.0};
+        double[] odometryTimes = new double[SYNTHETIC_ODOMETRY_SAMPLES];
+        double[][] odometryPositions = new double[2][SYNTHETIC_ODOMETRY_SAMPLES];
+        int loops = (int) (SYNTHETIC_LOG_SECONDS / 0.020);
+        for (int loop = 0; loop < loops; loop++) {
+            long micros = 1_000_000L + loop * 20_000L;
+            double t = loop * 0.020;
+            log.appendInteger(timestamp, micros, micros);
+            if (loop == 0) {
+                log.appendBoolean(leftConnected, true, micros);
+                log.appendBoolean(rightConnected, true, micros);
+            }
+            // Disabled before and after a 150 second match, like a real power on
+            boolean enabled = t > 60.0 && t < 210.0;
+            for (int side = 0; side < 2; side++) {
+                double volts = enabled ? 10.0 * Math.sin(t * (0.7 + 0.2 * side)) + random.nextGaussian() : 0.0;
+                double velocity = volts / 12.0 * 4.0;
+                double amps = Math.abs(volts) * 6.0 + Math.abs(random.nextGaussian() * 3.0);
+                positions[side] += velocity * 0.020;
+                temps[side] += (amps * heating - (temps[side] - 25.0) * 0.002) * 0.020;
+                for (int s = 0; s < SYNTHETIC_ODOMETRY_SAMPLES; s++) {
+                    odometryPositions[side][s] = positions[side] - velocity * 0.004 * (SYNTHETIC_ODOMETRY_SAMPLES - 1 - s);
+                }
+                log.appendDouble(sides[side][0], volts, micros);
+                log.appendDouble(sides[side][1], velocity, micros);
+                log.appendDouble(sides[side][2], positions[side], micros);
+                log.appendDouble(sides[side][3], amps, micros);
+                // The Talon only reports whole degrees here, so this barely ever changes
+                double reportedTemp = Math.floor(temps[side]);
+                if (reportedTemp != lastTemps[side]) {
+                    log.appendDouble(sides[side][4], reportedTemp, micros);
+                    lastTemps[side] = reportedTemp;
+                }
+            }
+            for (int s = 0; s < SYNTHETIC_ODOMETRY_SAMPLES; s++) {
+                odometryTimes[s] = t - 0.004 * (SYNTHETIC_ODOMETRY_SAMPLES - 1 - s);
+            }
+            log.appendDoubleArray(odometryTimestamps, odometryTimes, micros);
+            log.appendDoubleArray(odometryLeft, odometryPositions[0], micros);
+            log.appendDoubleArray(odometryRight, odometryPositions[1], micros);
+            log.appendDouble(loopTime, 1.0 + random.nextDouble(), micros);
+        }
+        log.close();
+    }
+}
@@ -0,0 +1,258 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Inflater;
+
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+
+/**
+ * Asks a question about one column of a set of {@link LogArchive}s, like "what was the peak left
+ * current in every loop where the left motor was over 60 degrees".
+ *
+ * <pre>
+ * LogArchiveQuery.of("Drivetrain/LeftCurrentAmps")
+ *     .where("Drivetrain/LeftTempCelsius", 60.0, Double.POSITIVE_INFINITY)
+ *     .run(archives)
+ *     .max();
+ * </pre>
+ *
+ * <p>Only the value column, the filter column, and the timestamps are ever read. Before reading a
+ * block, its min and max from the index are checked against the filter and the time range, and blocks
+ * that can't have a match are skipped without being read. Each archive is searched on its own thread.
+ *
+ * <p>{@link #scanLog(Path, String...)} answers the same question straight from a {@code .wpilog} the
+ * slow way, for checking the archives and for {@link LogArchiveBenchmark}.
+ */
+public final class LogArchiveQuery {
+    /** What a query found. Results from different archives can be merged. */
+    public record Result(long rows, long matchedRows, double min, double max, double sum,
+            String maxSource, double maxTimestamp, long blocksRead, long blocksSkipped) {
+        static final Result EMPTY = new Result(0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0,
+            null, Double.NaN, 0, 0);
+
+        /** The average over the rows that matched, NaN if none did. */
+        public double mean() {
+            return matchedRows == 0 ? Double.NaN : sum / matchedRows;
+        }
+
+        public Result merge(Result other) {
+            boolean otherMax = other.max > max;
+            return new Result(rows + other.rows, matchedRows + other.matchedRows, Math.min(min, other.min),
+                Math.max(max, other.max), sum + other.sum,
+                otherMax ? other.maxSource : maxSource, otherMax ? other.maxTimestamp : maxTimestamp,
+                blocksRead + other.blocksRead, blocksSkipped + other.blocksSkipped);
+        }
+    }
+
+    private final String column;
+    private String filterColumn = null;
+    private double filterMin = Double.NEGATIVE_INFINITY;
+    private double filterMax = Double.POSITIVE_INFINITY;
+    private double startSeconds = Double.NEGATIVE_INFINITY;
+    private double endSeconds = Double.POSITIVE_INFINITY;
+
+    private LogArchiveQuery(String column) {
+        this.column = column;
+    }
+
+    /** Starts a query of a column, named like the log key without the leading slash. */
+    public static LogArchiveQuery of(String column) {
+        return new LogArchiveQuery(column);
+    }
+
+    /** Only counts rows where another column is between min and max, inclusive. */
+    public LogArchiveQuery where(String otherColumn, double min, double max) {
+        filterColumn = otherColumn;
+        filterMin = min;
+        filterMax = max;
+        return this;
+    }
+
+    /** Only counts rows logged between these times, inclusive, in FPGA seconds. */
+    public LogArchiveQuery between(double start, double end) {
+        startSeconds = start;
+        endSeconds = end;
+        return this;
+    }
+
+    /** Runs the query over every archive, each on its own thread, and merges the results. */
+    public Result run(List<Path> archives) {
+        return archives.parallelStream()
+            .map(path -> {
+                try (LogArchive archive = LogArchive.open(path)) {
+                    return run(archive);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })
+            .reduce(Result.EMPTY, Result::merge);
+    }
+
+    /** Runs the query over one archive. */
+    public Result run(LogArchive archive) throws IOException {
+        LogArchive.Column values = archive.getColumn(column);
+        LogArchive.Column filter = filterColumn == null ? null : archive.getColumn(filterColumn);
+        LogArchive.Column timestamps = archive.getColumn(LogArchive.TIMESTAMP_COLUMN);
+        if (values == null || (filterColumn != null && filter == null)) {
+            // The log never had one of the keys, so nothing can match
+            return new Result(archive.getRowCount(), 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0,
+                null, Double.NaN, 0, archive.getBlockCount());
+        }
+
+        // Made once per archive and reused for every block
+        Inflater inflater = new Inflater();
+        double[] valueBlock = new double[LogArchive.BLOCK_ROWS];
+        double[] filterBlock = new double[LogArchive.BLOCK_ROWS];
+        double[] timeBlock = new double[LogArchive.BLOCK_ROWS];
+
+        long matched = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double maxTimestamp = Double.NaN;
+        double sum = 0.0;
+        long blocksRead = 0;
+        long blocksSkipped = 0;
+        try {
+            for (int b = 0; b < archive.getBlockCount(); b++) {
+                if (!mightMatch(values.blocks()[b], filter == null ? null : filter.blocks()[b], timestamps.blocks()[b])) {
+                    blocksSkipped++;
+                    continue;
+                }
+                blocksRead++;
+                int rows = archive.readBlock(values, b, valueBlock, inflater);
+                archive.readBlock(timestamps, b, timeBlock, inflater);
+                if (filter != null) {
+                    archive.readBlock(filter, b, filterBlock, inflater);
+                }
+                for (int i = 0; i < rows; i++) {
+                    double value = valueBlock[i];
+                    // NaN comparisons are always false, so rows before a key's first value never match
+                    if (!(value == value)
+                            || !(timeBlock[i] >= startSeconds && timeBlock[i] <= endSeconds)
+                            || (filter != null && !(filterBlock[i] >= filterMin && filterBlock[i] <= filterMax))) {
+                        continue;
+                    }
+                    matched++;
+                    sum += value;
+                    min = Math.min(min, value);
+                    if (value > max) {
+                        max = value;
+                        maxTimestamp = timeBlock[i];
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return new Result(archive.getRowCount(), matched, min, max, sum,
+            matched == 0 ? null : archive.getPath().getFileName().toString(), maxTimestamp, blocksRead, blocksSkipped);
+    }
+
+    /** Checks a block's index, false means no row in it can match so it doesn't need to be read. */
+    private boolean mightMatch(LogArchive.Block values, LogArchive.Block filter, LogArchive.Block timestamps) {
+        if (values.isEmpty() || timestamps.max() < startSeconds || timestamps.min() > endSeconds) {
+            return false;
+        }
+        return filter == null || (!filter.isEmpty() && filter.max() >= filterMin && filter.min() <= filterMax);
+    }
+
+    /**
+     * Answers the query from a {@code .wpilog} by decoding every record, the way we had to before
+     * archives. Rows are built the same way {@link LogArchive#convert} builds them, so the answers match.
+     *
+     * @param prefixes the prefixes the archives were made with, which decide what counts as a row
+     */
+    public Result scanLog(Path log, String... prefixes) throws IOException {
+        DataLogReader reader = new DataLogReader(log.toString());
+        if (!reader.isValid()) {
+            throw new IOException(log + " isn't a wpilog file");
+        }
+        String valueKey = "/" + column;
+        String filterKey = filterColumn == null ? null : "/" + filterColumn;
+        HashMap<Integer, String> entries = new HashMap<>();
+        HashMap<Integer, String> entryTypes = new HashMap<>();
+        double value = Double.NaN;
+        double filterValue = Double.NaN;
+        int timestampEntry = -1;
+        long cycleTimestamp = -1;
+
+        long rows = 0;
+        long matched = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double maxTimestamp = Double.NaN;
+        double sum = 0.0;
+
+        // One extra pass through the loop at the end finishes the last row
+        var records = reader.iterator();
+        while (true) {
+            DataLogRecord record = records.hasNext() ? records.next() : null;
+            if (record != null) {
+                if (record.isStart()) {
+                    var start = record.getStartData();
+                    if (start.name.equals(LogArchive.TIMESTAMP_KEY)) {
+                        timestampEntry = start.entry;
+                    } else if (LogArchive.keep(start.name, start.type, prefixes)) {
+                        entries.put(start.entry, start.name);
+                        entryTypes.put(start.entry, start.type);
+                    }
+                    continue;
+                }
+                if (record.isControl()
+                        || (record.getEntry() != timestampEntry && !entries.containsKey(record.getEntry()))) {
+                    continue;
+                }
+            }
+
+            // Every loop starts with its timestamp, which finishes the last loop's row, like convert
+            if (record == null || record.getEntry() == timestampEntry) {
+                if (cycleTimestamp >= 0) {
+                    rows++;
+                    double time = cycleTimestamp / 1e6;
+                    if (value == value && time >= startSeconds && time <= endSeconds
+                            && (filterKey == null || (filterValue >= filterMin && filterValue <= filterMax))) {
+                        matched++;
+                        sum += value;
+                        min = Math.min(min, value);
+                        if (value > max) {
+                            max = value;
+                            maxTimestamp = time;
+                        }
+                    }
+                }
+                if (record == null) {
+                    break;
+                }
+                cycleTimestamp = record.getInteger();
+                continue;
+            }
+
+            String key = entries.get(record.getEntry());
+            if (key.equals(valueKey) || key.equals(filterKey)) {
+                double decoded = switch (entryTypes.get(record.getEntry())) {
+                    case "double" -> record.getDouble();
+                    case "float" -> record.getFloat();
+                    case "int64" -> record.getInteger();
+                    default -> record.getBoolean() ? 1.0 : 0.0;
+                };
+                if (key.equals(valueKey)) {
+                    value = decoded;
+                }
+                if (key.equals(filterKey)) {
+                    filterValue = decoded;
+                }
+            }
+        }
+        return new Result(rows, matched, min, max, sum, matched == 0 ? null : LogArchive.archiveName(log),
+            maxTimestamp, 0, 0);
+    }
+}
@@ -0,0 +1,175 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.WrapperCommand;
+
+/**
+ * Measures how long one piece of robot code takes each loop.
+ *
+ * <p>When the loop overruns, AdvantageKit only tells us the whole loop was slow. Wrapping the
+ * pieces we care about in timers tells us which one it was. Each timer keeps a histogram in a
+ * fixed size array so recording a time never allocates, and every second the median, 99th
+ * percentile and max of just that second are logged under {@code LoopTiming/<name>}, then the
+ * histogram starts over. That way a slow spell shows up when it happens instead of getting buried
+ * under the whole match. The overrun count is a running total. AdvantageKit already logs its own
+ * time under {@code LoggedRobot/LogPeriodicMS}.
+ *
+ * <pre>
+ * long start = timer.start();
+ * doSomething();
+ * timer.stop(start);
+ * </pre>
+ */
+public class LoopTimer {
+    // Set this to false for competition
+    // Since it's a constant, the JIT removes all the timing code when it's off
+    public static final boolean ENABLED = true;
+
+    // Anything longer than a whole loop is counted as an overrun
+    private static final double OVERRUN_MS = 20.0;
+    // How many loops between logging the results, 50 loops is one second
+    private static final int PUBLISH_PERIOD_LOOPS = 50;
+
+    // 0.1ms wide buckets from 0 to 100ms, the last bucket holds everything slower than that
+    private static final double BUCKET_WIDTH_MS = 0.1;
+    private static final int BUCKET_COUNT = 1000;
+
+    private static final ArrayList<LoopTimer> timers = new ArrayList<>();
+    // One timer per command name, so two copies of the same command share their keys instead of
+    // overwriting each other's results
+    private static final HashMap<String, LoopTimer> commandTimers = new HashMap<>();
+    private static int loopsSincePublish = 0;
+
+    // The histogram and max only cover the measurements since the last publish
+    private final int[] buckets = new int[BUCKET_COUNT];
+    private long count = 0;
+    private double maxMs = 0.0;
+    // Since the robot started, this isn't cleared by reset()
+    private long overrunCount = 0;
+
+    // Building these once keeps us from making new strings every time we log
+    private final String p50Key;
+    private final String p99Key;
+    private final String maxKey;
+    private final String overrunKey;
+
+    public LoopTimer(String name) {
+        p50Key = "LoopTiming/" + name + "/P50MS";
+        p99Key = "LoopTiming/" + name + "/P99MS";
+        maxKey = "LoopTiming/" + name + "/MaxMS";
+        overrunKey = "LoopTiming/" + name + "/OverrunCount";
+        timers.add(this);
+    }
+
+    /** Call before the code being timed and pass the result to {@link #stop(long)}. */
+    public long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /** Call after the code being timed. */
+    public void stop(long startNanos) {
+        if (!ENABLED) {
+            return;
+        }
+        record((System.nanoTime() - startNanos) / 1e6);
+    }
+
+    /** Adds one measurement in milliseconds to the histogram. */
+    public void record(double ms) {
+        int bucket = (int) (ms / BUCKET_WIDTH_MS);
+        buckets[Math.min(Math.max(bucket, 0), BUCKET_COUNT - 1)]++;
+        count++;
+        if (ms > OVERRUN_MS) {
+            overrunCount++;
+        }
+        if (ms > maxMs) {
+            maxMs = ms;
+        }
+    }
+
+    /**
+     * Finds the time that the given fraction of measurements were faster than.
+     *
+     * @param fraction between 0 and 1, 0.99 is the 99th percentile
+     * @return the top edge of the bucket the percentile falls in, in milliseconds
+     */
+    public double getPercentileMs(double fraction) {
+        if (count == 0) {
+            return 0.0;
+        }
+        long target = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                // Never report more than the slowest time we've actually seen
+                return Math.min((i + 1) * BUCKET_WIDTH_MS, maxMs);
+            }
+        }
+        return maxMs;
+    }
+
+    public double getMaxMs() {
+        return maxMs;
+    }
+
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /** Starts a new window, clearing the histogram and max. The overrun count keeps going. */
+    public void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        maxMs = 0.0;
+    }
+
+    /** Logs this window's results, then starts the next one. */
+    private void publish() {
+        Logger.recordOutput(p50Key, getPercentileMs(0.50));
+        Logger.recordOutput(p99Key, getPercentileMs(0.99));
+        Logger.recordOutput(maxKey, maxMs);
+        Logger.recordOutput(overrunKey, overrunCount);
+        reset();
+    }
+
+    /** Call once per loop, logs every timer's results about once a second. */
+    public static void publishAll() {
+        if (!ENABLED || ++loopsSincePublish < PUBLISH_PERIOD_LOOPS) {
+            return;
+        }
+        loopsSincePublish = 0;
+        for (int i = 0; i < timers.size(); i++) {
+            timers.get(i).publish();
+        }
+    }
+
+    /**
+     * Wraps a command so its execute() is timed under {@code LoopTiming/Commands/<name>}. Every command
+     * with the same name is timed together.
+     */
+    public static Command timeCommand(Command command) {
+        if (!ENABLED) {
+            return command;
+        }
+        LoopTimer timer = commandTimers.computeIfAbsent(command.getName(), name -> new LoopTimer("Commands/" + name));
+        return new WrapperCommand(command) {
+            @Override
+            public void execute() {
+                long start = timer.start();
+                m_command.execute();
+                timer.stop(start);
+            }
+        };
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.trajectory.Trajectory;
+import edu.wpi.first.wpilibj.Filesystem;
+
+/**
+ * A differential drive trajectory read straight out of a memory mapped file.
+ *
+ * <p>Parsing Choreo's JSON takes a while on the roboRIO, so {@link TrajectoryCacheBuilder} turns
+ * each trajectory into a small binary file at build time instead. The samples in it are evenly
+ * spaced in time and all the same size, so finding the sample for any time is just a division,
+ * and reading it is a few {@code getDouble} calls on the mapped file. Nothing is parsed when the
+ * file is opened, so loading is nearly free.
+ *
+ * <p>File layout, all little endian:
+ *
+ * <pre>
+ * int    magic, "KTRJ"
+ * int    format version
+ * int    sample count
+ * int    fields per sample
+ * double seconds between samples
+ * double total time in seconds
+ * double[fields] per sample, in the order of the field constants below
+ * </pre>
+ *
+ * <p>The last sample is always at the total time, so it may be closer to the one before it than the
+ * rest are.
+ *
+ * <p>Trajectories made while the robot runs, like the ones from {@link AsyncTrajectoryGenerator},
+ * use the same layout in a normal buffer, see {@link #fromTrajectory}, so one follower handles both.
+ */
+public class MappedTrajectory {
+    public static final int MAGIC = 0x4A52544B; // "KTRJ" read as a little endian int
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+
+    // Fields in each sample, and where they go in the array passed to sample()
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int HEADING = 2;
+    public static final int LEFT_VELOCITY = 3;
+    public static final int RIGHT_VELOCITY = 4;
+    public static final int ANGULAR_VELOCITY = 5;
+    public static final int LEFT_ACCELERATION = 6;
+    public static final int RIGHT_ACCELERATION = 7;
+    public static final int FIELD_COUNT = 8;
+
+    private final String name;
+    private final ByteBuffer buffer;
+    private final int sampleCount;
+    private final int strideBytes;
+    private final double periodSeconds;
+    private final double totalTimeSeconds;
+    private final double loadTimeMs;
+
+    private MappedTrajectory(String name, ByteBuffer buffer, double loadTimeMs) {
+        this.name = name;
+        this.buffer = buffer;
+        this.loadTimeMs = loadTimeMs;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(name + " is not a version " + VERSION + " trajectory cache file");
+        }
+        sampleCount = buffer.getInt(8);
+        int fields = buffer.getInt(12);
+        if (fields != FIELD_COUNT || sampleCount < 1) {
+            throw new IllegalArgumentException(name + " has " + fields + " fields and " + sampleCount + " samples");
+        }
+        strideBytes = fields * Double.BYTES;
+        periodSeconds = buffer.getDouble(16);
+        totalTimeSeconds = buffer.getDouble(24);
+    }
+
+    /** Maps a cache file. */
+    public static MappedTrajectory load(Path path) throws IOException {
+        long start = System.nanoTime();
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        String fileName = path.getFileName().toString();
+        return new MappedTrajectory(
+            fileName.substring(0, fileName.lastIndexOf('.')), buffer, (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Maps {@code deploy/trajectories/<name>.bin}, which is where the build puts them. */
+    public static MappedTrajectory loadFromDeploy(String name) throws IOException {
+        return load(Filesystem.getDeployDirectory().toPath().resolve("trajectories").resolve(name + ".bin"));
+    }
+
+    /**
+     * Makes a buffer with the header filled in, positioned at the first sample. Put
+     * {@link #FIELD_COUNT} doubles per sample after it, in field order.
+     */
+    public static ByteBuffer allocate(int sampleCount, double periodSeconds, double totalTimeSeconds) {
+        ByteBuffer buffer = ByteBuffer
+            .allocate(HEADER_BYTES + sampleCount * FIELD_COUNT * Double.BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(sampleCount);
+        buffer.putInt(FIELD_COUNT);
+        buffer.putDouble(periodSeconds);
+        buffer.putDouble(totalTimeSeconds);
+        return buffer;
+    }
+
+    /**
+     * Resamples a WPILib trajectory into the same layout, in memory instead of a file.
+     *
+     * @param trackWidthMeters for splitting the speed into left and right wheel speeds
+     */
+    public static MappedTrajectory fromTrajectory(
+            String name, Trajectory trajectory, double periodSeconds, double trackWidthMeters) {
+        long start = System.nanoTime();
+        double totalTime = trajectory.getTotalTimeSeconds();
+        int sampleCount = (int) Math.ceil(totalTime / periodSeconds - 1e-9) + 1;
+        ByteBuffer buffer = allocate(sampleCount, periodSeconds, totalTime);
+        for (int i = 0; i < sampleCount; i++) {
+            Trajectory.State state = trajectory.sample(Math.min(i * periodSeconds, totalTime));
+            double velocity = state.velocityMetersPerSecond;
+            double acceleration = state.accelerationMetersPerSecondSq;
+            // How fast we're turning comes from how curved the path is and how fast we're going along it
+            double omega = velocity * state.curvatureRadPerMeter;
+            // Ignores how fast the curvature itself changes, which is small on a smooth spline
+            double alpha = acceleration * state.curvatureRadPerMeter;
+            double halfTrack = trackWidthMeters / 2.0;
+            buffer.putDouble(state.poseMeters.getX());
+            buffer.putDouble(state.poseMeters.getY());
+            buffer.putDouble(state.poseMeters.getRotation().getRadians());
+            buffer.putDouble(velocity - omega * halfTrack);
+            buffer.putDouble(velocity + omega * halfTrack);
+            buffer.putDouble(omega);
+            buffer.putDouble(acceleration - alpha * halfTrack);
+            buffer.putDouble(acceleration + alpha * halfTrack);
+        }
+        buffer.flip();
+        return new MappedTrajectory(name, buffer, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Fills {@code out} with the trajectory at a time, interpolating between the two samples on
+     * either side. Times before the start or after the end use the first or last sample.
+     *
+     * @param out at least {@link #FIELD_COUNT} long, indexed by the field constants
+     */
+    public void sample(double timeSeconds, double[] out) {
+        double t = MathUtil.clamp(timeSeconds, 0.0, totalTimeSeconds);
+        int index = Math.min((int) (t / periodSeconds), sampleCount - 1);
+        int next = Math.min(index + 1, sampleCount - 1);
+        double startTime = index * periodSeconds;
+        double endTime = next == sampleCount - 1 ? totalTimeSeconds : next * periodSeconds;
+        double fraction = endTime > startTime ? (t - startTime) / (endTime - startTime) : 0.0;
+
+        int a = HEADER_BYTES + index * strideBytes;
+        int b = HEADER_BYTES + next * strideBytes;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            double start = buffer.getDouble(a + field * Double.BYTES);
+            double end = buffer.getDouble(b + field * Double.BYTES);
+            double delta = end - start;
+            if (field == HEADING) {
+                // Go the short way around
+                delta = MathUtil.angleModulus(delta);
+            }
+            out[field] = start + delta * fraction;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getTotalTimeSeconds() {
+        return totalTimeSeconds;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /** How long it took to open and check the file, or to build it for {@link #fromTrajectory}. */
+    public double getLoadTimeMs() {
+        return loadTimeMs;
+    }
+}
@@ -0,0 +1,224 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import org.littletonrobotics.junction.LogReplaySource;
+import org.littletonrobotics.junction.LogTable;
+
+/**
+ * Replays a {@code .wpilog} file into AdvantageKit one loop at a time.
+ *
+ * <p>Instead of reading the whole log into memory, the file is memory mapped and records are
+ * decoded as replay reaches them. The operating system pages the file in as we go, so even a long
+ * practice session log starts replaying right away and only the current loop's data is ever
+ * decoded. Outputs from the original run (anything under {@code RealOutputs} or {@code
+ * ReplayOutputs}) are skipped without being decoded, since replay regenerates them.
+ *
+ * <p>The log format is described in WPILib's datalog.adoc. In short, every record has a one byte
+ * header saying how many bytes its entry id, payload size and timestamp take, then those fields
+ * little endian, then the payload. Entry id 0 is reserved for control records, which give each
+ * entry id a name and type.
+ */
+public class MappedWPILOGReader implements LogReplaySource {
+    private static final String TIMESTAMP_KEY = "/Timestamp";
+
+    private final Path path;
+    private MappedByteBuffer buffer;
+
+    // Everything we know about each entry id from its start control record
+    private final HashMap<Integer, String> entryNames = new HashMap<>();
+    private final HashMap<Integer, String> entryTypes = new HashMap<>();
+    private int timestampEntry = -1;
+
+    // The timestamp of the loop we're currently reading, in microseconds
+    private Long timestamp = null;
+
+    public MappedWPILOGReader(String path) {
+        this.path = Path.of(path);
+    }
+
+    @Override
+    public void start() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open log " + path, e);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Header: "WPILOG", a 2 byte version, then an extra header string we don't need
+        byte[] magic = new byte[6];
+        buffer.get(magic);
+        if (!new String(magic, StandardCharsets.US_ASCII).equals("WPILOG")) {
+            throw new RuntimeException(path + " is not a WPILOG file");
+        }
+        short version = buffer.getShort();
+        if (version != 0x0100) {
+            throw new RuntimeException(path + " has unsupported WPILOG version " + Integer.toHexString(version));
+        }
+        int extraHeaderLength = buffer.getInt();
+        buffer.position(buffer.position() + extraHeaderLength);
+    }
+
+    @Override
+    public boolean updateTable(LogTable table) {
+        if (timestamp != null) {
+            table.setTimestamp(timestamp);
+        }
+
+        // Read records until we hit the next loop's timestamp
+        while (buffer.remaining() > 0) {
+            int header = buffer.get() & 0xff;
+            int entryBytes = (header & 0x3) + 1;
+            int sizeBytes = ((header >> 2) & 0x3) + 1;
+            int timestampBytes = ((header >> 4) & 0x7) + 1;
+            if (entryBytes + sizeBytes + timestampBytes > buffer.remaining()) {
+                // The robot lost power partway through writing this record's header
+                buffer.position(buffer.limit());
+                break;
+            }
+            int entry = (int) readVarLong(entryBytes);
+            // A 4 byte size past 2 GB would wrap negative, and can only be a torn write anyway
+            long size = readVarLong(sizeBytes);
+            long recordTimestamp = readVarLong(timestampBytes);
+            if (size > buffer.remaining()) {
+                // The robot lost power partway through writing this record
+                buffer.position(buffer.limit());
+                break;
+            }
+            int payloadEnd = buffer.position() + (int) size;
+
+            if (entry == 0) {
+                readControlRecord();
+            } else if (entry == timestampEntry) {
+                boolean first = timestamp == null;
+                timestamp = buffer.getLong();
+                if (first) {
+                    table.setTimestamp(timestamp);
+                } else {
+                    // The next loop starts here, leave it for the next call
+                    buffer.position(payloadEnd);
+                    return true;
+                }
+            } else if (timestamp != null && recordTimestamp == timestamp) {
+                String name = entryNames.get(entry);
+                if (name != null) {
+                    readValue(table, name, entryTypes.get(entry), (int) size);
+                }
+            }
+            buffer.position(payloadEnd);
+        }
+        // Only report the end of the log once we've handed back the last loop
+        if (timestamp == null) {
+            return false;
+        }
+        timestamp = null;
+        return true;
+    }
+
+    /** Reads an unsigned little endian integer that is {@code bytes} long. */
+    private long readVarLong(int bytes) {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= (long) (buffer.get() & 0xff) << (8 * i);
+        }
+        return value;
+    }
+
+    private String readString() {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void readControlRecord() {
+        int type = buffer.get() & 0xff;
+        if (type == 0) {
+            // Start: entry id, name, type, metadata
+            int id = buffer.getInt();
+            String name = readString();
+            String typeName = readString();
+            if (name.equals(TIMESTAMP_KEY)) {
+                timestampEntry = id;
+                return;
+            }
+            // Skip outputs from the original run and AdvantageKit's own bookkeeping, replay remakes them
+            String key = name.substring(1);
+            if (key.startsWith("RealOutputs/") || key.startsWith("ReplayOutputs/") || key.startsWith(".")) {
+                return;
+            }
+            entryNames.put(id, key);
+            entryTypes.put(id, typeName);
+        } else if (type == 1) {
+            // Finish: the entry id may be reused for something else later
+            int id = buffer.getInt();
+            entryNames.remove(id);
+            entryTypes.remove(id);
+        }
+        // Type 2 sets metadata, which replay doesn't need
+    }
+
+    /** Decodes one value and puts it in the table, only called for entries replay actually needs. */
+    private void readValue(LogTable table, String key, String type, int size) {
+        switch (type) {
+            case "boolean" -> table.put(key, buffer.get() != 0);
+            case "int64" -> table.put(key, buffer.getLong());
+            case "float" -> table.put(key, buffer.getFloat());
+            case "double" -> table.put(key, buffer.getDouble());
+            case "string" -> {
+                byte[] bytes = new byte[size];
+                buffer.get(bytes);
+                table.put(key, new String(bytes, StandardCharsets.UTF_8));
+            }
+            case "boolean[]" -> {
+                boolean[] values = new boolean[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = buffer.get() != 0;
+                }
+                table.put(key, values);
+            }
+            case "int64[]" -> {
+                long[] values = new long[size / 8];
+                buffer.asLongBuffer().get(values);
+                table.put(key, values);
+            }
+            case "float[]" -> {
+                float[] values = new float[size / 4];
+                buffer.asFloatBuffer().get(values);
+                table.put(key, values);
+            }
+            case "double[]" -> {
+                double[] values = new double[size / 8];
+                buffer.asDoubleBuffer().get(values);
+                table.put(key, values);
+            }
+            case "string[]" -> {
+                String[] values = new String[buffer.getInt()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = readString();
+                }
+                table.put(key, values);
+            }
+            default -> {
+                // Everything else is raw bytes, structs come back as plain byte arrays
+                // Our IO inputs are all primitives, so replay never needs to decode them
+                byte[] bytes = new byte[size];
+                buffer.get(bytes);
+                table.put(key, bytes);
+            }
+        }
+    }
+}
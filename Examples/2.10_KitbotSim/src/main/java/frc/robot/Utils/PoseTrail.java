@@ -0,0 +1,363 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.math.MathUtil;
+
+/**
+ * Keeps the path the robot has driven as a short list of corners, for dashboards that draw it.
+ *
+ * <p>Drawing a whole match from the pose we log every loop means pulling thousands of poses over the
+ * radio. Most of those are on straight lines, so this only keeps the points where the path bends.
+ * Each new pose is checked against a straight line from the last point we kept, and when any pose
+ * since then would be more than {@code toleranceMeters} off that line, or the robot has turned more
+ * than {@code headingToleranceRadians}, the pose before it becomes a new corner. Poses closer than
+ * {@code minDistanceMeters} to the last one, like while we're sitting still, are skipped.
+ *
+ * <p>If the trail fills up, it's thinned out with Douglas-Peucker at double the tolerance, and the
+ * new tolerance is kept from then on so the whole trail has the same detail.
+ *
+ * <p>Everything is in arrays made in the constructor, so {@link #add} never makes garbage. {@link
+ * #publish} sends packed float arrays of x, y and heading, at most once per period and only when
+ * something changed. Corners never move once they're kept, so most periods it only sends what's new:
+ *
+ * <ul>
+ *   <li>{@code <name>/Trail} is every corner. It's only sent the first time, after {@link #clear}, after
+ *       the trail gets thinned out (which moves corners around), and every {@link
+ *       #PERIODS_PER_FULL_TRAIL} periods so a dashboard that connects late catches up
+ *   <li>{@code <name>/NewCorners} is the corners kept since the last publish, and {@code
+ *       <name>/FirstNewCorner} is the index of the first one. A dashboard cuts its copy of the trail
+ *       down to that index and adds these. If its copy is shorter than the index it missed an update,
+ *       and has to wait for the next {@code Trail}
+ *   <li>{@code <name>/Head} is the newest pose we kept, the end of the line from the last corner to
+ *       the robot, or empty if there isn't one yet
+ * </ul>
+ *
+ * <p>The catch is a dashboard has to put the trail back together, and one that connects late draws
+ * nothing until the next full trail. Something that only shows the latest value of one key, like
+ * AdvantageScope's field view, only gets the whole trail from {@code Trail}, which can be a few
+ * seconds behind. {@code PoseTrailReport} in the drivetrain package measures how much this saves
+ * over sending the whole trail every period.
+ */
+public class PoseTrail {
+    public static final int FLOATS_PER_POINT = 3;
+
+    // How many poses since the last corner we check the line against, more than this and we keep a corner anyway
+    static final int WINDOW_SIZE = 64;
+    // The whole trail is sent at least this often, in publish periods, for dashboards that connect late
+    public static final int PERIODS_PER_FULL_TRAIL = 10;
+
+    private final String trailKey;
+    private final String newCornersKey;
+    private final String firstNewCornerKey;
+    private final String headKey;
+    private final String pointCountKey;
+    private final String rawCountKey;
+    private final String toleranceKey;
+    private final String compactionCountKey;
+    private final String publishedBytesKey;
+    private final int capacity;
+    private final double headingTolerance;
+    private final double minDistance;
+    private final double publishPeriodSeconds;
+    private final double initialTolerance;
+    private double tolerance;
+
+    // The corners we've kept, oldest first
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] headings;
+    private int count = 0;
+
+    // Poses since the last corner, one of these becomes the next corner
+    private final double[] windowX = new double[WINDOW_SIZE];
+    private final double[] windowY = new double[WINDOW_SIZE];
+    private final double[] windowHeading = new double[WINDOW_SIZE];
+    private int windowCount = 0;
+
+    // Scratch space for Douglas-Peucker, so thinning out doesn't make garbage either
+    private final boolean[] keep;
+    private final int[] stackStart;
+    private final int[] stackEnd;
+
+    private long rawCount = 0;
+    private long compactionCount = 0;
+    private boolean changed = false;
+    private double lastPublishSeconds = Double.NEGATIVE_INFINITY;
+    private double lastFullTrailSeconds = Double.NEGATIVE_INFINITY;
+    // Set when corners we already sent were moved or forgotten, so only the whole trail is right
+    private boolean fullTrailNeeded = true;
+    // How many corners the dashboards already have
+    private int publishedCount = 0;
+    private long publishedBytes = 0;
+
+    /**
+     * @param name where to log it, the trail goes under {@code <name>/Trail} and the rest next to it
+     * @param capacity the most corners to keep, the packed array is at most 12 bytes per corner
+     * @param toleranceMeters how far off the real path the trail can be
+     * @param headingToleranceRadians how far the robot can turn before we keep a corner
+     * @param minDistanceMeters poses closer than this to the last one are skipped
+     * @param publishPeriodSeconds how often {@link #publish} sends the trail
+     */
+    public PoseTrail(String name, int capacity, double toleranceMeters, double headingToleranceRadians,
+            double minDistanceMeters, double publishPeriodSeconds) {
+        if (capacity < 4) {
+            throw new IllegalArgumentException("A pose trail needs room for at least 4 corners");
+        }
+        trailKey = name + "/Trail";
+        newCornersKey = name + "/NewCorners";
+        firstNewCornerKey = name + "/FirstNewCorner";
+        headKey = name + "/Head";
+        pointCountKey = name + "/PointCount";
+        rawCountKey = name + "/RawPoseCount";
+        toleranceKey = name + "/ToleranceMeters";
+        compactionCountKey = name + "/CompactionCount";
+        publishedBytesKey = name + "/PublishedBytes";
+        this.capacity = capacity;
+        this.initialTolerance = toleranceMeters;
+        this.tolerance = toleranceMeters;
+        this.headingTolerance = headingToleranceRadians;
+        this.minDistance = minDistanceMeters;
+        this.publishPeriodSeconds = publishPeriodSeconds;
+        xs = new double[capacity];
+        ys = new double[capacity];
+        headings = new double[capacity];
+        keep = new boolean[capacity];
+        stackStart = new int[capacity];
+        stackEnd = new int[capacity];
+    }
+
+    /** Adds the pose from this loop. */
+    public void add(double x, double y, double heading) {
+        rawCount++;
+        if (count == 0) {
+            keepCorner(x, y, heading);
+            return;
+        }
+
+        // Sitting still, or close enough that it can't change the trail
+        int last = windowCount - 1;
+        double lastX = last >= 0 ? windowX[last] : xs[count - 1];
+        double lastY = last >= 0 ? windowY[last] : ys[count - 1];
+        double lastHeading = last >= 0 ? windowHeading[last] : headings[count - 1];
+        if (Math.hypot(x - lastX, y - lastY) < minDistance
+                && Math.abs(MathUtil.angleModulus(heading - lastHeading)) < headingTolerance) {
+            return;
+        }
+
+        if (windowCount > 0 && (windowCount == WINDOW_SIZE || !lineFits(x, y, heading))) {
+            // The line from the last corner doesn't reach this pose anymore, so the pose before it is a corner
+            keepCorner(windowX[last], windowY[last], windowHeading[last]);
+            windowCount = 0;
+        }
+        windowX[windowCount] = x;
+        windowY[windowCount] = y;
+        windowHeading[windowCount] = heading;
+        windowCount++;
+        changed = true;
+    }
+
+    /** Whether a straight line from the last corner to this pose passes close to every pose in between. */
+    private boolean lineFits(double x, double y, double heading) {
+        double anchorX = xs[count - 1];
+        double anchorY = ys[count - 1];
+        if (Math.abs(MathUtil.angleModulus(heading - headings[count - 1])) > headingTolerance) {
+            return false;
+        }
+        for (int i = 0; i < windowCount; i++) {
+            if (distanceToSegment(windowX[i], windowY[i], anchorX, anchorY, x, y) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void keepCorner(double x, double y, double heading) {
+        if (count == capacity) {
+            compact();
+        }
+        xs[count] = x;
+        ys[count] = y;
+        headings[count] = heading;
+        count++;
+        changed = true;
+    }
+
+    /** Thins the corners out with Douglas-Peucker, doubling the tolerance until at most half are left. */
+    private void compact() {
+        while (count > capacity / 2) {
+            tolerance *= 2.0;
+            // Keep the ends, then keep the furthest point off each line until everything's close enough
+            for (int i = 0; i < count; i++) {
+                keep[i] = false;
+            }
+            keep[0] = true;
+            keep[count - 1] = true;
+            int stackSize = 0;
+            stackStart[stackSize] = 0;
+            stackEnd[stackSize] = count - 1;
+            stackSize++;
+            while (stackSize > 0) {
+                stackSize--;
+                int start = stackStart[stackSize];
+                int end = stackEnd[stackSize];
+                int furthest = -1;
+                double furthestDistance = tolerance;
+                for (int i = start + 1; i < end; i++) {
+                    double distance = distanceToSegment(xs[i], ys[i], xs[start], ys[start], xs[end], ys[end]);
+                    if (distance > furthestDistance) {
+                        furthest = i;
+                        furthestDistance = distance;
+                    }
+                }
+                if (furthest >= 0) {
+                    // Each split keeps a point, so the stack never holds more than the number of corners
+                    keep[furthest] = true;
+                    stackStart[stackSize] = start;
+                    stackEnd[stackSize] = furthest;
+                    stackSize++;
+                    stackStart[stackSize] = furthest;
+                    stackEnd[stackSize] = end;
+                    stackSize++;
+                }
+            }
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (keep[i]) {
+                    xs[kept] = xs[i];
+                    ys[kept] = ys[i];
+                    headings[kept] = headings[i];
+                    kept++;
+                }
+            }
+            count = kept;
+            compactionCount++;
+        }
+        // Corners the dashboards have were dropped, so their indexes are wrong now
+        fullTrailNeeded = true;
+    }
+
+    static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0.0 ? 0.0 : MathUtil.clamp(((px - ax) * dx + (py - ay) * dy) / lengthSquared, 0.0, 1.0);
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    /**
+     * Forgets the whole trail, like when the pose is reset, so we don't draw a line across the field.
+     * The tolerance goes back to what it started at, since the new trail starts out empty.
+     */
+    public void clear() {
+        count = 0;
+        windowCount = 0;
+        tolerance = initialTolerance;
+        fullTrailNeeded = true;
+        changed = true;
+    }
+
+    /** How many points {@link #pack} would return, the corners plus where we are now. */
+    public int size() {
+        return count + (windowCount > 0 ? 1 : 0);
+    }
+
+    /**
+     * Packs the trail into x, y and heading for each point, oldest first. The last point is always the
+     * newest pose we kept, so the trail reaches the robot.
+     *
+     * @param out where to put it, needs room for {@code size() * FLOATS_PER_POINT}
+     * @return how many floats were written
+     */
+    public int pack(float[] out) {
+        int written = packCorners(out, 0, count);
+        return written + packHead(out, written);
+    }
+
+    /** Packs corners {@code from} up to {@code to} into the start of {@code out}, returns how many floats. */
+    private int packCorners(float[] out, int from, int to) {
+        int written = 0;
+        for (int i = from; i < to; i++) {
+            out[written++] = (float) xs[i];
+            out[written++] = (float) ys[i];
+            out[written++] = (float) headings[i];
+        }
+        return written;
+    }
+
+    /** Packs the newest pose we kept at {@code offset}, if there is one, returns how many floats. */
+    private int packHead(float[] out, int offset) {
+        if (windowCount == 0) {
+            return 0;
+        }
+        out[offset] = (float) windowX[windowCount - 1];
+        out[offset + 1] = (float) windowY[windowCount - 1];
+        out[offset + 2] = (float) windowHeading[windowCount - 1];
+        return FLOATS_PER_POINT;
+    }
+
+    /**
+     * Sends what changed if it's been a period since last time, see the top of this file for the keys.
+     * The packed arrays are new each time, since the logger keeps them, but that's only once a period.
+     */
+    public void publish(double timestampSeconds) {
+        if (timestampSeconds - lastPublishSeconds < publishPeriodSeconds) {
+            return;
+        }
+        boolean sendFullTrail = fullTrailNeeded
+            || timestampSeconds - lastFullTrailSeconds >= PERIODS_PER_FULL_TRAIL * publishPeriodSeconds;
+        if (!changed && !sendFullTrail) {
+            return;
+        }
+        if (sendFullTrail) {
+            float[] trail = new float[count * FLOATS_PER_POINT];
+            packCorners(trail, 0, count);
+            publishedBytes += trail.length * 4L;
+            Logger.recordOutput(trailKey, trail);
+            publishedCount = count;
+            lastFullTrailSeconds = timestampSeconds;
+            fullTrailNeeded = false;
+        }
+        // Right after the whole trail this is empty, but it's still sent so the index matches
+        float[] newCorners = new float[(count - publishedCount) * FLOATS_PER_POINT];
+        packCorners(newCorners, publishedCount, count);
+        float[] head = new float[windowCount > 0 ? FLOATS_PER_POINT : 0];
+        packHead(head, 0);
+        publishedBytes += (newCorners.length + head.length) * 4L;
+        Logger.recordOutput(firstNewCornerKey, publishedCount);
+        Logger.recordOutput(newCornersKey, newCorners);
+        Logger.recordOutput(headKey, head);
+        publishedCount = count;
+
+        Logger.recordOutput(pointCountKey, size());
+        Logger.recordOutput(rawCountKey, rawCount);
+        Logger.recordOutput(toleranceKey, tolerance);
+        Logger.recordOutput(compactionCountKey, compactionCount);
+        Logger.recordOutput(publishedBytesKey, publishedBytes);
+        lastPublishSeconds = timestampSeconds;
+        changed = false;
+    }
+
+    /** How many poses have been added, including ones that were skipped. */
+    public long getRawCount() {
+        return rawCount;
+    }
+
+    /** The tolerance we're keeping corners at now, bigger than we started with if the trail filled up. */
+    public double getToleranceMeters() {
+        return tolerance;
+    }
+
+    public long getCompactionCount() {
+        return compactionCount;
+    }
+
+    /** How many bytes of trail {@link #publish} has sent, not counting the stats. */
+    public long getPublishedBytes() {
+        return publishedBytes;
+    }
+}
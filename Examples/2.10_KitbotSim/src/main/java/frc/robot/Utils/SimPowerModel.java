@@ -0,0 +1,115 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.ArrayList;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.simulation.RoboRioSim;
+
+/**
+ * The battery for the whole simulated robot.
+ *
+ * <p>Every sim IO adds itself as a current source and reports how much it drew each loop. Once a
+ * loop, {@link #update()} adds those up and works out the battery voltage from its internal
+ * resistance, the same way a real battery sags when a lot of motors pull at once. That voltage goes
+ * into {@link RoboRioSim}, so everything that reads the battery sees it next loop.
+ *
+ * <p>It also acts like the roboRIO in a brownout: once the voltage drops below
+ * {@link RobotController#getBrownoutVoltage()}, {@link #isBrownedOut()} turns true and the sim IOs
+ * should stop driving their motors, the same way the roboRIO disables motor outputs. Outputs come
+ * back once the voltage has recovered a little past the threshold.
+ *
+ * <p>Logged under {@code SimPower/}. Only used in sim, the real robot has a real battery.
+ */
+public final class SimPowerModel {
+    // About what a fresh, charged battery sits at with no load
+    public static final double DEFAULT_NOMINAL_VOLTS = 12.5;
+    // The battery's internal resistance plus the main breaker, PDH, and wiring
+    // A worn out battery can be twice this, try it with setBattery
+    public static final double DEFAULT_RESISTANCE_OHMS = 0.020;
+    // The roboRIO, radio, and everything else that's always on
+    public static final double BASE_LOAD_AMPS = 2.0;
+    // How far over the brownout voltage we have to get before outputs come back
+    public static final double BROWNOUT_HYSTERESIS_VOLTS = 0.5;
+
+    /** One thing that draws current from the battery. */
+    public static final class Source {
+        private final String key;
+        private double amps = 0.0;
+
+        private Source(String name) {
+            key = "SimPower/" + name + "Amps";
+        }
+
+        /** How much current this drew from the battery since the last update, on average. */
+        public void setCurrentAmps(double currentAmps) {
+            amps = currentAmps;
+        }
+    }
+
+    private static final ArrayList<Source> sources = new ArrayList<>();
+
+    private static double nominalVolts = DEFAULT_NOMINAL_VOLTS;
+    private static double resistanceOhms = DEFAULT_RESISTANCE_OHMS;
+    private static double batteryVolts = DEFAULT_NOMINAL_VOLTS;
+    private static double totalAmps = 0.0;
+    private static boolean brownedOut = false;
+    private static long brownoutCount = 0;
+
+    private SimPowerModel() {}
+
+    /** Adds a current source, each sim IO should make one for itself. */
+    public static Source addSource(String name) {
+        Source source = new Source(name);
+        sources.add(source);
+        return source;
+    }
+
+    /** Swaps in a different battery, like an old one with more resistance. */
+    public static void setBattery(double newNominalVolts, double newResistanceOhms) {
+        nominalVolts = newNominalVolts;
+        resistanceOhms = newResistanceOhms;
+    }
+
+    /** Works out the battery voltage from this loop's current draw. Call once per loop, after the IOs update. */
+    public static void update() {
+        totalAmps = BASE_LOAD_AMPS;
+        for (int i = 0; i < sources.size(); i++) {
+            totalAmps += sources.get(i).amps;
+        }
+        batteryVolts = Math.max(nominalVolts - totalAmps * resistanceOhms, 0.0);
+        RoboRioSim.setVInVoltage(batteryVolts);
+        RoboRioSim.setVInCurrent(totalAmps);
+
+        // The sim HAL never reports a brownout on its own, so we decide here
+        double brownoutVolts = RobotController.getBrownoutVoltage();
+        if (!brownedOut && batteryVolts < brownoutVolts) {
+            brownedOut = true;
+            brownoutCount++;
+        } else if (brownedOut && batteryVolts > brownoutVolts + BROWNOUT_HYSTERESIS_VOLTS) {
+            brownedOut = false;
+        }
+
+        Logger.recordOutput("SimPower/BatteryVolts", batteryVolts);
+        Logger.recordOutput("SimPower/TotalCurrentAmps", totalAmps);
+        Logger.recordOutput("SimPower/BrownedOut", brownedOut);
+        Logger.recordOutput("SimPower/BrownoutCount", brownoutCount);
+        for (int i = 0; i < sources.size(); i++) {
+            Logger.recordOutput(sources.get(i).key, sources.get(i).amps);
+        }
+    }
+
+    /** True while the simulated roboRIO has motor outputs turned off from low voltage. */
+    public static boolean isBrownedOut() {
+        return brownedOut;
+    }
+
+    public static double getBatteryVolts() {
+        return batteryVolts;
+    }
+}
@@ -0,0 +1,88 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bookkeeping for a fixed size queue shared between exactly one writer thread and one reader
+ * thread (single producer, single consumer, or SPSC).
+ *
+ * <p>This only works with one writer and one reader. In exchange it never takes a lock and never
+ * allocates after it's constructed, so neither thread can stall the other. This class only keeps
+ * track of which slots are full. Each queue keeps its own values in parallel arrays of {@code
+ * capacity} instead of an array of objects, so we don't make garbage, like this:
+ *
+ * <pre>
+ * int slot = startOffer();
+ * if (slot &lt; 0) return false; // Full, already counted as dropped
+ * values[slot] = value;
+ * finishOffer();
+ *
+ * int count = startDrain(out.length);
+ * for (int i = 0; i &lt; count; i++) out[i] = values[drainSlot(i)];
+ * finishDrain(count);
+ * </pre>
+ */
+public abstract class SpscQueue {
+    protected final int capacity;
+
+    // head is the next item to read, tail is the next slot to write
+    // These only ever count up, the array index is the count modulo the capacity
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    protected SpscQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * The slot to write the next item into, or -1 if the queue is full and the item was dropped. Only
+     * call this from the writer thread, and call {@link #finishOffer} once the item is written.
+     */
+    protected final int startOffer() {
+        long t = tail.get();
+        if (t - head.get() >= capacity) {
+            dropped.incrementAndGet();
+            return -1;
+        }
+        return (int) (t % capacity);
+    }
+
+    /** Hands the item written into the slot from {@link #startOffer} to the reader. */
+    protected final void finishOffer() {
+        // Publishing the new tail after the writes makes them visible to the reader
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /**
+     * How many items can be read right now, at most {@code max}. Only call this from the reader
+     * thread, and call {@link #finishDrain} once they've been copied out.
+     */
+    protected final int startDrain(int max) {
+        return (int) Math.min(tail.get() - head.get(), max);
+    }
+
+    /** The slot the {@code i}-th item being drained is in. */
+    protected final int drainSlot(int i) {
+        return (int) ((head.get() + i) % capacity);
+    }
+
+    /** Removes the first {@code count} items, so the writer can reuse their slots. */
+    protected final void finishDrain(int count) {
+        head.lazySet(head.get() + count);
+    }
+
+    /** Number of items waiting to be read. */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /** Total number of items thrown away because the reader fell behind. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
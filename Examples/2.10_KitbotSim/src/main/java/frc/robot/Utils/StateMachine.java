@@ -0,0 +1,178 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.ArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.Commands;
+import edu.wpi.first.wpilibj2.command.button.Trigger;
+
+/**
+ * A state machine for coordinating subsystems, like the superstructure in the
+ * Superstructure-Triggers writeup.
+ *
+ * <p>Each state gets a {@link Trigger} that is true while we're in it, so commands are bound the
+ * usual command based way. Transitions are added as edges with a guard condition. The first loop
+ * the machine runs, the edges are compiled into a table by state, and from then on each loop only
+ * checks the guards on edges out of the current state, in the order they were added. The first one
+ * that's true wins, and we take at most one transition per loop. So a big state machine costs about
+ * the same per loop as a small one.
+ *
+ * <pre>
+ * StateMachine&lt;State&gt; machine = new StateMachine&lt;&gt;("Superstructure", State.class, State.IDLE)
+ *     .addTransitionFromAny(State.IDLE, DriverStation::isDisabled)
+ *     .addTransition(State.IDLE, State.INTAKE, intakeRequest);
+ * machine.stateTrigger(State.INTAKE).whileTrue(intake.run());
+ * </pre>
+ *
+ * <p>Logs the current state, how many guards were checked, how long checking took, and how long
+ * after the loop started a transition happened, all under the machine's name.
+ */
+public class StateMachine<S extends Enum<S>> {
+    private record Edge(int from, int to, BooleanSupplier guard) {}
+
+    private final S[] states;
+    private final ArrayList<Edge> edges = new ArrayList<>();
+    // Filled in by compile(), edge targets and guards for each state, indexed by ordinal
+    private int[][] targets = null;
+    private BooleanSupplier[][] guards = null;
+    private final Trigger[] stateTriggers;
+
+    private S state;
+    private S previousState;
+    private long transitionCount = 0;
+
+    private final LoopTimer evaluateTimer;
+    private final LoopTimer transitionLatencyTimer;
+    // Building these once keeps us from making new strings every time we log
+    private final String stateKey;
+    private final String previousStateKey;
+    private final String guardsCheckedKey;
+    private final String transitionCountKey;
+
+    public StateMachine(String name, Class<S> stateType, S initialState) {
+        states = stateType.getEnumConstants();
+        stateTriggers = new Trigger[states.length];
+        state = initialState;
+        previousState = initialState;
+
+        evaluateTimer = new LoopTimer(name + "/Evaluate");
+        transitionLatencyTimer = new LoopTimer(name + "/TransitionLatency");
+        stateKey = name + "/State";
+        previousStateKey = name + "/PreviousState";
+        guardsCheckedKey = name + "/GuardsChecked";
+        transitionCountKey = name + "/TransitionCount";
+
+        // Bound now, before anyone binds to the state triggers, so those see a new state the same loop
+        CommandScheduler.getInstance().getDefaultButtonLoop().bind(this::evaluate);
+    }
+
+    /** Moves from one state to another when the guard is true. */
+    public StateMachine<S> addTransition(S from, S to, BooleanSupplier guard) {
+        if (targets != null) {
+            throw new IllegalStateException("Transitions must be added before the state machine first runs");
+        }
+        edges.add(new Edge(from.ordinal(), to.ordinal(), guard));
+        return this;
+    }
+
+    /**
+     * Moves from every other state to this one when the guard is true. Edges are checked in the
+     * order they're added, so add these first for things like disabling that should always win.
+     */
+    public StateMachine<S> addTransitionFromAny(S to, BooleanSupplier guard) {
+        for (S from : states) {
+            if (from != to) {
+                addTransition(from, to, guard);
+            }
+        }
+        return this;
+    }
+
+    /** A trigger that is true while we're in the given state. */
+    public Trigger stateTrigger(S s) {
+        int index = s.ordinal();
+        if (stateTriggers[index] == null) {
+            stateTriggers[index] = new Trigger(() -> state == s);
+        }
+        return stateTriggers[index];
+    }
+
+    /** A command that jumps straight to a state, for autos and other code that isn't a trigger. */
+    public Command setStateCommand(S s) {
+        return Commands.runOnce(() -> transitionTo(s)).withName("SetState" + s.name());
+    }
+
+    public S getState() {
+        return state;
+    }
+
+    public S getPreviousState() {
+        return previousState;
+    }
+
+    /** Builds the table of edges out of each state. */
+    private void compile() {
+        int[] counts = new int[states.length];
+        for (Edge edge : edges) {
+            counts[edge.from()]++;
+        }
+        targets = new int[states.length][];
+        guards = new BooleanSupplier[states.length][];
+        for (int i = 0; i < states.length; i++) {
+            targets[i] = new int[counts[i]];
+            guards[i] = new BooleanSupplier[counts[i]];
+            counts[i] = 0;
+        }
+        for (Edge edge : edges) {
+            int slot = counts[edge.from()]++;
+            targets[edge.from()][slot] = edge.to();
+            guards[edge.from()][slot] = edge.guard();
+        }
+    }
+
+    /** Checks the edges out of the current state, runs once per loop from the scheduler. */
+    private void evaluate() {
+        long start = evaluateTimer.start();
+        if (targets == null) {
+            compile();
+        }
+
+        int current = state.ordinal();
+        int[] stateTargets = targets[current];
+        BooleanSupplier[] stateGuards = guards[current];
+        int checked = 0;
+        for (int i = 0; i < stateGuards.length; i++) {
+            checked++;
+            if (stateGuards[i].getAsBoolean()) {
+                transitionTo(states[stateTargets[i]]);
+                break;
+            }
+        }
+
+        evaluateTimer.stop(start);
+        Logger.recordOutput(stateKey, state.name());
+        Logger.recordOutput(previousStateKey, previousState.name());
+        Logger.recordOutput(guardsCheckedKey, checked);
+        Logger.recordOutput(transitionCountKey, transitionCount);
+    }
+
+    private void transitionTo(S next) {
+        if (next == state) {
+            return;
+        }
+        previousState = state;
+        state = next;
+        transitionCount++;
+        // AdvantageKit timestamps each loop when it starts, which is about when the guard's inputs were read
+        transitionLatencyTimer.record((RobotController.getFPGATime() - Logger.getTimestamp()) / 1000.0);
+    }
+}
@@ -0,0 +1,297 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.littletonrobotics.junction.LogDataReceiver;
+import org.littletonrobotics.junction.LogTable;
+import org.littletonrobotics.junction.LogTable.LogValue;
+import org.littletonrobotics.junction.Logger;
+
+import edu.wpi.first.networktables.GenericPublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.PubSubOption;
+
+/**
+ * Publishes AdvantageKit data to NetworkTables, but only as much as the dashboards actually need.
+ *
+ * <p>AdvantageKit's {@code NT4Publisher} sends every field every loop. On the field that all goes
+ * over the radio, which has a bandwidth limit, and costs roboRIO CPU. This publisher lets each group
+ * of keys have its own rate, skips values that haven't changed by more than a deadband, and can
+ * pack all the numbers under a key into one array so they go out as one update. The USB stick log
+ * still gets everything at full rate, this only changes what goes to NetworkTables.
+ *
+ * <p>Rules are matched by key prefix, longest prefix wins:
+ *
+ * <pre>
+ * new ThrottledNT4Publisher()
+ *     .addRule("RealOutputs/LoopTiming/", 1.0, 0.0)
+ *     .addPackedRule("Drivetrain/", 0.1);
+ * </pre>
+ */
+public class ThrottledNT4Publisher implements LogDataReceiver {
+    /** How one group of keys is published. */
+    private record Rule(String prefix, double periodSeconds, double deadband, boolean packed) {}
+
+    /** What we remember about each key between loops. */
+    private static class FieldState {
+        Rule rule;
+        GenericPublisher publisher;
+        long lastPublishMicros = Long.MIN_VALUE / 2; // Far enough in the past that the first value always goes out
+        LogValue lastValue;
+        // For a packed key, its group and where its value goes in the group's array
+        PackedGroup packedGroup;
+        int packedIndex = -1;
+    }
+
+    /** The numbers under one packed rule, in the order they were first seen. */
+    private static class PackedGroup {
+        final ArrayList<String> keys = new ArrayList<>();
+        double[] values = new double[0];
+        boolean layoutChanged = false;
+        long lastPublishMicros = Long.MIN_VALUE / 2; // Far enough in the past that the first value always goes out
+        GenericPublisher valuesPublisher;
+        GenericPublisher keysPublisher;
+    }
+
+    private final NetworkTable table = NetworkTableInstance.getDefault().getTable("AdvantageKit");
+    // Anything without a rule is published every loop, but only when it changes
+    private Rule defaultRule = new Rule("", 0.0, 0.0, false);
+    private final ArrayList<Rule> rules = new ArrayList<>();
+    private final HashMap<String, FieldState> fields = new HashMap<>();
+    private final HashMap<Rule, PackedGroup> packedGroups = new HashMap<>();
+    private GenericPublisher timestampPublisher;
+
+    // Written by AdvantageKit's receiver thread, read by the main loop in recordMetrics
+    private volatile double cpuMsPerLoop = 0.0;
+    private volatile double bytesPerSecond = 0.0;
+    private volatile long suppressedCount = 0;
+    private long windowStartMicros = 0;
+    private long windowBytes = 0;
+
+    /**
+     * Publishes keys starting with {@code prefix} at most once per period, and only when a number
+     * has changed by more than the deadband. Other types are published when they change at all.
+     */
+    public ThrottledNT4Publisher addRule(String prefix, double periodSeconds, double deadband) {
+        rules.add(new Rule(prefix, periodSeconds, deadband, false));
+        return this;
+    }
+
+    /**
+     * Packs every number under {@code prefix} into one array at {@code <prefix>Packed}, with the key
+     * names at {@code <prefix>PackedKeys}. Non-number fields are published normally at the same
+     * rate.
+     */
+    public ThrottledNT4Publisher addPackedRule(String prefix, double periodSeconds) {
+        rules.add(new Rule(prefix, periodSeconds, 0.0, true));
+        return this;
+    }
+
+    /** Sets the rate and deadband for keys that don't match any rule. */
+    public ThrottledNT4Publisher setDefaultRule(double periodSeconds, double deadband) {
+        defaultRule = new Rule("", periodSeconds, deadband, false);
+        return this;
+    }
+
+    @Override
+    public void start() {
+        timestampPublisher = table.getTopic("Timestamp").genericPublish("int64", PubSubOption.sendAll(true));
+    }
+
+    @Override
+    public void putTable(LogTable logTable) {
+        long startNanos = System.nanoTime();
+        long now = logTable.getTimestamp();
+        int bytes = 0;
+        long suppressed = 0;
+
+        for (PackedGroup group : packedGroups.values()) {
+            group.layoutChanged = false;
+        }
+
+        for (Map.Entry<String, LogValue> entry : logTable.getAll(false).entrySet()) {
+            String key = entry.getKey().startsWith("/") ? entry.getKey().substring(1) : entry.getKey();
+            LogValue value = entry.getValue();
+            FieldState state = fields.get(key);
+            if (state == null) {
+                state = new FieldState();
+                state.rule = findRule(key);
+                fields.put(key, state);
+            }
+
+            if (state.rule.packed() && isNumber(value)) {
+                packValue(key, value, state);
+                continue;
+            }
+
+            if (now - state.lastPublishMicros < state.rule.periodSeconds() * 1e6
+                    || !changedEnough(state.lastValue, value, state.rule.deadband())) {
+                suppressed++;
+                continue;
+            }
+            if (state.publisher == null) {
+                state.publisher = table.getTopic(key).genericPublish(value.getNT4Type(), PubSubOption.sendAll(true));
+            }
+            bytes += publish(state.publisher, value, now) + key.length();
+            state.lastPublishMicros = now;
+            state.lastValue = value;
+        }
+
+        for (Map.Entry<Rule, PackedGroup> entry : packedGroups.entrySet()) {
+            bytes += publishPacked(entry.getKey(), entry.getValue(), now);
+        }
+        timestampPublisher.setInteger(now, now);
+
+        // Update the metrics, bytes per second is averaged over one second windows
+        cpuMsPerLoop = (System.nanoTime() - startNanos) / 1e6;
+        suppressedCount += suppressed;
+        windowBytes += bytes;
+        if (now - windowStartMicros >= 1_000_000) {
+            bytesPerSecond = windowBytes / ((now - windowStartMicros) / 1e6);
+            windowStartMicros = now;
+            windowBytes = 0;
+        }
+    }
+
+    /** Logs how much this publisher is costing us, call from the main loop. */
+    public void recordMetrics() {
+        Logger.recordOutput("NT4Publisher/CPUMS", cpuMsPerLoop);
+        Logger.recordOutput("NT4Publisher/BytesPerSecond", bytesPerSecond);
+        Logger.recordOutput("NT4Publisher/SuppressedCount", suppressedCount);
+    }
+
+    private Rule findRule(String key) {
+        Rule best = defaultRule;
+        for (Rule rule : rules) {
+            if (key.startsWith(rule.prefix()) && rule.prefix().length() > best.prefix().length()) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isNumber(LogValue value) {
+        return switch (value.type) {
+            case Boolean, Integer, Float, Double -> true;
+            default -> false;
+        };
+    }
+
+    private static double asDouble(LogValue value) {
+        return switch (value.type) {
+            case Boolean -> value.getBoolean() ? 1.0 : 0.0;
+            case Integer -> value.getInteger();
+            case Float -> value.getFloat();
+            default -> value.getDouble();
+        };
+    }
+
+    private static boolean changedEnough(LogValue last, LogValue value, double deadband) {
+        if (last == null) {
+            return true;
+        }
+        if (deadband > 0.0 && isNumber(value) && last.type == value.type) {
+            return Math.abs(asDouble(value) - asDouble(last)) > deadband;
+        }
+        return !value.equals(last);
+    }
+
+    private void packValue(String key, LogValue value, FieldState state) {
+        if (state.packedIndex < 0) {
+            // The first time we see a key it gets the next slot, and keeps it, so we never search for it
+            PackedGroup group = packedGroups.computeIfAbsent(state.rule, r -> new PackedGroup());
+            group.keys.add(key);
+            group.values = Arrays.copyOf(group.values, group.keys.size());
+            group.layoutChanged = true;
+            state.packedGroup = group;
+            state.packedIndex = group.keys.size() - 1;
+        }
+        state.packedGroup.values[state.packedIndex] = asDouble(value);
+    }
+
+    private int publishPacked(Rule rule, PackedGroup group, long now) {
+        if (!group.layoutChanged && now - group.lastPublishMicros < rule.periodSeconds() * 1e6) {
+            return 0;
+        }
+        if (group.valuesPublisher == null) {
+            group.valuesPublisher = table.getTopic(rule.prefix() + "Packed").genericPublish("double[]");
+            group.keysPublisher = table.getTopic(rule.prefix() + "PackedKeys").genericPublish("string[]");
+        }
+        int bytes = 0;
+        if (group.layoutChanged) {
+            // The key names only need to be sent when a new key shows up
+            group.keysPublisher.setStringArray(group.keys.toArray(new String[0]), now);
+            for (String key : group.keys) {
+                bytes += key.length();
+            }
+        }
+        group.valuesPublisher.setDoubleArray(group.values, now);
+        group.lastPublishMicros = now;
+        return bytes + group.values.length * 8;
+    }
+
+    /** Sends one value and returns roughly how many bytes it took. */
+    private static int publish(GenericPublisher publisher, LogValue value, long timestamp) {
+        switch (value.type) {
+            case Raw -> {
+                publisher.setRaw(value.getRaw(), timestamp);
+                return value.getRaw().length;
+            }
+            case Boolean -> {
+                publisher.setBoolean(value.getBoolean(), timestamp);
+                return 1;
+            }
+            case Integer -> {
+                publisher.setInteger(value.getInteger(), timestamp);
+                return 8;
+            }
+            case Float -> {
+                publisher.setFloat(value.getFloat(), timestamp);
+                return 4;
+            }
+            case Double -> {
+                publisher.setDouble(value.getDouble(), timestamp);
+                return 8;
+            }
+            case String -> {
+                publisher.setString(value.getString(), timestamp);
+                return value.getString().length();
+            }
+            case BooleanArray -> {
+                publisher.setBooleanArray(value.getBooleanArray(), timestamp);
+                return value.getBooleanArray().length;
+            }
+            case IntegerArray -> {
+                publisher.setIntegerArray(value.getIntegerArray(), timestamp);
+                return value.getIntegerArray().length * 8;
+            }
+            case FloatArray -> {
+                publisher.setFloatArray(value.getFloatArray(), timestamp);
+                return value.getFloatArray().length * 4;
+            }
+            case DoubleArray -> {
+                publisher.setDoubleArray(value.getDoubleArray(), timestamp);
+                return value.getDoubleArray().length * 8;
+            }
+            case StringArray -> {
+                publisher.setStringArray(value.getStringArray(), timestamp);
+                int bytes = 0;
+                for (String s : value.getStringArray()) {
+                    bytes += s.length();
+                }
+                return bytes;
+            }
+            default -> {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.wpi.first.math.MathUtil;
+
+/**
+ * Turns Choreo {@code .traj} files into the binary files {@link MappedTrajectory} reads.
+ *
+ * <p>This runs on our computers as part of the build ({@code ./gradlew buildTrajectoryCache}), so
+ * the roboRIO never has to parse JSON. Choreo's samples aren't always evenly spaced, so we resample
+ * them at a fixed period, which is what lets the robot find a sample with one division.
+ *
+ * <p>Only differential drive trajectories are supported, since that's what the kitbot is.
+ */
+public final class TrajectoryCacheBuilder {
+    // Half a loop between samples, so interpolating between them is plenty accurate
+    public static final double DEFAULT_PERIOD_SECONDS = 0.010;
+
+    // The Choreo sample fields that go in each MappedTrajectory field
+    private static final String[] CHOREO_FIELDS = new String[MappedTrajectory.FIELD_COUNT];
+
+    static {
+        CHOREO_FIELDS[MappedTrajectory.X] = "x";
+        CHOREO_FIELDS[MappedTrajectory.Y] = "y";
+        CHOREO_FIELDS[MappedTrajectory.HEADING] = "heading";
+        CHOREO_FIELDS[MappedTrajectory.LEFT_VELOCITY] = "vl";
+        CHOREO_FIELDS[MappedTrajectory.RIGHT_VELOCITY] = "vr";
+        CHOREO_FIELDS[MappedTrajectory.ANGULAR_VELOCITY] = "omega";
+        CHOREO_FIELDS[MappedTrajectory.LEFT_ACCELERATION] = "al";
+        CHOREO_FIELDS[MappedTrajectory.RIGHT_ACCELERATION] = "ar";
+    }
+
+    private TrajectoryCacheBuilder() {}
+
+    /** Arguments: the folder of {@code .traj} files, the output folder, and optionally the sample period. */
+    public static void main(String... args) throws IOException {
+        Path inputDir = Path.of(args[0]);
+        Path outputDir = Path.of(args[1]);
+        double periodSeconds = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_PERIOD_SECONDS;
+
+        Files.createDirectories(outputDir);
+        if (!Files.isDirectory(inputDir)) {
+            System.out.println("No trajectories in " + inputDir);
+            return;
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inputDir, "*.traj")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                Path output = outputDir.resolve(fileName.substring(0, fileName.lastIndexOf('.')) + ".bin");
+                int samples = convert(mapper.readTree(file.toFile()), output, periodSeconds);
+                System.out.printf("%s -> %s (%d samples)%n", file, output, samples);
+            }
+        }
+    }
+
+    /**
+     * Resamples one parsed Choreo trajectory and writes it out.
+     *
+     * @return how many samples were written
+     */
+    static int convert(JsonNode json, Path output, double periodSeconds) throws IOException {
+        JsonNode trajectory = json.get("trajectory");
+        String sampleType = trajectory.path("sampleType").asText("Differential");
+        if (!sampleType.equals("Differential")) {
+            throw new IllegalArgumentException(output + ": only differential trajectories are supported, got " + sampleType);
+        }
+        JsonNode samples = trajectory.get("samples");
+        int inputCount = samples.size();
+        if (inputCount == 0) {
+            throw new IllegalArgumentException(output + ": trajectory has no samples");
+        }
+
+        // Pull the fields we need into arrays, sample by sample
+        double[] times = new double[inputCount];
+        double[][] values = new double[inputCount][MappedTrajectory.FIELD_COUNT];
+        for (int i = 0; i < inputCount; i++) {
+            JsonNode sample = samples.get(i);
+            times[i] = sample.get("t").asDouble();
+            for (int field = 0; field < MappedTrajectory.FIELD_COUNT; field++) {
+                values[i][field] = sample.path(CHOREO_FIELDS[field]).asDouble(0.0);
+            }
+        }
+        double startTime = times[0];
+        double totalTime = times[inputCount - 1] - startTime;
+        int outputCount = (int) Math.ceil(totalTime / periodSeconds - 1e-9) + 1;
+
+        ByteBuffer buffer = MappedTrajectory.allocate(outputCount, periodSeconds, totalTime);
+
+        // Walk through the input samples as we walk through time, they're already sorted
+        int segment = 0;
+        for (int i = 0; i < outputCount; i++) {
+            double t = startTime + Math.min(i * periodSeconds, totalTime);
+            while (segment < inputCount - 2 && times[segment + 1] < t) {
+                segment++;
+            }
+            int next = Math.min(segment + 1, inputCount - 1);
+            double span = times[next] - times[segment];
+            double fraction = span > 0.0 ? MathUtil.clamp((t - times[segment]) / span, 0.0, 1.0) : 0.0;
+            for (int field = 0; field < MappedTrajectory.FIELD_COUNT; field++) {
+                double delta = values[next][field] - values[segment][field];
+                if (field == MappedTrajectory.HEADING) {
+                    delta = MathUtil.angleModulus(delta);
+                }
+                buffer.putDouble(values[segment][field] + delta * fraction);
+            }
+        }
+
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(output,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return outputCount;
+    }
+}
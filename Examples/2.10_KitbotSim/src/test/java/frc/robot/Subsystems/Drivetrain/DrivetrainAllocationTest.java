@@ -0,0 +1,133 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import com.sun.management.ThreadMXBean;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.Utils.InputArrayPool;
+
+/**
+ * Checks that the drivetrain's loop doesn't make any garbage, so the garbage collector never has a
+ * reason to pause the robot in the middle of a match.
+ *
+ * <p>After a warmup, so everything that's made once is already made, this runs 10,000 loops of the
+ * low latency teleop path and {@code periodic} and counts the bytes this thread allocated with
+ * {@link ThreadMXBean}. The Logger isn't running, like on a robot whose logging is off, so this only
+ * measures our code, not AdvantageKit's.
+ */
+@Isolated // The HAL and the CommandScheduler are shared by the whole program
+class DrivetrainAllocationTest {
+    static final int WARMUP_CYCLES = 10_000;
+    static final int MEASURED_CYCLES = 10_000;
+
+    @BeforeAll
+    static void setup() {
+        assertTrue(HAL.initialize(500, 0));
+        // The pose trail publishes once a second, which makes one array, so the clock is held still
+        // and it only publishes during the warmup. The fake IO keeps its own time for odometry
+        SimHooks.pauseTiming();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        SimHooks.resumeTiming();
+    }
+
+    @Test
+    void loopDoesNotAllocate() {
+        MovingDrivetrainIO io = new MovingDrivetrainIO();
+        DrivetrainSubsystem drivetrain = new DrivetrainSubsystem(io);
+        try {
+            ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            assumeTrue(threads.isThreadAllocatedMemorySupported(), "This JVM can't count allocated bytes");
+            threads.setThreadAllocatedMemoryEnabled(true);
+
+            runLoops(drivetrain, WARMUP_CYCLES);
+            long before = threads.getCurrentThreadAllocatedBytes();
+            runLoops(drivetrain, MEASURED_CYCLES);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            assertEquals(0, allocated, "Bytes allocated over " + MEASURED_CYCLES + " loops");
+        } finally {
+            CommandScheduler.getInstance().unregisterSubsystem(drivetrain);
+        }
+    }
+
+    private static void runLoops(DrivetrainSubsystem drivetrain, int loops) {
+        for (int i = 0; i < loops; i++) {
+            // Weave back and forth so the pose, and the pose trail, keep changing
+            drivetrain.arcadeDriveImmediate(0.5, 0.5 * Math.sin(i * 0.01));
+            drivetrain.periodic();
+        }
+    }
+
+    /**
+     * Moves the wheels at the speeds we ask for, and hands the odometry samples over through an
+     * {@link OdometrySampleQueue} and {@link InputArrayPool}s the same way {@link DrivetrainIOReal} does.
+     */
+    static class MovingDrivetrainIO implements DrivetrainIO {
+        private final OdometrySampleQueue odometryQueue = new OdometrySampleQueue(DrivetrainIOReal.ODOMETRY_QUEUE_SIZE);
+        private final InputArrayPool timestampPool = new InputArrayPool(DrivetrainIOReal.ODOMETRY_QUEUE_SIZE);
+        private final InputArrayPool leftPositionPool = new InputArrayPool(DrivetrainIOReal.ODOMETRY_QUEUE_SIZE);
+        private final InputArrayPool rightPositionPool = new InputArrayPool(DrivetrainIOReal.ODOMETRY_QUEUE_SIZE);
+
+        private double timestampSeconds = 0.0;
+        private double leftMetersPerSecond = 0.0;
+        private double rightMetersPerSecond = 0.0;
+        private double leftMeters = 0.0;
+        private double rightMeters = 0.0;
+
+        @Override
+        public void updateInputs(DrivetrainIOInputs inputs) {
+            // What the odometry thread would have read since last loop
+            double period = 1.0 / OdometryThread.FREQUENCY_HZ;
+            for (int i = 0; i < DrivetrainIOSim.ODOMETRY_SAMPLES_PER_LOOP; i++) {
+                timestampSeconds += period;
+                leftMeters += leftMetersPerSecond * period;
+                rightMeters += rightMetersPerSecond * period;
+                odometryQueue.offer(timestampSeconds, leftMeters, rightMeters);
+            }
+
+            inputs.leftVelocityMetersPerSecond = leftMetersPerSecond;
+            inputs.rightVelocityMetersPerSecond = rightMetersPerSecond;
+            inputs.leftPositionMeters = leftMeters;
+            inputs.rightPositionMeters = rightMeters;
+
+            int sampleCount = odometryQueue.size();
+            inputs.odometryTimestamps = timestampPool.next(sampleCount);
+            inputs.odometryLeftPositionsMeters = leftPositionPool.next(sampleCount);
+            inputs.odometryRightPositionsMeters = rightPositionPool.next(sampleCount);
+            odometryQueue.drain(inputs.odometryTimestamps, inputs.odometryLeftPositionsMeters,
+                inputs.odometryRightPositionsMeters);
+        }
+
+        @Override
+        public void setVolts(double left, double right) {
+            // As fast as those volts would drive us with no load
+            leftMetersPerSecond = left / 12.0 * DrivetrainSubsystem.MAX_SPEED_METERS_PER_SECOND;
+            rightMetersPerSecond = right / 12.0 * DrivetrainSubsystem.MAX_SPEED_METERS_PER_SECOND;
+        }
+
+        @Override
+        public void setVelocity(double leftMetersPerSecond, double rightMetersPerSecond) {
+            this.leftMetersPerSecond = leftMetersPerSecond;
+            this.rightMetersPerSecond = rightMetersPerSecond;
+        }
+    }
+}
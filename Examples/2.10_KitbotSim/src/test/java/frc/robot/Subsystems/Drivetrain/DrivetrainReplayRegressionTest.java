@@ -0,0 +1,364 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Subsystems.Drivetrain;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.Subsystems.Drivetrain.DrivetrainIO.DrivetrainIOInputs;
+import frc.robot.Subsystems.Vision.VisionIO.VisionIOInputs;
+import frc.robot.Subsystems.Vision.VisionSubsystem;
+
+/**
+ * Checks that the drivetrain still does what it did in every match we've logged.
+ *
+ * <p>Each log is played back through a real {@link DrivetrainSubsystem} on a {@link
+ * DrivetrainIOReplay}, which hands it the inputs the robot read that loop, and then {@code periodic}
+ * and the vision observations run the same way they did on the robot. Resets from commands, like the
+ * start of auto, are redone from {@code Drivetrain/PoseReset} through {@link
+ * DrivetrainSubsystem#resetPose}. Whenever an arcade command was driving, the same command runs again
+ * on the drive and steer logged next to it. The pose and the setpoints that come out are compared
+ * against the {@code Drivetrain Pose} and {@code Drivetrain/Command/} values the robot logged under
+ * {@code RealOutputs}. If someone changes the odometry, vision or arcade code, every loop of every
+ * match where it makes a difference shows up here.
+ *
+ * <p>Full AdvantageKit replay ({@code ./gradlew replayLogs}) runs the whole robot and writes a new log.
+ * This only runs the drivetrain and checks it as it goes, without the Logger, so each log is its own
+ * test. A subsystem registers itself with the CommandScheduler and times itself with the HAL, which
+ * the whole program shares, so the logs run one at a time.
+ *
+ * <p>Runs with the rest of the tests, on the logs in {@code logs/}. Use {@code ./gradlew test
+ * -PlogDir=<folder>} to check somewhere else. It's skipped if there aren't any logs.
+ */
+@Isolated // The HAL and the CommandScheduler are shared by the whole program
+@Execution(ExecutionMode.SAME_THREAD)
+class DrivetrainReplayRegressionTest {
+    // The replay runs the exact same math on the exact same inputs, so anything past rounding is a change
+    static final double TRANSLATION_TOLERANCE_METERS = 1e-6;
+    static final double HEADING_TOLERANCE_RADIANS = 1e-6;
+    static final double COMMAND_TOLERANCE = 1e-9;
+
+    // Set by build.gradle from -PlogDir
+    static final String LOG_DIR_PROPERTY = "replayRegression.logDir";
+
+    // Outputs the robot logged while it was running, under RealOutputs
+    private static final String POSE_KEY = "Drivetrain Pose";
+    private static final String RESET_KEY = "Drivetrain/PoseReset";
+    private static final String RESET_COUNT_KEY = "Drivetrain/PoseResetCount";
+
+    @BeforeAll
+    static void setup() {
+        assertTrue(HAL.initialize(500, 0));
+    }
+
+    @TestFactory
+    Stream<DynamicTest> everyLogMatches() throws IOException {
+        Path logDir = Path.of(System.getProperty(LOG_DIR_PROPERTY, "logs"));
+        List<Path> logs = findLogs(logDir);
+        Assumptions.assumeFalse(logs.isEmpty(), "No logs in " + logDir.toAbsolutePath());
+        return logs.stream().map(log -> DynamicTest.dynamicTest(log.getFileName().toString(), () -> {
+            LogReplay replay = new LogReplay();
+            try {
+                replay.run(log);
+            } finally {
+                replay.close();
+            }
+            replay.check();
+        }));
+    }
+
+    static List<Path> findLogs(Path logDir) throws IOException {
+        List<Path> logs = new ArrayList<>();
+        if (Files.isDirectory(logDir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(logDir, "*.wpilog")) {
+                for (Path file : files) {
+                    // Replays of a log are checked through the log itself
+                    if (!file.getFileName().toString().contains("_replay")) {
+                        logs.add(file);
+                    }
+                }
+            }
+        }
+        logs.sort(null);
+        return logs;
+    }
+
+    /**
+     * A {@link DrivetrainIOReplay} that fills in the inputs from the log itself, which is what {@code
+     * Logger.processInputs} does during a full replay, and remembers the last setpoints it was sent.
+     */
+    private static final class LogReplayIO extends DrivetrainIOReplay {
+        // AdvantageKit only logs what changed, so this holds the latest of everything, like the robot saw
+        final DrivetrainIOInputs logged = new DrivetrainIOInputs();
+        double sentLeftVolts = 0.0;
+        double sentRightVolts = 0.0;
+        double sentLeftMetersPerSecond = 0.0;
+        double sentRightMetersPerSecond = 0.0;
+
+        @Override
+        public void updateInputs(DrivetrainIOInputs inputs) {
+            inputs.leftOutputVolts = logged.leftOutputVolts;
+            inputs.rightOutputVolts = logged.rightOutputVolts;
+            inputs.leftVelocityMetersPerSecond = logged.leftVelocityMetersPerSecond;
+            inputs.rightVelocityMetersPerSecond = logged.rightVelocityMetersPerSecond;
+            inputs.leftPositionMeters = logged.leftPositionMeters;
+            inputs.rightPositionMeters = logged.rightPositionMeters;
+            inputs.leftCurrentAmps = logged.leftCurrentAmps;
+            inputs.leftTempCelsius = logged.leftTempCelsius;
+            inputs.rightCurrentAmps = logged.rightCurrentAmps;
+            inputs.rightTempCelsius = logged.rightTempCelsius;
+            inputs.leftConnected = logged.leftConnected;
+            inputs.rightConnected = logged.rightConnected;
+            inputs.leftStale = logged.leftStale;
+            inputs.rightStale = logged.rightStale;
+            inputs.odometryTimestamps = logged.odometryTimestamps;
+            inputs.odometryLeftPositionsMeters = logged.odometryLeftPositionsMeters;
+            inputs.odometryRightPositionsMeters = logged.odometryRightPositionsMeters;
+        }
+
+        @Override
+        public void setVolts(double left, double right) {
+            sentLeftVolts = left;
+            sentRightVolts = right;
+        }
+
+        @Override
+        public void setVelocity(double leftMetersPerSecond, double rightMetersPerSecond) {
+            sentLeftMetersPerSecond = leftMetersPerSecond;
+            sentRightMetersPerSecond = rightMetersPerSecond;
+        }
+    }
+
+    /** Everything one log's replay needs, a fresh drivetrain and the latest of every logged value. */
+    private static final class LogReplay {
+        private final LogReplayIO io = new LogReplayIO();
+        private final DrivetrainSubsystem drivetrain = new DrivetrainSubsystem(io);
+        private final DrivetrainIOInputs inputs = io.logged;
+        private final VisionIOInputs visionInputs = new VisionIOInputs();
+        private boolean hasLoggedPose = false;
+        private double loggedX = 0.0;
+        private double loggedY = 0.0;
+        private double loggedHeading = 0.0;
+        private double[] resetPose = new double[0];
+        private long resetCount = 0;
+        private long appliedResetCount = 0;
+
+        // The last setpoint sent, which arcade command sent it, and the drive and steer it started from
+        private String commandSource = null;
+        private double commandedLeftVolts = 0.0;
+        private double commandedRightVolts = 0.0;
+        private double commandedLeftMetersPerSecond = 0.0;
+        private double commandedRightMetersPerSecond = 0.0;
+        private double arcadeDrive = 0.0;
+        private double arcadeSteer = 0.0;
+        // The same commands the robot drove with, reading the logged drive and steer instead of a controller
+        private final Command voltageCommand = drivetrain.setVoltagesArcadeCommand(() -> arcadeDrive, () -> arcadeSteer);
+        private final Command velocityCommand = drivetrain.setVelocityArcadeCommand(() -> arcadeDrive, () -> arcadeSteer);
+
+        private long loops = 0;
+        private long comparedPoses = 0;
+        private long comparedCommands = 0;
+        private double maxTranslationError = 0.0;
+        private double maxHeadingError = 0.0;
+        private double maxCommandError = 0.0;
+        private double firstPoseFailureSeconds = Double.NaN;
+        private double firstCommandFailureSeconds = Double.NaN;
+
+        void run(Path log) throws IOException {
+            DataLogReader reader = new DataLogReader(log.toString());
+            if (!reader.isValid()) {
+                throw new IOException(log + " isn't a wpilog file");
+            }
+            HashMap<Integer, String> entries = new HashMap<>();
+            long cycleTimestamp = -1;
+
+            for (DataLogRecord record : reader) {
+                if (record.isStart()) {
+                    var start = record.getStartData();
+                    entries.put(start.entry, start.name);
+                    continue;
+                }
+                if (record.isControl()) {
+                    continue;
+                }
+                String key = entries.get(record.getEntry());
+                if (key == null) {
+                    continue;
+                }
+                // AdvantageKit writes a whole loop with one timestamp, so a new one means the last loop is done
+                if (record.getTimestamp() != cycleTimestamp) {
+                    if (cycleTimestamp >= 0) {
+                        endLoop(cycleTimestamp / 1e6);
+                    }
+                    cycleTimestamp = record.getTimestamp();
+                }
+                read(key, record);
+            }
+            if (cycleTimestamp >= 0) {
+                endLoop(cycleTimestamp / 1e6);
+            }
+        }
+
+        /** Lets go of the drivetrain, so the next log's doesn't run next to it. */
+        void close() {
+            CommandScheduler.getInstance().unregisterSubsystem(drivetrain);
+        }
+
+        /** Fails with the worst error and when it first went off, if anything didn't match. */
+        void check() {
+            String summary = String.format("%d loops, %d poses and %d commands compared, max error %.4f mm %.4f deg, "
+                + "max command error %.3g", loops, comparedPoses, comparedCommands, maxTranslationError * 1000.0,
+                Math.toDegrees(maxHeadingError), maxCommandError);
+            assertTrue(Double.isNaN(firstPoseFailureSeconds),
+                () -> String.format("Pose first off at %.2f s, %s", firstPoseFailureSeconds, summary));
+            assertTrue(Double.isNaN(firstCommandFailureSeconds),
+                () -> String.format("Command first off at %.2f s, %s", firstCommandFailureSeconds, summary));
+        }
+
+        /** Saves one value from the log where the robot code would have seen it. */
+        private void read(String key, DataLogRecord record) {
+            switch (key) {
+                case "/Drivetrain/LeftOutputVolts" -> inputs.leftOutputVolts = record.getDouble();
+                case "/Drivetrain/RightOutputVolts" -> inputs.rightOutputVolts = record.getDouble();
+                case "/Drivetrain/LeftVelocityMetersPerSecond" -> inputs.leftVelocityMetersPerSecond = record.getDouble();
+                case "/Drivetrain/RightVelocityMetersPerSecond" -> inputs.rightVelocityMetersPerSecond = record.getDouble();
+                case "/Drivetrain/LeftPositionMeters" -> inputs.leftPositionMeters = record.getDouble();
+                case "/Drivetrain/RightPositionMeters" -> inputs.rightPositionMeters = record.getDouble();
+                case "/Drivetrain/LeftConnected" -> inputs.leftConnected = record.getBoolean();
+                case "/Drivetrain/RightConnected" -> inputs.rightConnected = record.getBoolean();
+                case "/Drivetrain/LeftStale" -> inputs.leftStale = record.getBoolean();
+                case "/Drivetrain/RightStale" -> inputs.rightStale = record.getBoolean();
+                case "/Drivetrain/OdometryTimestamps" -> inputs.odometryTimestamps = record.getDoubleArray();
+                case "/Drivetrain/OdometryLeftPositionsMeters" -> inputs.odometryLeftPositionsMeters = record.getDoubleArray();
+                case "/Drivetrain/OdometryRightPositionsMeters" -> inputs.odometryRightPositionsMeters = record.getDoubleArray();
+                case "/Vision/ObservationTimestamps" -> visionInputs.observationTimestamps = record.getDoubleArray();
+                case "/Vision/ObservationXMeters" -> visionInputs.observationXMeters = record.getDoubleArray();
+                case "/Vision/ObservationYMeters" -> visionInputs.observationYMeters = record.getDoubleArray();
+                case "/Vision/ObservationHeadingRadians" -> visionInputs.observationHeadingRadians = record.getDoubleArray();
+                case "/Vision/ObservationAverageTagDistanceMeters" ->
+                    visionInputs.observationAverageTagDistanceMeters = record.getDoubleArray();
+                case "/Vision/ObservationAmbiguities" -> visionInputs.observationAmbiguities = record.getDoubleArray();
+                case "/Vision/ObservationTagCounts" -> {
+                    long[] counts = record.getIntegerArray();
+                    visionInputs.observationTagCounts = new int[counts.length];
+                    for (int i = 0; i < counts.length; i++) {
+                        visionInputs.observationTagCounts[i] = (int) counts[i];
+                    }
+                }
+                default -> readOutput(key, record);
+            }
+        }
+
+        private void readOutput(String key, DataLogRecord record) {
+            if (!key.startsWith("/RealOutputs/")) {
+                return;
+            }
+            switch (key.substring("/RealOutputs/".length())) {
+                case POSE_KEY -> {
+                    // A Pose2d struct is the x and y of its translation, then its rotation in radians
+                    ByteBuffer pose = ByteBuffer.wrap(record.getRaw()).order(ByteOrder.LITTLE_ENDIAN);
+                    loggedX = pose.getDouble();
+                    loggedY = pose.getDouble();
+                    loggedHeading = pose.getDouble();
+                    hasLoggedPose = true;
+                }
+                case RESET_KEY -> resetPose = record.getDoubleArray();
+                case RESET_COUNT_KEY -> resetCount = record.getInteger();
+                case DrivetrainSubsystem.COMMAND_SOURCE_KEY -> commandSource = record.getString();
+                case "Drivetrain/Command/LeftVolts" -> commandedLeftVolts = record.getDouble();
+                case "Drivetrain/Command/RightVolts" -> commandedRightVolts = record.getDouble();
+                case "Drivetrain/Command/LeftMetersPerSecond" -> commandedLeftMetersPerSecond = record.getDouble();
+                case "Drivetrain/Command/RightMetersPerSecond" -> commandedRightMetersPerSecond = record.getDouble();
+                case "Drivetrain/Command/ArcadeDrive" -> arcadeDrive = record.getDouble();
+                case "Drivetrain/Command/ArcadeSteer" -> arcadeSteer = record.getDouble();
+                default -> { }
+            }
+        }
+
+        /**
+         * Runs one loop in the same order the robot did: drivetrain, then vision, then commands. The
+         * pose is logged at the end of the loop, see {@link DrivetrainSubsystem#getPose}.
+         */
+        private void endLoop(double timestampSeconds) {
+            loops++;
+            drivetrain.periodic();
+
+            // What VisionSubsystem.periodic does with the observations, it can't be built here without a camera
+            VisionSubsystem.addObservations(visionInputs, drivetrain::addVisionMeasurement);
+
+            if (resetCount != appliedResetCount && resetPose.length == 3) {
+                drivetrain.resetPose(resetPose[0], resetPose[1], resetPose[2]);
+                appliedResetCount = resetCount;
+            }
+
+            checkCommand(timestampSeconds);
+
+            if (hasLoggedPose) {
+                comparedPoses++;
+                Pose2d pose = drivetrain.getPose();
+                double translationError = Math.hypot(pose.getX() - loggedX, pose.getY() - loggedY);
+                double headingError = Math.abs(MathUtil.angleModulus(pose.getRotation().getRadians() - loggedHeading));
+                maxTranslationError = Math.max(maxTranslationError, translationError);
+                maxHeadingError = Math.max(maxHeadingError, headingError);
+                if (Double.isNaN(firstPoseFailureSeconds)
+                        && (translationError > TRANSLATION_TOLERANCE_METERS || headingError > HEADING_TOLERANCE_RADIANS)) {
+                    firstPoseFailureSeconds = timestampSeconds;
+                }
+            }
+        }
+
+        /**
+         * Runs the arcade command that was driving again, on the drive and steer it started from, and
+         * compares what it sends against what the robot sent. They're all logged in the same loop as the
+         * setpoint, so a loop where nothing was sent just checks the last one again.
+         */
+        private void checkCommand(double timestampSeconds) {
+            double error;
+            if (DrivetrainSubsystem.ARCADE_VOLTAGE_SOURCE.equals(commandSource)) {
+                // arcadeDriveImmediate sends the same thing under the same source
+                voltageCommand.execute();
+                error = Math.max(Math.abs(io.sentLeftVolts - commandedLeftVolts),
+                    Math.abs(io.sentRightVolts - commandedRightVolts));
+            } else if (DrivetrainSubsystem.ARCADE_VELOCITY_SOURCE.equals(commandSource)) {
+                velocityCommand.execute();
+                error = Math.max(Math.abs(io.sentLeftMetersPerSecond - commandedLeftMetersPerSecond),
+                    Math.abs(io.sentRightMetersPerSecond - commandedRightMetersPerSecond));
+            } else {
+                // Trajectories and characterization depend on more than the log has, so they're skipped
+                return;
+            }
+            comparedCommands++;
+            maxCommandError = Math.max(maxCommandError, error);
+            if (Double.isNaN(firstCommandFailureSeconds) && error > COMMAND_TOLERANCE) {
+                firstCommandFailureSeconds = timestampSeconds;
+            }
+        }
+    }
+}
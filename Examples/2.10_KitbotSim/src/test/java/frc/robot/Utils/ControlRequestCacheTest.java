@@ -0,0 +1,47 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a motor that's asked for the same thing every loop still hears from us often enough
+ * that it doesn't stop on its own. These step the clock by hand 20ms at a time, like a TimedRobot.
+ */
+class ControlRequestCacheTest {
+    static final long LOOP_MICROS = 20_000;
+    static final int VOLTAGE_MODE = 0;
+
+    @Test
+    void unchangedRequestIsResentWithinKeepAlive() {
+        ControlRequestCache cache = new ControlRequestCache("Test/KeepAlive", 0.01);
+        long keepAliveMicros = (long) (ControlRequestCache.DEFAULT_KEEP_ALIVE_SECONDS * 1e6);
+
+        long lastSent = 0;
+        assertTrue(cache.shouldSend(VOLTAGE_MODE, 3.0, lastSent), "The first request always goes out");
+        // A few seconds of asking for the same 3 volts
+        for (long now = LOOP_MICROS; now <= 3_000_000; now += LOOP_MICROS) {
+            if (cache.shouldSend(VOLTAGE_MODE, 3.0, now)) {
+                lastSent = now;
+            }
+            assertTrue(now - lastSent <= keepAliveMicros,
+                "Nothing sent for " + (now - lastSent) / 1000 + "ms at " + now / 1000 + "ms");
+        }
+        // And it's still skipping some, or the cache isn't doing anything
+        assertTrue(cache.getSuppressedCount() > 0);
+    }
+
+    @Test
+    void changedRequestIsSentRightAway() {
+        ControlRequestCache cache = new ControlRequestCache("Test/Changed", 0.01);
+        assertTrue(cache.shouldSend(VOLTAGE_MODE, 3.0, 0));
+        assertFalse(cache.shouldSend(VOLTAGE_MODE, 3.005, LOOP_MICROS), "Inside the tolerance");
+        assertTrue(cache.shouldSend(VOLTAGE_MODE, 4.0, 2 * LOOP_MICROS));
+        assertTrue(cache.shouldSend(VOLTAGE_MODE + 1, 4.0, 3 * LOOP_MICROS), "Switching modes always sends");
+    }
+}